@@ -0,0 +1,107 @@
+package at.mukprojects.countdown.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.mukprojects.countdown.CountdownJournal;
+import at.mukprojects.countdown.CountdownRegistry;
+import at.mukprojects.countdown.ExpiryListener;
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
+/**
+ * This class measures how long it takes to open a journal with the given
+ * number of countdowns and to restore them into a new CountdownRegistry, which
+ * is the time a process needs to get its countdowns back after a restart.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class CountdownJournalBenchmark {
+
+    private static final ExpiryListener LISTENER = new ExpiryListener() {
+	@Override
+	public void expired(long[] ids) {
+	}
+    };
+
+    @Param({ "1000000", "5000000" })
+    private int countdowns;
+
+    private Path path;
+    private TimingWheel wheel;
+    private CountdownJournal journal;
+    private CountdownRegistry registry;
+
+    @Setup
+    public void setUp() throws IOException {
+	path = Files.createTempFile("countdowns", ".journal");
+	wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 1);
+
+	CountdownRegistry registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), LISTENER, countdowns);
+	for (int i = 0; i < countdowns; i++) {
+	    registry.start(i, TimeUnit.HOURS.toMillis(1) + i % 1000);
+	}
+
+	CountdownJournal journal = new CountdownJournal(path);
+	registry.checkpoint(journal);
+	journal.close();
+	registry.stop();
+    }
+
+    @Benchmark
+    public int restore() throws IOException {
+	journal = new CountdownJournal(path);
+	registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), LISTENER, countdowns);
+	return journal.restore(registry);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+	journal.close();
+	registry.stop();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+	wheel.stop();
+	Files.delete(path);
+    }
+}
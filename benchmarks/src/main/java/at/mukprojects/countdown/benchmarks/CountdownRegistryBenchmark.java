@@ -0,0 +1,105 @@
+package at.mukprojects.countdown.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.mukprojects.countdown.CountdownRegistry;
+import at.mukprojects.countdown.ExpiryListener;
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
+/**
+ * This class measures the operations and the deadline queries of a
+ * CountdownRegistry, which holds the given number of countdowns. The
+ * countdowns are long enough to never expire during a run.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class CountdownRegistryBenchmark {
+
+    @Param({ "100000", "1000000", "10000000" })
+    private int countdowns;
+
+    private TimingWheel wheel;
+    private CountdownRegistry registry;
+
+    @Setup
+    public void setUp() {
+	wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 1);
+	registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), new ExpiryListener() {
+	    @Override
+	    public void expired(long[] ids) {
+	    }
+	}, countdowns);
+
+	for (int i = 0; i < countdowns; i++) {
+	    registry.start(i, TimeUnit.HOURS.toMillis(1) + i % 1000);
+	}
+    }
+
+    @Benchmark
+    public long get() {
+	return registry.get(ThreadLocalRandom.current().nextInt(countdowns));
+    }
+
+    @Benchmark
+    public boolean extend() {
+	return registry.extend(ThreadLocalRandom.current().nextInt(countdowns), 1);
+    }
+
+    @Benchmark
+    public void restart() {
+	registry.start(ThreadLocalRandom.current().nextInt(countdowns), TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Benchmark
+    public int count() {
+	return registry.count(TimeUnit.HOURS.toMillis(1) - 1000, TimeUnit.HOURS.toMillis(1) + 500);
+    }
+
+    @Benchmark
+    public long[] soonest() {
+	return registry.soonest(10);
+    }
+
+    @TearDown
+    public void tearDown() {
+	registry.stop();
+	wheel.stop();
+    }
+}
@@ -0,0 +1,83 @@
+package at.mukprojects.countdown.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.mukprojects.countdown.CountdownTask;
+import at.mukprojects.countdown.CountdownTime;
+
+/**
+ * This class measures the reads of a CountdownTime, which is shared by all
+ * benchmark threads, and the cost of a single tick of a CountdownTask. The
+ * number of reader threads can be changed with the -t option of JMH.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountdownTimeBenchmark {
+
+    private CountdownTime ticking;
+    private CountdownTime tickFree;
+    private CountdownTask task;
+
+    @Setup
+    public void setUp() {
+	ticking = new CountdownTime(Long.MAX_VALUE / 2, CountdownTime.MODE_TIMER);
+	tickFree = new CountdownTime(TimeUnit.DAYS.toMillis(365), CountdownTime.MODE_TIMER, true);
+
+	/*
+	 * The countdown is long enough to never expire during a run.
+	 */
+	task = new CountdownTask(new CountdownTime(Long.MAX_VALUE / 2, CountdownTime.MODE_TIMER), 10);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long readTicking() {
+	return ticking.get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long readTickFree() {
+	return tickFree.get();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void tick() {
+	task.run();
+    }
+}
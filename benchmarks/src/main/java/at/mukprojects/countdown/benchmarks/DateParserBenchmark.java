@@ -0,0 +1,68 @@
+package at.mukprojects.countdown.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.mukprojects.countdown.CountdownTimer;
+import at.mukprojects.countdown.DateParser;
+
+/**
+ * This class measures the parsing of a date in each supported format and of a
+ * string, which isn't a date at all.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateParserBenchmark {
+
+    @Param({ "20.10.2015 10:20:30", "2015-10-20T10:20:30Z", "2015-10-20T10:20:30+0200", "2015-10-20T10:20:30",
+	    "2015-10-20T10:20:30.123Z", "2015-10-20T10:20:30.123+0200", "2015-10-20 10:20:30",
+	    "10/20/2015 10:20:30", "10/20/2015T10:20:30.123Z", "10/20/2015T10:20:30.123+0200",
+	    "10/20/2015T10:20:30.123", "10/20/2015T10:20:30+0200", "10/20/2015T10:20:30", "2015:10:20 10:20:30",
+	    "20151020", "20.10.2015", "10/20/2015", "text" })
+    public String text;
+
+    private final DateParser parser = DateParser.getDefault();
+
+    @Benchmark
+    public Date parseDate() {
+	return CountdownTimer.parseDate(text);
+    }
+
+    @Benchmark
+    public long parse() {
+	return parser.parse(text);
+    }
+}
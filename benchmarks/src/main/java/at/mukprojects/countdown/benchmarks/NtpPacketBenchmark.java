@@ -0,0 +1,98 @@
+package at.mukprojects.countdown.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.mukprojects.countdown.client.NtpMessage;
+import at.mukprojects.countdown.client.NtpPacket;
+
+/**
+ * This class measures the encoding and decoding of NTP packets with the
+ * NtpPacket codec and, for comparison, with NtpMessage.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NtpPacketBenchmark {
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(NtpPacket.SIZE);
+    private final NtpPacket packet = new NtpPacket(buffer);
+
+    private byte[] reply;
+    private long timestamp;
+    private double destination;
+
+    @Setup
+    public void setUp() {
+	timestamp = NtpPacket.now();
+	destination = NtpMessage.now();
+
+	NtpMessage message = new NtpMessage();
+	message.mode = 4;
+	message.stratum = 2;
+	message.originateTimestamp = NtpMessage.now();
+	message.receiveTimestamp = NtpMessage.now();
+	message.transmitTimestamp = NtpMessage.now();
+	reply = message.toByteArray();
+
+	buffer.put(reply, 0, NtpPacket.SIZE).clear();
+    }
+
+    @Benchmark
+    public ByteBuffer encodePacket() {
+	return packet.request(timestamp).buffer();
+    }
+
+    @Benchmark
+    public long decodePacket() {
+	long originate = packet.getOriginateTimestamp();
+	long receive = packet.getReceiveTimestamp();
+	long transmit = packet.getTransmitTimestamp();
+	return NtpPacket.toNanos(((receive - originate) + (transmit - timestamp)) / 2) + packet.getMode()
+		+ packet.getStratum();
+    }
+
+    @Benchmark
+    public byte[] encodeMessage() {
+	return new NtpMessage().toByteArray();
+    }
+
+    @Benchmark
+    public double decodeMessage() {
+	NtpMessage message = new NtpMessage(reply);
+	return ((message.receiveTimestamp - message.originateTimestamp) + (message.transmitTimestamp - destination)) / 2
+		+ message.mode + message.stratum;
+    }
+}
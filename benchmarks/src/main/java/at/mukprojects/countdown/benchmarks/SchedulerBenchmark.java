@@ -0,0 +1,141 @@
+package at.mukprojects.countdown.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.mukprojects.countdown.CountdownTime;
+import at.mukprojects.countdown.CountdownTimer;
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
+/**
+ * This class measures how the TimingWheel scales with the number of concurrent
+ * countdowns. Every invocation starts and cancels, or starts and waits for, the
+ * given number of tick-free countdowns. The expiry benchmark reports the mean
+ * and maximum lateness of the expiry callbacks as secondary results.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SchedulerBenchmark {
+
+    /**
+     * The countdowns expire within this time after they have been started.
+     */
+    private static final int SPREAD = 1000;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int countdowns;
+
+    private TimingWheel wheel;
+    private CountdownTimer[] timers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+	wheel = new TimingWheel();
+	timers = new CountdownTimer[countdowns];
+	for (int i = 0; i < countdowns; i++) {
+	    timers[i] = new CountdownTimer(wheel, CallbackExecutors.direct());
+	}
+    }
+
+    @Benchmark
+    public void startAndCancel() {
+	for (CountdownTimer timer : timers) {
+	    timer.start(TimeUnit.HOURS.toMillis(1));
+	}
+	for (CountdownTimer timer : timers) {
+	    timer.stop();
+	}
+    }
+
+    @Benchmark
+    public void expiry(Lateness lateness) throws InterruptedException {
+	final CountDownLatch latch = new CountDownLatch(countdowns);
+	final AtomicLong sum = new AtomicLong();
+	final AtomicLong max = new AtomicLong();
+
+	for (int i = 0; i < countdowns; i++) {
+	    long time = 100 + i % SPREAD;
+	    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(time);
+
+	    CountdownTime countdown = timers[i].start(time);
+	    countdown.onExpire(new Runnable() {
+		@Override
+		public void run() {
+		    long late = System.nanoTime() - deadline;
+		    sum.addAndGet(late);
+		    long current;
+		    while (late > (current = max.get()) && !max.compareAndSet(current, late)) {
+		    }
+		    latch.countDown();
+		}
+	    });
+	}
+
+	latch.await();
+
+	lateness.meanMicros = TimeUnit.NANOSECONDS.toMicros(sum.get() / countdowns);
+	lateness.maxMicros = TimeUnit.NANOSECONDS.toMicros(max.get());
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopTimers() {
+	for (CountdownTimer timer : timers) {
+	    timer.stop();
+	}
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+	wheel.stop();
+    }
+
+    /**
+     * The lateness of the expiry callbacks of the last invocation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Lateness {
+
+	public long meanMicros;
+	public long maxMicros;
+    }
+}
@@ -0,0 +1,441 @@
+package at.mukprojects.countdown;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.client.ClockOffsetService;
+import at.mukprojects.countdown.client.TimeSample;
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+import at.mukprojects.countdown.scheduler.Timeout;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
+/**
+ * This class keeps the countdowns, which have been started with the atomic
+ * time, in line with the NTP servers. A countdown on a date captures the clock
+ * offset once, so the drift of the local oscillator adds up over days.
+ * 
+ * As long as countdowns are tracked, the ClockOffsetService is refreshed in
+ * intervals of 2^poll seconds. Like NTP, the poll exponent grows while the
+ * offset is stable and shrinks when it changes. Every sample of the service is
+ * taken over, no matter who requested it, so the countdowns are corrected to
+ * the same offset, which new countdowns are started with.
+ * 
+ * Every change of the offset is slewed: once per second, all tracked
+ * countdowns are moved towards the new offset in a single pass, but never by
+ * more than the maximum slew rate. A countdown therefore never jumps, it just
+ * runs a little faster or slower until it's corrected.
+ * 
+ * Countdowns are dropped as soon as they expire or are stopped.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class ClockSync {
+
+    /**
+     * Default lower bound of the poll exponent, 64 seconds.
+     */
+    public static final int DEFAULT_MIN_POLL = 6;
+
+    /**
+     * Default upper bound of the poll exponent, 1024 seconds.
+     */
+    public static final int DEFAULT_MAX_POLL = 10;
+
+    /**
+     * Default maximum slew rate in parts per million.
+     */
+    public static final int DEFAULT_MAX_SLEW = 500;
+
+    /**
+     * The largest poll exponent, about 36 hours.
+     */
+    private static final int MAX_POLL = 17;
+
+    /**
+     * Time in milliseconds between two slew passes.
+     */
+    private static final long SLEW_INTERVAL = 1000;
+
+    /**
+     * The largest change of the offset in nanoseconds, which still counts as
+     * stable.
+     */
+    private static final long STABLE_OFFSET = 1000000;
+
+    private static final Logger logger = LoggerFactory.getLogger(ClockSync.class);
+
+    private static volatile ClockSync defaultSync;
+
+    private final ClockOffsetService service;
+    private final CountdownScheduler scheduler;
+    private final int minPoll;
+    private final int maxPoll;
+    private final long maxStep;
+
+    /*
+     * Maps every tracked countdown to the offset it has been corrected to.
+     */
+    private final Map<CountdownTime, Baseline> countdowns = new ConcurrentHashMap<CountdownTime, Baseline>();
+
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final AtomicBoolean slewing = new AtomicBoolean();
+
+    private volatile long offset;
+    private volatile boolean measured;
+    private volatile int poll;
+    private volatile Timeout slewTimeout;
+
+    /**
+     * Constructs a new ClockSync, which uses the shared ClockOffsetService,
+     * the shared TimingWheel and the default poll exponents and slew rate.
+     */
+    public ClockSync() {
+	this(ClockOffsetService.getDefault(), TimingWheel.getDefault(), DEFAULT_MIN_POLL, DEFAULT_MAX_POLL,
+		DEFAULT_MAX_SLEW);
+    }
+
+    /**
+     * Constructs a new ClockSync.
+     * 
+     * @param service
+     *            The service, which provides the offset.
+     * @param scheduler
+     *            The scheduler, which runs the polls and the slew passes.
+     * @param minPoll
+     *            The lower bound of the poll exponent, the shortest interval
+     *            between two polls is 2^minPoll seconds.
+     * @param maxPoll
+     *            The upper bound of the poll exponent.
+     * @param maxSlew
+     *            The maximum slew rate in parts per million, i.e. the number
+     *            of microseconds, by which a countdown is corrected per second.
+     */
+    public ClockSync(ClockOffsetService service, CountdownScheduler scheduler, int minPoll, int maxPoll,
+	    int maxSlew) {
+	if (service == null) {
+	    throw new NullPointerException("The service must not be null.");
+	}
+	if (scheduler == null) {
+	    throw new NullPointerException("The scheduler must not be null.");
+	}
+	if (minPoll < 0 || maxPoll < minPoll || maxPoll > MAX_POLL) {
+	    throw new IllegalArgumentException("The poll exponents must be between 0 and " + MAX_POLL + ".");
+	}
+	if (maxSlew <= 0) {
+	    throw new IllegalArgumentException("The maximum slew rate must be positive.");
+	}
+	this.service = service;
+	this.scheduler = scheduler;
+	this.minPoll = minPoll;
+	this.maxPoll = maxPoll;
+	this.maxStep = TimeUnit.MICROSECONDS.toNanos(maxSlew) * SLEW_INTERVAL / 1000;
+	this.poll = minPoll;
+
+	service.onSample(new Consumer<TimeSample>() {
+	    @Override
+	    public void accept(TimeSample sample) {
+		update(sample.getOffset());
+	    }
+	});
+    }
+
+    /**
+     * Returns the shared ClockSync, which corrects the countdowns of every
+     * CountdownTimer.
+     * 
+     * @return The shared ClockSync.
+     */
+    public static ClockSync getDefault() {
+	ClockSync sync = defaultSync;
+	if (sync == null) {
+	    synchronized (ClockSync.class) {
+		sync = defaultSync;
+		if (sync == null) {
+		    sync = new ClockSync();
+		    defaultSync = sync;
+		}
+	    }
+	}
+	return sync;
+    }
+
+    /**
+     * Tracks a countdown, which has been started with the given clock offset.
+     * The polls are started with the first countdown.
+     * 
+     * @param countdown
+     *            The countdown.
+     * @param offset
+     *            The offset in nanoseconds, which the countdown has been
+     *            started with.
+     */
+    public void track(CountdownTime countdown, long offset) {
+	if (countdown == null) {
+	    throw new NullPointerException("The countdown must not be null.");
+	}
+
+	synchronized (this) {
+	    if (!measured) {
+		this.offset = offset;
+		measured = true;
+	    }
+	}
+	countdown.track(this);
+	countdowns.put(countdown, new Baseline(offset));
+
+	/*
+	 * The countdown may have been done before it was put.
+	 */
+	if (countdown.isDone()) {
+	    countdowns.remove(countdown);
+	    return;
+	}
+
+	if (this.offset != offset) {
+	    startSlewing();
+	}
+	startPolling();
+    }
+
+    /**
+     * Tracks a countdown, whose offset isn't known, like one restored from a
+     * journal. It's based on the current offset, so only later changes of
+     * the offset are corrected. If there isn't any offset yet, it's requested
+     * first.
+     * 
+     * @param countdown
+     *            The countdown.
+     */
+    public void track(final CountdownTime countdown) {
+	if (countdown == null) {
+	    throw new NullPointerException("The countdown must not be null.");
+	}
+
+	if (measured) {
+	    track(countdown, offset);
+	    return;
+	}
+
+	service.getSampleAsync().whenComplete(new BiConsumer<TimeSample, Throwable>() {
+	    @Override
+	    public void accept(TimeSample sample, Throwable failure) {
+		if (failure != null) {
+		    logger.warn("The countdown couldn't be resynchronised! (" + failure + ")");
+		} else {
+		    track(countdown, sample.getOffset());
+		}
+	    }
+	});
+    }
+
+    /**
+     * Stops tracking a countdown. A correction, which is in progress, isn't
+     * finished.
+     * 
+     * @param countdown
+     *            The countdown.
+     */
+    public void untrack(CountdownTime countdown) {
+	countdowns.remove(countdown);
+    }
+
+    /**
+     * Returns the last measured clock offset.
+     * 
+     * @return The offset in nanoseconds.
+     */
+    public long getOffset() {
+	return offset;
+    }
+
+    /**
+     * Returns the current poll exponent.
+     * 
+     * @return The poll exponent, the next poll is 2^poll seconds after the
+     *         last one.
+     */
+    public int getPoll() {
+	return poll;
+    }
+
+    /**
+     * Returns the number of tracked countdowns.
+     * 
+     * @return The number of countdowns.
+     */
+    public int getTracked() {
+	return countdowns.size();
+    }
+
+    private void startPolling() {
+	if (polling.compareAndSet(false, true)) {
+	    schedulePoll();
+	}
+    }
+
+    private void schedulePoll() {
+	scheduler.schedule(new Runnable() {
+	    @Override
+	    public void run() {
+		poll();
+	    }
+	}, 1L << poll, TimeUnit.SECONDS);
+    }
+
+    private void poll() {
+	/*
+	 * Stop polling without countdowns, unless one has been tracked in the
+	 * meantime.
+	 */
+	if (countdowns.isEmpty()) {
+	    polling.set(false);
+	    if (countdowns.isEmpty() || !polling.compareAndSet(false, true)) {
+		return;
+	    }
+	}
+
+	/*
+	 * The new sample is taken over by update().
+	 */
+	service.refresh().whenComplete(new BiConsumer<TimeSample, Throwable>() {
+	    @Override
+	    public void accept(TimeSample sample, Throwable failure) {
+		if (failure != null) {
+		    logger.warn("The clock offset couldn't be resynchronised! (" + failure + ")");
+		}
+		schedulePoll();
+	    }
+	});
+    }
+
+    private synchronized void update(long measuredOffset) {
+	if (!measured) {
+	    offset = measuredOffset;
+	    measured = true;
+	    return;
+	}
+
+	long change = measuredOffset - offset;
+	if (Math.abs(change) <= STABLE_OFFSET) {
+	    poll = Math.min(maxPoll, poll + 1);
+	} else {
+	    poll = Math.max(minPoll, poll - 1);
+	}
+
+	logger.debug("The clock offset has changed by " + change + " nanoseconds, the next poll is in " + (1L << poll)
+		+ " seconds.");
+
+	offset = measuredOffset;
+	if (change != 0 && !countdowns.isEmpty()) {
+	    startSlewing();
+	}
+    }
+
+    private void startSlewing() {
+	if (slewing.compareAndSet(false, true)) {
+	    slewTimeout = scheduler.schedule(new Runnable() {
+		@Override
+		public void run() {
+		    slew();
+		}
+	    }, SLEW_INTERVAL, SLEW_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+    }
+
+    /*
+     * Moves every countdown one step towards the current offset. The passes
+     * stop, once all countdowns have reached it.
+     */
+    private void slew() {
+	long target = offset;
+	boolean converged = true;
+
+	Iterator<Map.Entry<CountdownTime, Baseline>> iterator = countdowns.entrySet().iterator();
+	while (iterator.hasNext()) {
+	    Map.Entry<CountdownTime, Baseline> entry = iterator.next();
+	    CountdownTime countdown = entry.getKey();
+	    if (countdown.isDone()) {
+		iterator.remove();
+		continue;
+	    }
+
+	    Baseline baseline = entry.getValue();
+	    long pending = target - baseline.offset;
+	    if (pending == 0) {
+		continue;
+	    }
+
+	    long step = Math.max(-maxStep, Math.min(maxStep, pending));
+	    countdown.slew(baseline.offset, baseline.offset + step);
+	    baseline.offset += step;
+
+	    if (step != pending) {
+		converged = false;
+	    }
+	}
+
+	if (converged) {
+	    slewTimeout.cancel();
+	    slewing.set(false);
+
+	    /*
+	     * The offset may have changed or a countdown with another offset
+	     * may have been tracked during the pass. Neither could start the
+	     * passes, while they were still running.
+	     */
+	    if (offset != target || isPending()) {
+		startSlewing();
+	    }
+	}
+    }
+
+    /*
+     * Returns true if a countdown hasn't reached the current offset yet.
+     */
+    private boolean isPending() {
+	long target = offset;
+	for (Baseline baseline : countdowns.values()) {
+	    if (baseline.offset != target) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /*
+     * The offset a countdown has been corrected to. It's only changed by the
+     * slew passes, which don't overlap.
+     */
+    private static final class Baseline {
+
+	private long offset;
+
+	private Baseline(long offset) {
+	    this.offset = offset;
+	}
+    }
+}
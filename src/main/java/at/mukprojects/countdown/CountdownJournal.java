@@ -0,0 +1,690 @@
+package at.mukprojects.countdown;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+
+/**
+ * This class represents a journal, which checkpoints countdowns to a memory
+ * mapped, append-only file, so they can be restored after a restart.
+ * 
+ * Every change of a tracked countdown appends a record of 32 bytes with the
+ * id, the absolute deadline in epoch milliseconds (or the remaining time of a
+ * paused countdown), the mode, the delay and the accuracy of an adaptive
+ * countdown. Appending only
+ * reserves a slot with a CAS, so countdowns can be checkpointed from many
+ * threads at once. The records are written by the operating system, when it
+ * flushes the mapped pages, or by flush().
+ * 
+ * When the journal is opened, the records are replayed and only the latest
+ * record of every running or paused countdown is kept. The same compaction
+ * happens, when the file would grow beyond 2 GB. Journals of the first
+ * version, whose records have no accuracy, are converted by the compaction.
+ * 
+ * Usage example
+ * 
+ * CountdownJournal journal = new CountdownJournal(path);
+ * journal.restore(TimingWheel.getDefault(), CallbackExecutors.getDefault(), listener);
+ * 
+ * CountdownTimer timer = new CountdownTimer();
+ * timer.checkpoint(journal, id);
+ * timer.start(5000);
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class CountdownJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CountdownJournal.class);
+
+    private static final int MAGIC = 0x43444a31;
+    private static final int VERSION = 2;
+
+    /*
+     * A record consists of the id, the value, the mode and the type as
+     * shorts, the delay, the accuracy as float bits and the checksum. The
+     * records of the first version have no accuracy, but an int mode at 16
+     * and an int type at 24.
+     */
+    private static final int VERSION_1 = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+
+    private static final int TYPE_RUNNING = 1;
+    private static final int TYPE_PAUSED = 2;
+    private static final int TYPE_REMOVED = 3;
+
+    private static final long INITIAL_CAPACITY = 1 << 20;
+    private static final long MAX_CAPACITY = Integer.MAX_VALUE & ~(RECORD_SIZE - 1);
+
+    private final Path path;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong position = new AtomicLong();
+
+    /*
+     * The channel and the buffer are only replaced while the write lock is
+     * held. Appending threads hold the read lock.
+     */
+    private FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private volatile boolean closed;
+
+    /*
+     * The end of the records, which have been compacted when the journal was
+     * opened. Only these records are restored.
+     */
+    private long restorable;
+    private boolean restored;
+
+    /**
+     * Opens the journal in the given file. The file is created, if it doesn't
+     * exist, otherwise its records are compacted.
+     * 
+     * @param path
+     *            The path of the journal file.
+     * @throws IOException
+     *             If the file couldn't be opened or isn't a journal.
+     */
+    public CountdownJournal(Path path) throws IOException {
+	this.path = path;
+	this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+		StandardOpenOption.WRITE);
+
+	long size = channel.size();
+	buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_CAPACITY));
+	if (size == 0) {
+	    writeHeader(buffer);
+	    position.set(HEADER_SIZE);
+	} else {
+	    int version = buffer.getInt(4);
+	    if (buffer.getInt(0) != MAGIC || version != VERSION && version != VERSION_1) {
+		channel.close();
+		throw new IOException("The file " + path + " isn't a countdown journal.");
+	    }
+	    compact(version);
+	}
+	restorable = position.get();
+
+	logger.info("The journal " + path + " has been opened with "
+		+ (restorable - HEADER_SIZE) / RECORD_SIZE + " countdowns.");
+    }
+
+    /**
+     * Restores the countdowns, which have been in the journal when it was
+     * opened. Every running or paused countdown is started on a new
+     * CountdownTimer, which keeps checkpointing it under the same id. The
+     * countdowns, which have run out while the process wasn't running, are
+     * passed to the listener in one batch and removed from the journal.
+     * 
+     * @param scheduler
+     *            The CountdownScheduler on which the countdowns are scheduled.
+     * @param callbackExecutor
+     *            The executor, which runs the expiry callbacks.
+     * @param listener
+     *            The listener, which receives the restored countdowns.
+     * @return The number of restored countdowns.
+     * @see #restore(CountdownRegistry)
+     */
+    public int restore(CountdownScheduler scheduler, Executor callbackExecutor, RestoreListener listener) {
+	Replay replay = replay();
+	for (int i = 0; i < replay.count; i++) {
+	    CountdownTimer timer = new CountdownTimer(scheduler, callbackExecutor);
+	    timer.restore(this, replay.ids[i], replay.remaining[i], replay.modes[i], replay.delays[i],
+		    replay.accuracies[i], replay.paused[i]);
+	    listener.restored(replay.ids[i], timer);
+	}
+
+	long[] expired = finish(replay);
+	if (expired != null) {
+	    listener.expired(expired);
+	}
+	return replay.count;
+    }
+
+    /**
+     * Restores the countdowns, which have been in the journal when it was
+     * opened, into the given registry, which keeps checkpointing them. It
+     * doesn't create any objects per countdown and builds the deadline tree of
+     * an empty registry in one go, so millions of countdowns are restored in
+     * well under a second (see CountdownJournalBenchmark). Ticking countdowns
+     * become tick-free.
+     * The countdowns, which have run out while the process wasn't running,
+     * are passed to the listener of the registry in one batch and removed
+     * from the journal.
+     * 
+     * @param registry
+     *            The registry, which receives the restored countdowns.
+     * @return The number of restored countdowns.
+     */
+    public int restore(CountdownRegistry registry) {
+	Replay replay = replay();
+	registry.restore(this, replay.ids, replay.remaining, replay.modes, replay.paused, replay.count);
+
+	long[] expired = finish(replay);
+	if (expired != null) {
+	    registry.fire(expired);
+	}
+	return replay.count;
+    }
+
+    /**
+     * Writes the mapped records to the file.
+     */
+    public void flush() {
+	lock.readLock().lock();
+	try {
+	    if (!closed) {
+		buffer.force();
+	    }
+	} finally {
+	    lock.readLock().unlock();
+	}
+    }
+
+    /**
+     * Flushes and closes the journal. Countdowns, which change afterwards,
+     * aren't checkpointed any more.
+     * 
+     * @throws IOException
+     *             If the file couldn't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+	lock.writeLock().lock();
+	try {
+	    if (!closed) {
+		closed = true;
+		buffer.force();
+		channel.close();
+	    }
+	} finally {
+	    lock.writeLock().unlock();
+	}
+    }
+
+    /**
+     * Returns the path of the journal file.
+     * 
+     * @return The path.
+     */
+    public Path getPath() {
+	return path;
+    }
+
+    /**
+     * Checkpoints the current state of the given countdown. The countdown
+     * isn't locked: every change increases its version before it's
+     * checkpointed. If the version has changed once the record has been
+     * appended, the record may be older than one, which has been appended
+     * before it, so the latest state is appended again. The record of the
+     * latest change is therefore always the last one.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @param countdown
+     *            The countdown.
+     */
+    void write(long id, CountdownTime countdown) {
+	long version;
+	do {
+	    version = countdown.getVersion();
+	    if (countdown.isDone()) {
+		append(id, 0, countdown.getMode(), 0, 0, TYPE_REMOVED);
+	    } else {
+		int accuracy = Float.floatToIntBits((float) countdown.getAccuracy());
+		if (countdown.isPaused()) {
+		    append(id, countdown.get(), countdown.getMode(), countdown.getDelay(), accuracy, TYPE_PAUSED);
+		} else {
+		    append(id, System.currentTimeMillis() + countdown.get(), countdown.getMode(),
+			    countdown.getDelay(), accuracy, TYPE_RUNNING);
+		}
+	    }
+	} while (countdown.getVersion() != version);
+    }
+
+    /**
+     * Checkpoints a countdown of a CountdownRegistry. The caller makes sure
+     * the changes of a countdown are written in order.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @param remaining
+     *            The remaining time in milliseconds.
+     * @param mode
+     *            The creation mode.
+     * @param paused
+     *            True if the countdown is paused.
+     */
+    void write(long id, long remaining, int mode, boolean paused) {
+	if (paused) {
+	    append(id, remaining, mode, 0, 0, TYPE_PAUSED);
+	} else {
+	    append(id, System.currentTimeMillis() + remaining, mode, 0, 0, TYPE_RUNNING);
+	}
+    }
+
+    /**
+     * Removes a countdown of a CountdownRegistry, which has expired or was
+     * stopped.
+     * 
+     * @param id
+     *            The id of the countdown.
+     */
+    void writeRemoved(long id) {
+	append(id, 0, 0, 0, 0, TYPE_REMOVED);
+    }
+
+    /*
+     * Reads the records, which have been compacted when the journal was
+     * opened. It can only be done once.
+     */
+    private Replay replay() {
+	synchronized (this) {
+	    if (restored) {
+		throw new IllegalStateException("The journal has already been restored.");
+	    }
+	    restored = true;
+	}
+
+	long now = System.currentTimeMillis();
+	MappedByteBuffer current = buffer;
+	Replay replay = new Replay(current, (int) ((restorable - HEADER_SIZE) / RECORD_SIZE));
+
+	for (long offset = HEADER_SIZE; offset < restorable; offset += RECORD_SIZE) {
+	    int index = (int) offset;
+	    if (!isValid(current, index, VERSION) || typeOf(current, index, VERSION) == TYPE_REMOVED) {
+		continue;
+	    }
+
+	    long id = current.getLong(index);
+	    long value = current.getLong(index + 8);
+	    boolean paused = typeOf(current, index, VERSION) == TYPE_PAUSED;
+	    long remaining = paused ? value : value - now;
+	    if (remaining <= 0) {
+		if (replay.expiredCount == replay.expired.length) {
+		    replay.expired = Arrays.copyOf(replay.expired, replay.expiredCount * 2);
+		    replay.expiredOffsets = Arrays.copyOf(replay.expiredOffsets, replay.expiredCount * 2);
+		}
+		replay.expired[replay.expiredCount] = id;
+		replay.expiredOffsets[replay.expiredCount++] = index;
+		continue;
+	    }
+
+	    int i = replay.count++;
+	    replay.ids[i] = id;
+	    replay.remaining[i] = remaining;
+	    replay.modes[i] = modeOf(current, index, VERSION);
+	    replay.delays[i] = current.getInt(index + 20);
+	    replay.accuracies[i] = Float.intBitsToFloat(current.getInt(index + 24));
+	    replay.paused[i] = paused;
+	}
+	return replay;
+    }
+
+    /*
+     * Removes the expired countdowns of a replay from the journal and returns
+     * their ids or null if there are none.
+     */
+    private long[] finish(Replay replay) {
+	remove(replay.buffer, replay.expired, replay.expiredOffsets, replay.expiredCount);
+
+	logger.info("The journal has restored " + replay.count + " countdowns, " + replay.expiredCount
+		+ " countdowns have expired in the meantime.");
+
+	return replay.expiredCount > 0 ? Arrays.copyOf(replay.expired, replay.expiredCount) : null;
+    }
+
+    /*
+     * Removes the expired countdowns from the journal. The records are
+     * rewritten in place, unless the journal has been compacted in the
+     * meantime.
+     */
+    private void remove(MappedByteBuffer restored, long[] ids, int[] offsets, int count) {
+	lock.readLock().lock();
+	try {
+	    if (!closed && buffer == restored) {
+		for (int i = 0; i < count; i++) {
+		    int index = offsets[i];
+		    restored.putInt(index + 28,
+			    checksum(ids[i], restored.getLong(index + 8), restored.getShort(index + 16),
+				    restored.getInt(index + 20), restored.getInt(index + 24), TYPE_REMOVED));
+		    restored.putShort(index + 18, (short) TYPE_REMOVED);
+		}
+		return;
+	    }
+	} finally {
+	    lock.readLock().unlock();
+	}
+
+	for (int i = 0; i < count; i++) {
+	    append(ids[i], 0, 0, 0, 0, TYPE_REMOVED);
+	}
+    }
+
+    private void append(long id, long value, int mode, int delay, int accuracy, int type) {
+	for (;;) {
+	    lock.readLock().lock();
+	    try {
+		if (closed) {
+		    return;
+		}
+
+		MappedByteBuffer current = buffer;
+		long offset;
+		do {
+		    offset = position.get();
+		    if (offset + RECORD_SIZE > current.capacity()) {
+			break;
+		    }
+		} while (!position.compareAndSet(offset, offset + RECORD_SIZE));
+
+		if (offset + RECORD_SIZE <= current.capacity()) {
+		    put(current, (int) offset, id, value, mode, delay, accuracy, type);
+		    return;
+		}
+	    } finally {
+		lock.readLock().unlock();
+	    }
+
+	    try {
+		grow();
+	    } catch (IOException e) {
+		logger.error("The countdown " + id + " couldn't be checkpointed! (" + e + ")", e);
+		return;
+	    }
+	}
+    }
+
+    private void grow() throws IOException {
+	lock.writeLock().lock();
+	try {
+	    if (closed || position.get() + RECORD_SIZE <= buffer.capacity()) {
+		return;
+	    }
+
+	    long capacity = buffer.capacity();
+	    if (capacity < MAX_CAPACITY) {
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(capacity * 2, MAX_CAPACITY));
+	    } else {
+		compact(VERSION);
+		if (position.get() + RECORD_SIZE > buffer.capacity()) {
+		    throw new IOException("The journal is full.");
+		}
+	    }
+	} finally {
+	    lock.writeLock().unlock();
+	}
+    }
+
+    /*
+     * Replays the records, writes the latest record of every countdown, which
+     * hasn't been removed, to a new file and replaces the journal with it.
+     * The records of an older version are converted on the way. The caller
+     * holds the write lock or is the constructor.
+     */
+    private void compact(int version) throws IOException {
+	MappedByteBuffer current = buffer;
+	int end = current.capacity() - RECORD_SIZE;
+
+	Index index = new Index(Math.max(16, (end - HEADER_SIZE) / RECORD_SIZE / 4));
+	for (int offset = HEADER_SIZE; offset <= end; offset += RECORD_SIZE) {
+	    int type = typeOf(current, offset, version);
+	    if (type == 0 || !isValid(current, offset, version)) {
+		continue;
+	    }
+	    index.put(current.getLong(offset), type == TYPE_REMOVED ? -1 : offset);
+	}
+
+	int[] records = index.values((end - HEADER_SIZE) / RECORD_SIZE + 1);
+	int live = records.length;
+	long capacity = INITIAL_CAPACITY;
+	while (capacity < HEADER_SIZE + (long) live * RECORD_SIZE * 2 && capacity < MAX_CAPACITY) {
+	    capacity *= 2;
+	}
+
+	Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+	FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+		StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	MappedByteBuffer mapped = target.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	writeHeader(mapped);
+
+	int offset = HEADER_SIZE;
+	if (version == VERSION) {
+	    /*
+	     * Runs of consecutive records are copied at once.
+	     */
+	    ByteBuffer source = current.duplicate();
+	    mapped.position(HEADER_SIZE);
+	    for (int i = 0; i < live;) {
+		int start = records[i];
+		int length = RECORD_SIZE;
+		while (++i < live && records[i] == start + length) {
+		    length += RECORD_SIZE;
+		}
+		source.limit(start + length).position(start);
+		mapped.put(source);
+	    }
+	    offset = mapped.position();
+	} else {
+	    for (int record : records) {
+		put(mapped, offset, current.getLong(record), current.getLong(record + 8),
+			modeOf(current, record, version), current.getInt(record + 20), 0,
+			typeOf(current, record, version));
+		offset += RECORD_SIZE;
+	    }
+	}
+	mapped.force();
+
+	channel.close();
+	Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+	channel = target;
+	buffer = mapped;
+	position.set(offset);
+
+	logger.debug("The journal has been compacted to " + live + " countdowns.");
+    }
+
+    private static void writeHeader(MappedByteBuffer buffer) {
+	buffer.putInt(0, MAGIC);
+	buffer.putInt(4, VERSION);
+    }
+
+    private static void put(MappedByteBuffer buffer, int offset, long id, long value, int mode, int delay,
+	    int accuracy, int type) {
+	buffer.putLong(offset, id);
+	buffer.putLong(offset + 8, value);
+	buffer.putShort(offset + 16, (short) mode);
+	buffer.putInt(offset + 20, delay);
+	buffer.putInt(offset + 24, accuracy);
+	buffer.putInt(offset + 28, checksum(id, value, mode, delay, accuracy, type));
+
+	/*
+	 * The type is written last, a record without a type is skipped by the
+	 * replay.
+	 */
+	buffer.putShort(offset + 18, (short) type);
+    }
+
+    private static int typeOf(MappedByteBuffer buffer, int offset, int version) {
+	return version == VERSION_1 ? buffer.getInt(offset + 24) : buffer.getShort(offset + 18);
+    }
+
+    private static int modeOf(MappedByteBuffer buffer, int offset, int version) {
+	return version == VERSION_1 ? buffer.getInt(offset + 16) : buffer.getShort(offset + 16);
+    }
+
+    private static boolean isValid(MappedByteBuffer buffer, int offset, int version) {
+	int type = typeOf(buffer, offset, version);
+	int accuracy = version == VERSION_1 ? 0 : buffer.getInt(offset + 24);
+	return (type == TYPE_RUNNING || type == TYPE_PAUSED || type == TYPE_REMOVED)
+		&& buffer.getInt(offset + 28) == checksum(buffer.getLong(offset), buffer.getLong(offset + 8),
+			modeOf(buffer, offset, version), buffer.getInt(offset + 20), accuracy, type);
+    }
+
+    /*
+     * The accuracy is mixed in with the type, so the checksum of a record
+     * without an accuracy is the same as in the first version.
+     */
+    private static int checksum(long id, long value, int mode, int delay, int accuracy, int type) {
+	long hash = id * 0x9E3779B97F4A7C15L;
+	hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+	hash = (hash ^ ((long) mode << 32 | delay & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+	hash = (hash ^ ((long) accuracy << 32 | type & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+	return (int) (hash ^ hash >>> 32);
+    }
+
+    /**
+     * The running and paused countdowns and the expired ones, which have been
+     * read from the journal, in primitive columns.
+     */
+    private static final class Replay {
+
+	private final MappedByteBuffer buffer;
+	private final long[] ids;
+	private final long[] remaining;
+	private final int[] modes;
+	private final int[] delays;
+	private final float[] accuracies;
+	private final boolean[] paused;
+	private int count;
+
+	private long[] expired = new long[16];
+	private int[] expiredOffsets = new int[16];
+	private int expiredCount;
+
+	private Replay(MappedByteBuffer buffer, int capacity) {
+	    this.buffer = buffer;
+	    ids = new long[capacity];
+	    remaining = new long[capacity];
+	    modes = new int[capacity];
+	    delays = new int[capacity];
+	    accuracies = new float[capacity];
+	    paused = new boolean[capacity];
+	}
+    }
+
+    /**
+     * An open addressing hash map from the id of a countdown to the offset of
+     * its latest record. Removed countdowns keep their slot with an offset of
+     * -1.
+     */
+    private static final class Index {
+
+	private long[] ids;
+	private int[] offsets;
+	private int mask;
+	private int used;
+	private int size;
+
+	private Index(int expected) {
+	    int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+	    ids = new long[capacity];
+	    offsets = new int[capacity];
+	    mask = capacity - 1;
+	    Arrays.fill(offsets, Integer.MIN_VALUE);
+	}
+
+	private void put(long id, int offset) {
+	    int slot = slot(id);
+	    int previous = offsets[slot];
+	    if (previous == Integer.MIN_VALUE) {
+		if (++used > mask / 2) {
+		    resize();
+		    slot = slot(id);
+		}
+		ids[slot] = id;
+	    }
+	    offsets[slot] = offset;
+
+	    if (previous < 0 && offset >= 0) {
+		size++;
+	    } else if (previous >= 0 && offset < 0) {
+		size--;
+	    }
+	}
+
+	private int[] values(int records) {
+	    /*
+	     * The records are marked in a bit set, so their offsets come out in
+	     * the order in which they have been written without sorting them.
+	     */
+	    long[] marks = new long[(records + 63) >>> 6];
+	    for (int offset : offsets) {
+		if (offset >= 0) {
+		    int record = (offset - HEADER_SIZE) / RECORD_SIZE;
+		    marks[record >>> 6] |= 1L << record;
+		}
+	    }
+
+	    int[] values = new int[size];
+	    int i = 0;
+	    for (int word = 0; word < marks.length; word++) {
+		long bits = marks[word];
+		while (bits != 0) {
+		    int record = (word << 6) + Long.numberOfTrailingZeros(bits);
+		    values[i++] = HEADER_SIZE + record * RECORD_SIZE;
+		    bits &= bits - 1;
+		}
+	    }
+	    return values;
+	}
+
+	private int slot(long id) {
+	    int slot = (int) (id * 0x9E3779B97F4A7C15L >>> 40) & mask;
+	    while (offsets[slot] != Integer.MIN_VALUE && ids[slot] != id) {
+		slot = (slot + 1) & mask;
+	    }
+	    return slot;
+	}
+
+	private void resize() {
+	    long[] oldIds = ids;
+	    int[] oldOffsets = offsets;
+
+	    ids = new long[oldIds.length * 2];
+	    offsets = new int[oldOffsets.length * 2];
+	    mask = ids.length - 1;
+	    Arrays.fill(offsets, Integer.MIN_VALUE);
+
+	    for (int i = 0; i < oldIds.length; i++) {
+		if (oldOffsets[i] != Integer.MIN_VALUE) {
+		    int slot = slot(oldIds[i]);
+		    ids[slot] = oldIds[i];
+		    offsets[slot] = oldOffsets[i];
+		}
+	    }
+	}
+    }
+}
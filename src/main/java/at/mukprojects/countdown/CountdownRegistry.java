@@ -0,0 +1,1135 @@
+package at.mukprojects.countdown;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+import at.mukprojects.countdown.scheduler.Timeout;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
+/**
+ * This class represents a registry, which holds a very large number of
+ * tick-free countdowns by id. Unlike a CountdownTimer, it doesn't create any
+ * objects per countdown. The countdowns are stored in primitive columns, which
+ * are indexed by a slot: the id and the deadline (16 bytes), the links and
+ * the size of the deadline tree (12 bytes), the mode and the state (2 bytes)
+ * and the entry in the id hash table (at least 8 bytes).
+ * 
+ * That's less than 40 bytes per countdown, if the registry has been created
+ * with a fitting capacity. Growing the columns doubles them, so they may take
+ * up to twice as much.
+ * 
+ * The running countdowns are kept in a treap ordered by their deadline, so
+ * the registry only needs a single timeout on the scheduler for the earliest
+ * deadline. All countdowns, which are due at the same time, are removed in one
+ * pass and passed to the ExpiryListener in one batch. Every node of the treap
+ * knows the size of its subtree, so the countdowns, which expire within a
+ * window, can be counted in logarithmic time and listed without a scan.
+ * 
+ * CountdownViews can be used to access a single countdown like a
+ * CountdownTime. The registry can be checkpointed to a CountdownJournal, which
+ * restores all its countdowns into a new registry in a single batch.
+ * 
+ * Usage example
+ * 
+ * CountdownRegistry registry = new CountdownRegistry(listener);
+ * registry.start(42, 5000);
+ * registry.extend(42, 1000);
+ * long[] soon = registry.expiring(0, 60000);
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class CountdownRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CountdownRegistry.class);
+
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_RUNNING = 1;
+    private static final byte STATE_PAUSED = 2;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int NIL = -1;
+
+    private final CountdownScheduler scheduler;
+    private final Executor callbackExecutor;
+    private final ExpiryListener listener;
+    private final StampedLock lock = new StampedLock();
+
+    /*
+     * The columns are indexed by the slot of a countdown. A running
+     * countdown holds its deadline based on System.nanoTime(), a paused one
+     * its remaining nanoseconds. The left column holds the next free slot,
+     * if the slot is free.
+     */
+    private long[] ids;
+    private long[] deadlines;
+    private byte[] modes;
+    private byte[] states;
+
+    /*
+     * The treap of the running countdowns. The priority of a node is derived
+     * from its slot, so it doesn't need a column.
+     */
+    private int[] left;
+    private int[] right;
+    private int[] sizes;
+    private int root = NIL;
+
+    /*
+     * Open addressing hash table from the id to the slot plus one. Zero marks
+     * an empty entry.
+     */
+    private int[] table;
+    private int mask;
+
+    private int size;
+    private int used;
+    private int free = -1;
+
+    private Timeout timeout;
+    private long scheduled;
+    private boolean stopped;
+
+    /*
+     * The journal, to which every change is written while the write lock is
+     * held, or null.
+     */
+    private CountdownJournal journal;
+
+    private final Runnable expiry = new Runnable() {
+	@Override
+	public void run() {
+	    expire();
+	}
+    };
+
+    /**
+     * Constructs a new CountdownRegistry, which uses the shared TimingWheel and
+     * the default callback executor.
+     * 
+     * @param listener
+     *            The listener, which is called with the expired countdowns.
+     */
+    public CountdownRegistry(ExpiryListener listener) {
+	this(TimingWheel.getDefault(), CallbackExecutors.getDefault(), listener, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new CountdownRegistry.
+     * 
+     * @param scheduler
+     *            The CountdownScheduler on which the expiry is scheduled.
+     * @param callbackExecutor
+     *            The executor, which runs the listener.
+     * @param listener
+     *            The listener, which is called with the expired countdowns.
+     * @param capacity
+     *            The number of countdowns, for which space is reserved.
+     */
+    public CountdownRegistry(CountdownScheduler scheduler, Executor callbackExecutor, ExpiryListener listener,
+	    int capacity) {
+	if (scheduler == null) {
+	    throw new NullPointerException("The scheduler must not be null.");
+	}
+	if (callbackExecutor == null) {
+	    throw new NullPointerException("The callback executor must not be null.");
+	}
+	if (listener == null) {
+	    throw new NullPointerException("The listener must not be null.");
+	}
+	if (capacity <= 0) {
+	    throw new IllegalArgumentException("The capacity must be greater than 0.");
+	}
+
+	this.scheduler = scheduler;
+	this.callbackExecutor = callbackExecutor;
+	this.listener = listener;
+
+	ids = new long[capacity];
+	deadlines = new long[capacity];
+	modes = new byte[capacity];
+	states = new byte[capacity];
+	left = new int[capacity];
+	right = new int[capacity];
+	sizes = new int[capacity];
+
+	table = new int[tableSize(capacity)];
+	mask = table.length - 1;
+    }
+
+    /**
+     * Starts a countdown with the given id. A running countdown with the same
+     * id is replaced.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @param time
+     *            The countdown time in milliseconds.
+     */
+    public void start(long id, long time) {
+	start(id, time, CountdownTime.MODE_TIMER);
+    }
+
+    /**
+     * Starts a countdown with the given id. A running countdown with the same
+     * id is replaced.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @param time
+     *            The countdown time in milliseconds.
+     * @param mode
+     *            The creation mode.
+     */
+    public void start(long id, long time, int mode) {
+	long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(time);
+
+	long stamp = lock.writeLock();
+	try {
+	    if (stopped) {
+		throw new IllegalStateException("The registry has been stopped.");
+	    }
+
+	    int slot = find(id);
+	    if (slot < 0) {
+		slot = allocate(id);
+	    } else if (states[slot] == STATE_RUNNING) {
+		unlink(slot);
+	    }
+
+	    deadlines[slot] = deadline;
+	    modes[slot] = (byte) mode;
+	    states[slot] = STATE_RUNNING;
+	    link(slot);
+	    reschedule();
+	    checkpoint(slot);
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    /**
+     * Returns the remaining time of a countdown.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return The remaining time in milliseconds or 0 if the countdown has
+     *         expired, was stopped or was never started.
+     */
+    public long get(long id) {
+	long stamp = lock.readLock();
+	try {
+	    int slot = find(id);
+	    if (slot < 0) {
+		return 0;
+	    }
+	    return remaining(slot);
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+
+    /**
+     * Returns true if a countdown with the given id is running or paused.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return True if the countdown is registered.
+     */
+    public boolean contains(long id) {
+	long stamp = lock.readLock();
+	try {
+	    return find(id) >= 0;
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+
+    /**
+     * Returns true if the countdown with the given id is paused.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return True if the countdown is paused.
+     */
+    public boolean isPaused(long id) {
+	long stamp = lock.readLock();
+	try {
+	    int slot = find(id);
+	    return slot >= 0 && states[slot] == STATE_PAUSED;
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+
+    /**
+     * Returns the creation mode of a countdown.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return The mode or 0 if the countdown isn't registered.
+     */
+    public int getMode(long id) {
+	long stamp = lock.readLock();
+	try {
+	    int slot = find(id);
+	    return slot < 0 ? 0 : modes[slot];
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+
+    /**
+     * Extends a countdown by the given time, unless it has already run out.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @param millis
+     *            The time to add in milliseconds.
+     * @return True if the countdown has been extended.
+     */
+    public boolean extend(long id, long millis) {
+	if (millis < 0) {
+	    throw new IllegalArgumentException("The time must not be negative.");
+	}
+
+	long stamp = lock.writeLock();
+	try {
+	    int slot = find(id);
+	    if (slot < 0 || remainingNanos(slot) <= 0) {
+		return false;
+	    }
+
+	    if (states[slot] == STATE_RUNNING) {
+		unlink(slot);
+		deadlines[slot] += TimeUnit.MILLISECONDS.toNanos(millis);
+		link(slot);
+	    } else {
+		deadlines[slot] += TimeUnit.MILLISECONDS.toNanos(millis);
+	    }
+	    checkpoint(slot);
+	    return true;
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    /**
+     * Pauses a countdown. A paused countdown is removed from the deadline tree
+     * until it's resumed.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return True if the countdown has been paused by this call.
+     */
+    public boolean pause(long id) {
+	long stamp = lock.writeLock();
+	try {
+	    int slot = find(id);
+	    if (slot < 0 || states[slot] != STATE_RUNNING) {
+		return false;
+	    }
+
+	    unlink(slot);
+	    deadlines[slot] -= System.nanoTime();
+	    states[slot] = STATE_PAUSED;
+	    checkpoint(slot);
+	    return true;
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    /**
+     * Resumes a paused countdown with the time, which was remaining when it
+     * was paused.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return True if the countdown has been resumed by this call.
+     */
+    public boolean resume(long id) {
+	long stamp = lock.writeLock();
+	try {
+	    int slot = find(id);
+	    if (slot < 0 || states[slot] != STATE_PAUSED) {
+		return false;
+	    }
+
+	    deadlines[slot] += System.nanoTime();
+	    states[slot] = STATE_RUNNING;
+	    link(slot);
+	    reschedule();
+	    checkpoint(slot);
+	    return true;
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    /**
+     * Stops a countdown and removes it from the registry. The listener isn't
+     * called for it.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return True if the countdown has been removed.
+     */
+    public boolean stop(long id) {
+	long stamp = lock.writeLock();
+	try {
+	    int slot = find(id);
+	    if (slot < 0) {
+		return false;
+	    }
+	    if (states[slot] == STATE_RUNNING) {
+		unlink(slot);
+	    }
+	    if (journal != null) {
+		journal.writeRemoved(id);
+	    }
+	    release(slot);
+	    return true;
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    /**
+     * Stops all countdowns and cancels the expiry timeout. The registry can't
+     * be used afterwards. The countdowns are left in the journal, so they can
+     * be restored after a restart.
+     */
+    public void stop() {
+	long stamp = lock.writeLock();
+	try {
+	    stopped = true;
+	    if (timeout != null) {
+		timeout.cancel();
+		timeout = null;
+	    }
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    /**
+     * Checkpoints the countdowns of this registry to the given journal under
+     * their ids. The countdowns, which are already in the registry, are
+     * written right away, every other one whenever it changes.
+     * 
+     * @param journal
+     *            The journal or null to stop checkpointing.
+     */
+    public void checkpoint(CountdownJournal journal) {
+	long stamp = lock.writeLock();
+	try {
+	    this.journal = journal;
+	    for (int slot = 0; slot < used; slot++) {
+		checkpoint(slot);
+	    }
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    /**
+     * Returns a view of the countdown with the given id.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return The view.
+     */
+    public CountdownView view(long id) {
+	return new CountdownView(this).wrap(id);
+    }
+
+    /**
+     * Returns the number of running and paused countdowns.
+     * 
+     * @return The number of countdowns.
+     */
+    public int size() {
+	long stamp = lock.readLock();
+	try {
+	    return size;
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+
+    /**
+     * Counts the running countdowns, which expire within the given window.
+     * 
+     * @param from
+     *            The start of the window in milliseconds from now.
+     * @param to
+     *            The end of the window in milliseconds from now, which is
+     *            excluded.
+     * @return The number of countdowns.
+     */
+    public int count(long from, long to) {
+	long now = System.nanoTime();
+	long stamp = lock.readLock();
+	try {
+	    return Math.max(0, rank(now + TimeUnit.MILLISECONDS.toNanos(to))
+		    - rank(now + TimeUnit.MILLISECONDS.toNanos(from)));
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+
+    /**
+     * Returns the ids of the running countdowns, which expire within the given
+     * window, ordered by their deadline.
+     * 
+     * @param from
+     *            The start of the window in milliseconds from now.
+     * @param to
+     *            The end of the window in milliseconds from now, which is
+     *            excluded.
+     * @return The ids of the countdowns.
+     */
+    public long[] expiring(long from, long to) {
+	long now = System.nanoTime();
+	long start = now + TimeUnit.MILLISECONDS.toNanos(from);
+	long end = now + TimeUnit.MILLISECONDS.toNanos(to);
+
+	long stamp = lock.readLock();
+	try {
+	    long[] result = new long[Math.max(0, rank(end) - rank(start))];
+	    collect(root, start, end, result, 0);
+	    return result;
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+
+    /**
+     * Returns the ids of the running countdowns, which expire next.
+     * 
+     * @param count
+     *            The maximum number of countdowns, it must not be
+     *            negative.
+     * @return The ids of the countdowns ordered by their deadline.
+     */
+    public long[] soonest(int count) {
+	if (count < 0) {
+	    throw new IllegalArgumentException("The count must not be negative.");
+	}
+
+	long stamp = lock.readLock();
+	try {
+	    long[] result = new long[Math.min(count, size(root))];
+	    if (result.length > 0) {
+		long from = deadlines[first()];
+		collect(root, from, from + Long.MAX_VALUE, result, 0);
+	    }
+	    return result;
+	} finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+
+    /*
+     * Removes all countdowns, which are due, and schedules the timeout for
+     * the next deadline.
+     */
+    private void expire() {
+	long[] expired;
+	int count = 0;
+
+	long stamp = lock.writeLock();
+	try {
+	    timeout = null;
+	    if (stopped) {
+		return;
+	    }
+
+	    long now = System.nanoTime();
+	    expired = new long[Math.min(size(root), 16)];
+	    int slot;
+	    while ((slot = first()) != NIL && deadlines[slot] - now <= 0) {
+		unlink(slot);
+
+		if (count == expired.length) {
+		    expired = Arrays.copyOf(expired, count * 2);
+		}
+		expired[count++] = ids[slot];
+		if (journal != null) {
+		    journal.writeRemoved(ids[slot]);
+		}
+		release(slot);
+	    }
+	    reschedule();
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+
+	if (count == 0) {
+	    return;
+	}
+
+	logger.debug(count + " countdowns have expired.");
+
+	fire(count == expired.length ? expired : Arrays.copyOf(expired, count));
+    }
+
+    /**
+     * Restores countdowns from a journal in one batch and keeps
+     * checkpointing them to it. The lock is only taken and the timeout is
+     * only scheduled once. If the registry is empty, the deadline tree is
+     * built from the sorted deadlines in linear time instead of adding the
+     * countdowns one by one.
+     * 
+     * @param journal
+     *            The journal, which the countdowns are restored from.
+     * @param ids
+     *            The ids of the countdowns.
+     * @param remaining
+     *            The remaining time of the countdowns in milliseconds.
+     * @param modes
+     *            The creation modes of the countdowns.
+     * @param paused
+     *            True for every countdown, which is paused.
+     * @param count
+     *            The number of countdowns.
+     */
+    void restore(CountdownJournal journal, long[] ids, long[] remaining, int[] modes, boolean[] paused, int count) {
+	long now = System.nanoTime();
+
+	long stamp = lock.writeLock();
+	try {
+	    if (stopped) {
+		throw new IllegalStateException("The registry has been stopped.");
+	    }
+
+	    if (used == 0) {
+		load(ids, remaining, modes, paused, count, now);
+		this.journal = journal;
+		return;
+	    }
+
+	    for (int i = 0; i < count; i++) {
+		int slot = find(ids[i]);
+		if (slot < 0) {
+		    slot = allocate(ids[i]);
+		} else if (states[slot] == STATE_RUNNING) {
+		    unlink(slot);
+		}
+
+		long nanos = TimeUnit.MILLISECONDS.toNanos(remaining[i]);
+		this.modes[slot] = (byte) modes[i];
+		if (paused[i]) {
+		    deadlines[slot] = nanos;
+		    states[slot] = STATE_PAUSED;
+		} else {
+		    deadlines[slot] = now + nanos;
+		    states[slot] = STATE_RUNNING;
+		    link(slot);
+		}
+	    }
+	    reschedule();
+	    this.journal = journal;
+	} finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    /*
+     * Fills the empty registry with countdowns, whose ids are unique. The
+     * caller holds the write lock.
+     */
+    private void load(long[] ids, long[] remaining, int[] modes, boolean[] paused, int count, long now) {
+	while (this.ids.length < count) {
+	    grow();
+	}
+	if (count * 2 > table.length) {
+	    rehash(tableSize(count));
+	}
+
+	int running = 0;
+	for (int slot = 0; slot < count; slot++) {
+	    long nanos = TimeUnit.MILLISECONDS.toNanos(remaining[slot]);
+	    this.ids[slot] = ids[slot];
+	    this.modes[slot] = (byte) modes[slot];
+	    if (paused[slot]) {
+		deadlines[slot] = nanos;
+		states[slot] = STATE_PAUSED;
+	    } else {
+		deadlines[slot] = now + nanos;
+		states[slot] = STATE_RUNNING;
+		running++;
+	    }
+	    insert(slot);
+	}
+	used = count;
+	size = count;
+
+	root = build(sort(running));
+	reschedule();
+    }
+
+    /*
+     * Returns the slots of the running countdowns ordered by their deadline
+     * and their slot. The deadlines are radix sorted relative to the earliest
+     * one in as many passes of 16 bits as their range needs. Since the sort is
+     * stable, equal deadlines stay ordered by their slot.
+     */
+    private int[] sort(int running) {
+	int[] slots = new int[running];
+	long[] keys = new long[running];
+	for (int slot = 0, i = 0; i < running; slot++) {
+	    if (states[slot] == STATE_RUNNING) {
+		slots[i] = slot;
+		keys[i++] = deadlines[slot];
+	    }
+	}
+
+	long min = running > 0 ? keys[0] : 0;
+	for (int i = 1; i < running; i++) {
+	    if (keys[i] - min < 0) {
+		min = keys[i];
+	    }
+	}
+	long range = 0;
+	for (int i = 0; i < running; i++) {
+	    keys[i] -= min;
+	    range |= keys[i];
+	}
+
+	int[] sortedSlots = new int[running];
+	long[] sortedKeys = new long[running];
+	int[] counts = new int[1 << 16];
+	for (int shift = 0; shift < 64 && range >>> shift != 0; shift += 16) {
+	    Arrays.fill(counts, 0);
+	    for (int i = 0; i < running; i++) {
+		counts[(int) (keys[i] >>> shift) & 0xFFFF]++;
+	    }
+	    for (int digit = 0, sum = 0; digit < counts.length; digit++) {
+		int n = counts[digit];
+		counts[digit] = sum;
+		sum += n;
+	    }
+	    for (int i = 0; i < running; i++) {
+		int position = counts[(int) (keys[i] >>> shift) & 0xFFFF]++;
+		sortedKeys[position] = keys[i];
+		sortedSlots[position] = slots[i];
+	    }
+
+	    long[] swapKeys = keys;
+	    keys = sortedKeys;
+	    sortedKeys = swapKeys;
+	    int[] swapSlots = slots;
+	    slots = sortedSlots;
+	    sortedSlots = swapSlots;
+	}
+	return slots;
+    }
+
+    /*
+     * Builds the treap of the ordered slots along its right spine and returns
+     * its root.
+     */
+    private int build(int[] slots) {
+	int[] spine = new int[64];
+	int top = -1;
+	for (int slot : slots) {
+	    int last = NIL;
+	    while (top >= 0 && priority(spine[top]) < priority(slot)) {
+		last = spine[top--];
+	    }
+	    left[slot] = last;
+	    right[slot] = NIL;
+	    if (top >= 0) {
+		right[spine[top]] = slot;
+	    }
+	    if (++top == spine.length) {
+		spine = Arrays.copyOf(spine, top * 2);
+	    }
+	    spine[top] = slot;
+	}
+
+	int root = top >= 0 ? spine[0] : NIL;
+	count(root);
+	return root;
+    }
+
+    /*
+     * Fills in the sizes of the subtree of the node and returns it.
+     */
+    private int count(int node) {
+	if (node == NIL) {
+	    return 0;
+	}
+	sizes[node] = count(left[node]) + count(right[node]) + 1;
+	return sizes[node];
+    }
+
+    /**
+     * Passes the given countdowns, which have run out, to the listener.
+     * 
+     * @param ids
+     *            The ids of the countdowns.
+     */
+    void fire(final long[] ids) {
+	Runnable callback = new Runnable() {
+	    @Override
+	    public void run() {
+		try {
+		    listener.expired(ids);
+		} catch (Throwable t) {
+		    logger.error("An Exception occured in an expiry listener! (" + t + ")", t);
+		}
+	    }
+	};
+
+	try {
+	    callbackExecutor.execute(callback);
+	} catch (RejectedExecutionException e) {
+	    logger.warn("The callback executor rejected the expiry callback! (" + e
+		    + ") It is run by the scheduler instead.", e);
+	    callback.run();
+	}
+    }
+
+    /*
+     * Makes sure the timeout fires no later than the earliest deadline. The
+     * caller holds the write lock.
+     */
+    private void reschedule() {
+	int slot = first();
+	if (slot == NIL) {
+	    return;
+	}
+
+	long deadline = deadlines[slot];
+	if (timeout != null) {
+	    if (deadline - scheduled >= 0) {
+		return;
+	    }
+	    timeout.cancel();
+	}
+
+	scheduled = deadline;
+	timeout = scheduler.schedule(expiry, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Writes the countdown in the given slot to the journal. The caller holds
+     * the write lock, so the records of a countdown are appended in the order
+     * of its changes.
+     */
+    private void checkpoint(int slot) {
+	if (journal == null || states[slot] == STATE_FREE) {
+	    return;
+	}
+	journal.write(ids[slot], remaining(slot), modes[slot], states[slot] == STATE_PAUSED);
+    }
+
+    private long remaining(int slot) {
+	long nanos = remainingNanos(slot);
+
+	/*
+	 * Round up, so the countdown doesn't read 0 before its deadline.
+	 */
+	return Math.max(0, -Math.floorDiv(-nanos, 1000000L));
+    }
+
+    private long remainingNanos(int slot) {
+	return states[slot] == STATE_PAUSED ? deadlines[slot] : deadlines[slot] - System.nanoTime();
+    }
+
+    private int allocate(long id) {
+	int slot;
+	if (free >= 0) {
+	    slot = free;
+	    free = left[slot];
+	} else {
+	    if (used == ids.length) {
+		grow();
+	    }
+	    slot = used++;
+	}
+
+	ids[slot] = id;
+	size++;
+	if (size * 2 > table.length) {
+	    rehash(table.length * 2);
+	}
+	insert(slot);
+	return slot;
+    }
+
+    private void release(int slot) {
+	delete(ids[slot]);
+	states[slot] = STATE_FREE;
+	left[slot] = free;
+	free = slot;
+	size--;
+    }
+
+    private void grow() {
+	int capacity = ids.length * 2;
+	ids = Arrays.copyOf(ids, capacity);
+	deadlines = Arrays.copyOf(deadlines, capacity);
+	modes = Arrays.copyOf(modes, capacity);
+	states = Arrays.copyOf(states, capacity);
+	left = Arrays.copyOf(left, capacity);
+	right = Arrays.copyOf(right, capacity);
+	sizes = Arrays.copyOf(sizes, capacity);
+    }
+
+    /*
+     * Hash table with linear probing.
+     */
+
+    private int find(long id) {
+	int index = hash(id) & mask;
+	int entry;
+	while ((entry = table[index]) != 0) {
+	    if (ids[entry - 1] == id) {
+		return entry - 1;
+	    }
+	    index = (index + 1) & mask;
+	}
+	return -1;
+    }
+
+    private void insert(int slot) {
+	int index = hash(ids[slot]) & mask;
+	while (table[index] != 0) {
+	    index = (index + 1) & mask;
+	}
+	table[index] = slot + 1;
+    }
+
+    /*
+     * Removes the id and moves the following entries back, so no tombstones
+     * are needed.
+     */
+    private void delete(long id) {
+	int index = hash(id) & mask;
+	while (ids[table[index] - 1] != id) {
+	    index = (index + 1) & mask;
+	}
+
+	int hole = index;
+	for (;;) {
+	    index = (index + 1) & mask;
+	    int entry = table[index];
+	    if (entry == 0) {
+		break;
+	    }
+	    int home = hash(ids[entry - 1]) & mask;
+	    if (((index - home) & mask) >= ((index - hole) & mask)) {
+		table[hole] = entry;
+		hole = index;
+	    }
+	}
+	table[hole] = 0;
+    }
+
+    private void rehash(int length) {
+	int[] old = table;
+	table = new int[length];
+	mask = length - 1;
+	for (int entry : old) {
+	    if (entry != 0) {
+		insert(entry - 1);
+	    }
+	}
+    }
+
+    private static int tableSize(int capacity) {
+	return Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+    }
+
+    private static int hash(long id) {
+	long hash = id * 0x9E3779B97F4A7C15L;
+	return (int) (hash ^ hash >>> 32);
+    }
+
+    /*
+     * Treap of the slots of the running countdowns ordered by their deadline
+     * and their slot. The caller holds the write lock for changes.
+     */
+
+    private void link(int slot) {
+	left[slot] = NIL;
+	right[slot] = NIL;
+	sizes[slot] = 1;
+	root = insert(root, slot);
+    }
+
+    private void unlink(int slot) {
+	root = remove(root, slot);
+    }
+
+    private int first() {
+	int node = root;
+	if (node == NIL) {
+	    return NIL;
+	}
+	while (left[node] != NIL) {
+	    node = left[node];
+	}
+	return node;
+    }
+
+    private int insert(int node, int slot) {
+	if (node == NIL) {
+	    return slot;
+	}
+	if (priority(slot) > priority(node)) {
+	    split(node, slot);
+	    left[slot] = splitLeft;
+	    right[slot] = splitRight;
+	    update(slot);
+	    return slot;
+	}
+	if (before(slot, node)) {
+	    left[node] = insert(left[node], slot);
+	} else {
+	    right[node] = insert(right[node], slot);
+	}
+	sizes[node]++;
+	return node;
+    }
+
+    private int remove(int node, int slot) {
+	if (node == slot) {
+	    return merge(left[node], right[node]);
+	}
+	if (before(slot, node)) {
+	    left[node] = remove(left[node], slot);
+	} else {
+	    right[node] = remove(right[node], slot);
+	}
+	sizes[node]--;
+	return node;
+    }
+
+    /*
+     * The results of a split, which is only used while the write lock is
+     * held.
+     */
+    private int splitLeft;
+    private int splitRight;
+
+    /*
+     * Splits the tree into the nodes before and after the given slot.
+     */
+    private void split(int node, int slot) {
+	if (node == NIL) {
+	    splitLeft = NIL;
+	    splitRight = NIL;
+	} else if (before(node, slot)) {
+	    split(right[node], slot);
+	    right[node] = splitLeft;
+	    update(node);
+	    splitLeft = node;
+	} else {
+	    split(left[node], slot);
+	    left[node] = splitRight;
+	    update(node);
+	    splitRight = node;
+	}
+    }
+
+    private int merge(int a, int b) {
+	if (a == NIL) {
+	    return b;
+	}
+	if (b == NIL) {
+	    return a;
+	}
+	if (priority(a) > priority(b)) {
+	    right[a] = merge(right[a], b);
+	    update(a);
+	    return a;
+	}
+	left[b] = merge(a, left[b]);
+	update(b);
+	return b;
+    }
+
+    /*
+     * Returns the number of nodes, whose deadline is before the given one.
+     */
+    private int rank(long deadline) {
+	int count = 0;
+	int node = root;
+	while (node != NIL) {
+	    if (deadlines[node] - deadline < 0) {
+		count += size(left[node]) + 1;
+		node = right[node];
+	    } else {
+		node = left[node];
+	    }
+	}
+	return count;
+    }
+
+    /*
+     * Adds the ids of the nodes with a deadline in the given range in their
+     * order and returns the new number of ids.
+     */
+    private int collect(int node, long from, long to, long[] ids, int count) {
+	if (node == NIL || count == ids.length) {
+	    return count;
+	}
+	long deadline = deadlines[node];
+	if (deadline - from >= 0) {
+	    count = collect(left[node], from, to, ids, count);
+	}
+	if (deadline - from >= 0 && deadline - to < 0 && count < ids.length) {
+	    ids[count++] = this.ids[node];
+	}
+	if (deadline - to < 0) {
+	    count = collect(right[node], from, to, ids, count);
+	}
+	return count;
+    }
+
+    private boolean before(int a, int b) {
+	long diff = deadlines[a] - deadlines[b];
+	return diff < 0 || diff == 0 && a < b;
+    }
+
+    private void update(int node) {
+	sizes[node] = size(left[node]) + size(right[node]) + 1;
+    }
+
+    private int size(int node) {
+	return node == NIL ? 0 : sizes[node];
+    }
+
+    private static int priority(int slot) {
+	return hash(slot);
+    }
+}
@@ -1,13 +1,38 @@
 package at.mukprojects.countdown;
 
 import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.mukprojects.countdown.metrics.CountdownMetrics;
+import at.mukprojects.countdown.metrics.Metrics;
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+import at.mukprojects.countdown.scheduler.Timeout;
+
 /**
  * This class represents the countdown task. It extends the Java TimerTask and
- * manages the CountdownTime.
+ * manages the CountdownTime. The CountdownTimer schedules it on a
+ * CountdownScheduler.
+ * 
+ * A ticking countdown is decreased on every run. By default it's decreased by
+ * the delay. A compensating task decreases it by the time, which has really
+ * elapsed since the last run, so late or missed runs don't let the countdown
+ * fall behind the clock. An adaptive task is compensating as well, but it
+ * doesn't tick at a fixed rate: the time to the next tick is the given fraction
+ * of the remaining time, but at least the delay. A long countdown is therefore
+ * ticked rarely at first and more and more often as it nears its end, while the
+ * time it shows is never off by more than this fraction. A tick-free countdown
+ * is only visited once its deadline is due. If the countdown has been extended
+ * in the meantime, the task schedules itself again for the remaining time. In
+ * both cases the task fires the expiry of the countdown, once its time has run
+ * out. The expiry callbacks are handed over to the callback executor, so they
+ * don't block the scheduler.
+ * 
+ * The lateness of the ticks and of the expiry is reported to the default
+ * CountdownMetrics.
  * 
  * This code is copyright (c) Mathias Markl 2015
  *
@@ -29,9 +54,34 @@ import org.slf4j.LoggerFactory;
 public class CountdownTask extends TimerTask {
 
     private static final Logger logger = LoggerFactory.getLogger(CountdownTask.class);
-    
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
     private CountdownTime timer;
     private int delay;
+    private boolean compensating;
+
+    /*
+     * The fraction of the remaining time up to which an adaptive task
+     * postpones the next tick, or 0 if the task ticks at a fixed rate.
+     */
+    private double accuracy;
+
+    /*
+     * The point in time up to which the elapsed time has been subtracted
+     * from a compensating countdown. The runs of a task don't overlap.
+     */
+    private long accounted;
+
+    /*
+     * The point in time at which the next tick is due.
+     */
+    private long nextTick;
+
+    private CountdownScheduler scheduler;
+    private Executor callbackExecutor;
+    private volatile Timeout timeout;
+    private volatile boolean cancelled;
 
     /**
      * Constructs a new CountdownTask form an CountdownTime object and a
@@ -43,12 +93,280 @@ public class CountdownTask extends TimerTask {
      *            The delay as an int value in milliseconds.
      */
     public CountdownTask(CountdownTime timer, int delay) {
+	this(timer, delay, false);
+    }
+
+    /**
+     * Constructs a new CountdownTask form an CountdownTime object and a
+     * specific delay.
+     * 
+     * @param timer
+     *            The CountdownTime object.
+     * @param delay
+     *            The delay as an int value in milliseconds.
+     * @param compensating
+     *            True if the countdown should be decreased by the elapsed time
+     *            instead of the delay.
+     */
+    public CountdownTask(CountdownTime timer, int delay, boolean compensating) {
 	this.timer = timer;
 	this.delay = delay;
+	this.compensating = compensating;
+	this.accounted = System.nanoTime();
+	this.nextTick = accounted + delay * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Constructs a new adaptive CountdownTask. The task decreases the
+     * countdown by the elapsed time and schedules every tick anew with the
+     * given fraction of the remaining time, but never less than the delay.
+     * 
+     * @param timer
+     *            The CountdownTime object.
+     * @param delay
+     *            The shortest delay between two ticks in milliseconds.
+     * @param accuracy
+     *            The fraction of the remaining time by which the countdown
+     *            may be off, it must be greater than 0 and at most 1.
+     */
+    public CountdownTask(CountdownTime timer, int delay, double accuracy) {
+	this(timer, delay, true);
+	if (!(accuracy > 0 && accuracy <= 1)) {
+	    throw new IllegalArgumentException("The accuracy must be greater than 0 and at most 1.");
+	}
+	if (delay <= 0) {
+	    throw new IllegalArgumentException("The delay of an adaptive task must be greater than 0.");
+	}
+	this.accuracy = accuracy;
     }
 
     @Override
     public void run() {
-	timer.getAndAdd(delay * -1);
+	CountdownMetrics metrics = Metrics.getDefault();
+
+	if (timer.isTickFree()) {
+	    synchronized (this) {
+		long remaining = timer.get();
+		if (remaining > 0) {
+		    rearm(remaining);
+		} else {
+		    expire(metrics);
+		}
+	    }
+	} else if (isAdaptive()) {
+	    synchronized (this) {
+		long now = System.nanoTime();
+		metrics.recordTickLateness(now - nextTick);
+
+		tick(metrics, now);
+		if (!cancelled && !timer.isDone()) {
+		    rearmTick(now);
+		}
+	    }
+	} else {
+	    long now = System.nanoTime();
+	    recordTick(metrics, now);
+
+	    if (compensating) {
+		tick(metrics, now);
+	    } else if (timer.tick(delay) - delay <= 0) {
+		expire(metrics);
+	    }
+	}
+    }
+
+    @Override
+    public boolean cancel() {
+	cancelled = true;
+	Timeout current = timeout;
+	if (current != null) {
+	    current.cancel();
+	}
+	return super.cancel();
+    }
+
+    /**
+     * Schedules the task on the given CountdownScheduler.
+     * 
+     * @param scheduler
+     *            The CountdownScheduler.
+     * @param callbackExecutor
+     *            The executor, which runs the expiry callbacks.
+     */
+    void schedule(CountdownScheduler scheduler, Executor callbackExecutor) {
+	prepare(scheduler, callbackExecutor);
+	if (timer.isTickFree()) {
+	    rearm(Math.max(0, timer.get()));
+	} else if (isAdaptive()) {
+	    synchronized (this) {
+		accounted = System.nanoTime();
+		rearmTick(accounted);
+	    }
+	} else {
+	    accounted = System.nanoTime();
+	    nextTick = accounted + (compensating ? delay * NANOS_PER_MILLI : 0);
+	    timeout = scheduler.schedule(this, compensating ? delay : 0, delay, TimeUnit.MILLISECONDS);
+	}
+    }
+
+    /**
+     * Attaches the task to its countdown without scheduling it. It's used for
+     * paused countdowns, which are scheduled once they are resumed.
+     * 
+     * @param scheduler
+     *            The CountdownScheduler.
+     * @param callbackExecutor
+     *            The executor, which runs the expiry callbacks.
+     */
+    void prepare(CountdownScheduler scheduler, Executor callbackExecutor) {
+	this.scheduler = scheduler;
+	this.callbackExecutor = callbackExecutor;
+	timer.attach(this);
+    }
+
+    /**
+     * Returns the delay of the task.
+     * 
+     * @return The delay in milliseconds.
+     */
+    int getDelay() {
+	return delay;
+    }
+
+    /**
+     * Returns the accuracy of an adaptive task.
+     * 
+     * @return The accuracy or 0 if the task ticks at a fixed rate.
+     */
+    double getAccuracy() {
+	return accuracy;
+    }
+
+    /**
+     * Returns the executor, which runs the expiry callbacks.
+     * 
+     * @return The callback executor or null if the task hasn't been prepared.
+     */
+    Executor getCallbackExecutor() {
+	return callbackExecutor;
+    }
+
+    /**
+     * Schedules a new task with the same settings on the scheduler of this
+     * task. It's used to resume a paused countdown, since a cancelled task
+     * can't be scheduled again.
+     * 
+     * @return The new task.
+     */
+    CountdownTask restart() {
+	CountdownTask task = isAdaptive() ? new CountdownTask(timer, delay, accuracy)
+		: new CountdownTask(timer, delay, compensating);
+	task.schedule(scheduler, callbackExecutor);
+	return task;
+    }
+
+    /**
+     * Returns true if the task adapts the time between two ticks to the
+     * remaining time.
+     * 
+     * @return True if the task is adaptive.
+     */
+    boolean isAdaptive() {
+	return accuracy > 0;
+    }
+
+    /**
+     * Ticks an adaptive task right away, after the countdown has been changed,
+     * and moves the timeout of a tick-free task to the new deadline. Otherwise
+     * the next tick or the expiry could come too late.
+     * 
+     * @param reset
+     *            True if the countdown has been set to a new time, so the
+     *            time, which has elapsed since the last tick, is dropped.
+     */
+    void adjust(boolean reset) {
+	boolean tickFree = timer.isTickFree();
+	if (!(tickFree || isAdaptive()) || scheduler == null) {
+	    return;
+	}
+
+	synchronized (this) {
+	    if (reset) {
+		accounted = System.nanoTime();
+	    }
+
+	    Timeout current = timeout;
+	    if (!cancelled && current != null && current.cancel()) {
+		if (tickFree) {
+		    rearm(Math.max(0, timer.get()));
+		} else {
+		    nextTick = System.nanoTime();
+		    rearm(0);
+		}
+	    }
+	}
+    }
+
+    /*
+     * Schedules the next tick of an adaptive task. Since the accuracy is at
+     * most 1, the tick is never later than the end of the countdown, unless
+     * the delay is longer.
+     */
+    private void rearmTick(long now) {
+	long remaining = Math.max(0, timer.get());
+	long interval = Math.max(delay, (long) (remaining * accuracy));
+	nextTick = now + interval * NANOS_PER_MILLI;
+	rearm(interval);
+    }
+
+    /*
+     * Subtracts the whole milliseconds, which have elapsed since the last
+     * run. The rest is carried over to the next run, so the countdown never
+     * drifts by more than a millisecond.
+     */
+    private void tick(CountdownMetrics metrics, long now) {
+	long elapsed = (now - accounted) / NANOS_PER_MILLI;
+	if (elapsed <= 0) {
+	    return;
+	}
+	int step = (int) Math.min(elapsed, Integer.MAX_VALUE);
+	accounted += step * NANOS_PER_MILLI;
+
+	if (timer.tick(step) - step <= 0) {
+	    expire(metrics);
+	}
+    }
+
+    /*
+     * Records how late the tick runs compared to the period of the first
+     * tick. Ticks, which have been skipped by the scheduler, are left out.
+     */
+    private void recordTick(CountdownMetrics metrics, long now) {
+	long period = delay * NANOS_PER_MILLI;
+	long late = now - nextTick;
+	metrics.recordTickLateness(late);
+
+	nextTick += period;
+	if (period > 0 && late >= period) {
+	    nextTick += late / period * period;
+	}
+    }
+
+    private void expire(CountdownMetrics metrics) {
+	long overdue = timer.overdue();
+	if (timer.expire(callbackExecutor)) {
+	    metrics.recordExpiryLateness(overdue);
+	}
+    }
+
+    private void rearm(long remaining) {
+	timeout = scheduler.schedule(this, remaining, TimeUnit.MILLISECONDS);
+
+	/*
+	 * The task may have been cancelled while it was running.
+	 */
+	if (cancelled) {
+	    timeout.cancel();
+	}
     }
 }
@@ -1,14 +1,47 @@
 package at.mukprojects.countdown;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.mukprojects.countdown.RemainingTimePublisher.RemainingTimeSubscription;
+import at.mukprojects.countdown.flow.Flow;
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+
 /**
  * This class represents the countdown time object, it holds the time of the
  * countdown. It's implemented to be thread safe.
  * 
+ * A countdown is either ticking or tick-free. A ticking countdown holds the
+ * remaining time, which is decreased by a CountdownTask. A tick-free countdown
+ * holds an absolute deadline based on System.nanoTime() and computes the
+ * remaining time whenever it's read, so it doesn't need a task at all.
+ * 
+ * Instead of polling the time, callers can register listeners, use the expiry
+ * future or block in awaitExpiry(). All of them are fired exactly once by the
+ * scheduler, when the time has run out. If the countdown is stopped before, the
+ * listeners are dropped, the future is cancelled and the waiting threads are
+ * released.
+ * 
+ * A countdown can be paused, resumed and extended from any thread. A paused
+ * countdown has no task on the scheduler. Extending a countdown atomically
+ * adds time, so concurrent calls never lose an update.
+ * 
+ * The remaining time can also be pushed to subscribers by a publisher, which
+ * only delivers as many updates as they request and skips the rest.
+ * 
  * This code is copyright (c) Mathias Markl 2015
  *
  * This program is free software: you can redistribute it and/or modify it under
@@ -45,11 +78,88 @@ public class CountdownTime {
 
     private static final Logger logger = LoggerFactory.getLogger(CountdownTime.class);
 
+    /*
+     * Holds the remaining milliseconds of a ticking countdown. A tick-free
+     * countdown holds its deadline in nanoseconds instead. The lowest bit of
+     * the deadline is used to mark a halted countdown, in this case the value
+     * holds the remaining nanoseconds. Since every millisecond is an even
+     * number of nanoseconds, adding time never touches this bit.
+     */
     private AtomicLong timer;
     private int mode;
+    private boolean tickFree;
+
+    /*
+     * Listeners are kept in a lock free stack. The stack is replaced by one
+     * of the marker nodes, once the countdown has expired or was cancelled.
+     */
+    private static final AtomicReferenceFieldUpdater<CountdownTime, Listener> LISTENERS = AtomicReferenceFieldUpdater
+	    .newUpdater(CountdownTime.class, Listener.class, "listeners");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CountdownTime, CompletableFuture> EXPIRY = AtomicReferenceFieldUpdater
+	    .newUpdater(CountdownTime.class, CompletableFuture.class, "expiry");
+
+    private static final Listener EXPIRED = new Listener(null, null);
+    private static final Listener CANCELLED = new Listener(null, null);
+
+    /*
+     * Threads blocked in awaitExpiry() are kept in a second lock free stack,
+     * which is replaced by the marker node, once all of them have been
+     * unparked.
+     */
+    private static final AtomicReferenceFieldUpdater<CountdownTime, Waiter> WAITERS = AtomicReferenceFieldUpdater
+	    .newUpdater(CountdownTime.class, Waiter.class, "waiters");
+
+    private static final Waiter RELEASED = new Waiter(null);
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CountdownTime, ConcurrentLinkedQueue> SUBSCRIPTIONS = AtomicReferenceFieldUpdater
+	    .newUpdater(CountdownTime.class, ConcurrentLinkedQueue.class, "subscriptions");
+
+    /*
+     * Pausing and resuming is a small state machine. The intermediate states
+     * are held while the task is cancelled or rescheduled, so a concurrent
+     * call can't overtake the one in progress. Such a call doesn't wait
+     * either: it sets the reverse flag instead and the thread, which is in
+     * progress, performs the opposite transition right afterwards.
+     */
+    private static final AtomicIntegerFieldUpdater<CountdownTime> STATE = AtomicIntegerFieldUpdater
+	    .newUpdater(CountdownTime.class, "state");
+
+    private static final int STATE_RUNNING = 0;
+    private static final int STATE_PAUSING = 1;
+    private static final int STATE_PAUSED = 2;
+    private static final int STATE_RESUMING = 3;
+    private static final int STATE_REVERSE = 4;
+
+    private volatile Listener listeners;
+    private volatile Waiter waiters;
+    private volatile CompletableFuture<CountdownTime> expiry;
+    private volatile int state = STATE_RUNNING;
+    private volatile CountdownTask task;
+    private volatile ConcurrentLinkedQueue<RemainingTimeSubscription> subscriptions;
+
+    /*
+     * The journal, which checkpoints the countdown, if it's tracked. The
+     * version is increased by every checkpoint, so the journal can tell
+     * whether the countdown has changed while it was written.
+     */
+    private static final AtomicLongFieldUpdater<CountdownTime> VERSION = AtomicLongFieldUpdater
+	    .newUpdater(CountdownTime.class, "version");
+
+    private volatile CountdownJournal journal;
+    private long journalId;
+    private volatile long version;
+
+    /*
+     * The ClockSync, which corrects the countdown, if it's based on the
+     * atomic time.
+     */
+    private volatile ClockSync sync;
 
     /**
-     * Constructs a new CountdownTime from an given long value.
+     * Constructs a new ticking CountdownTime from an given long value.
      * 
      * @param timer
      *            The time as a long value.
@@ -57,8 +167,24 @@ public class CountdownTime {
      *            The creation mode.
      */
     public CountdownTime(long timer, int mode) {
-	this.timer = new AtomicLong(timer);
+	this(timer, mode, false);
+    }
+
+    /**
+     * Constructs a new CountdownTime from an given long value.
+     * 
+     * @param timer
+     *            The time in milliseconds as a long value.
+     * @param mode
+     *            The creation mode.
+     * @param tickFree
+     *            True if the countdown should compute its remaining time from
+     *            a deadline instead of being ticked by a CountdownTask.
+     */
+    public CountdownTime(long timer, int mode, boolean tickFree) {
+	this.timer = new AtomicLong(tickFree ? deadline(timer) : timer);
 	this.mode = mode;
+	this.tickFree = tickFree;
     }
 
     /**
@@ -69,7 +195,18 @@ public class CountdownTime {
      * @return The updated value.
      */
     public long addAndGet(int add) {
-	return timer.addAndGet(add);
+	long value;
+	if (tickFree) {
+	    value = remaining(timer.addAndGet(TimeUnit.MILLISECONDS.toNanos(add)));
+	} else {
+	    value = timer.addAndGet(add);
+	}
+	if (add < 0) {
+	    adjust(false);
+	}
+	checkpoint();
+	publish();
+	return value;
     }
 
     /**
@@ -80,7 +217,32 @@ public class CountdownTime {
      * @return The updated value.
      */
     public long getAndAdd(int add) {
-	return timer.getAndAdd(add);
+	long value;
+	if (tickFree) {
+	    value = remaining(timer.getAndAdd(TimeUnit.MILLISECONDS.toNanos(add)));
+	} else {
+	    value = timer.getAndAdd(add);
+	}
+	if (add < 0) {
+	    adjust(false);
+	}
+	checkpoint();
+	publish();
+	return value;
+    }
+
+    /**
+     * Decreases a ticking countdown by the given time. Unlike getAndAdd(), a
+     * tick doesn't change the deadline, so it isn't checkpointed.
+     * 
+     * @param millis
+     *            The elapsed time in milliseconds.
+     * @return The previous value.
+     */
+    long tick(long millis) {
+	long value = timer.getAndAdd(-millis);
+	publish();
+	return value;
     }
 
     /**
@@ -90,7 +252,22 @@ public class CountdownTime {
      *            The new value.
      */
     public void set(long timer) {
-	this.timer.set(timer);
+	if (tickFree) {
+	    long current;
+	    long update;
+	    do {
+		current = this.timer.get();
+		update = isHalted(current) ? halted(TimeUnit.MILLISECONDS.toNanos(timer)) : deadline(timer);
+	    } while (!this.timer.compareAndSet(current, update));
+	    if (!isHalted(current) && update - current < 0) {
+		adjust(false);
+	    }
+	} else {
+	    this.timer.set(timer);
+	    adjust(true);
+	}
+	checkpoint();
+	publish();
     }
 
     /**
@@ -99,9 +276,842 @@ public class CountdownTime {
      * @return The current value.
      */
     public long get() {
+	if (tickFree) {
+	    return remaining(timer.get());
+	}
 	return timer.get();
     }
 
+    /**
+     * Atomically extends the countdown by the given time, unless the time has
+     * already run out.
+     * 
+     * @param millis
+     *            The time to add in milliseconds.
+     * @return True if the countdown has been extended, false if it has already
+     *         run out or was stopped.
+     */
+    public boolean extend(long millis) {
+	if (millis < 0) {
+	    throw new IllegalArgumentException("The time must not be negative.");
+	}
+
+	long add = tickFree ? TimeUnit.MILLISECONDS.toNanos(millis) : millis;
+	long current;
+	do {
+	    if (isDone()) {
+		return false;
+	    }
+	    current = timer.get();
+	    long remaining = tickFree ? isHalted(current) ? current & ~1L : current - System.nanoTime() : current;
+	    if (remaining <= 0) {
+		return false;
+	    }
+	} while (!timer.compareAndSet(current, current + add));
+	checkpoint();
+	publish();
+	return true;
+    }
+
+    /**
+     * Pauses the countdown. The remaining time is kept, a ticking countdown
+     * keeps the time of its last tick. The task of the countdown is removed
+     * from the scheduler until the countdown is resumed. If the countdown is
+     * being resumed by another thread, the call returns right away and the
+     * other thread pauses the countdown again.
+     * 
+     * @return True if the countdown has been paused by this call or will be
+     *         paused by the thread, which is resuming it.
+     */
+    public boolean pause() {
+	for (;;) {
+	    int current = state;
+	    if (current == STATE_RUNNING) {
+		if (isDone()) {
+		    return false;
+		}
+		if (STATE.compareAndSet(this, STATE_RUNNING, STATE_PAUSING)) {
+		    return transition(STATE_PAUSING);
+		}
+	    } else if (current == STATE_RESUMING) {
+		if (isDone()) {
+		    return false;
+		}
+		if (STATE.compareAndSet(this, STATE_RESUMING, STATE_RESUMING | STATE_REVERSE)) {
+		    return true;
+		}
+	    } else if (current == (STATE_PAUSING | STATE_REVERSE)) {
+		/*
+		 * The resume, which would follow the pause in progress, is
+		 * called off.
+		 */
+		if (STATE.compareAndSet(this, current, STATE_PAUSING)) {
+		    return true;
+		}
+	    } else {
+		return false;
+	    }
+	}
+    }
+
+    /**
+     * Resumes a paused countdown. The countdown is scheduled again with the
+     * time, which was remaining when it was paused. If the countdown is being
+     * paused by another thread, the call returns right away and the other
+     * thread resumes the countdown again.
+     * 
+     * @return True if the countdown has been resumed by this call or will be
+     *         resumed by the thread, which is pausing it.
+     */
+    public boolean resume() {
+	for (;;) {
+	    int current = state;
+	    if (current == STATE_PAUSED) {
+		if (STATE.compareAndSet(this, STATE_PAUSED, STATE_RESUMING)) {
+		    return transition(STATE_RESUMING);
+		}
+	    } else if (current == STATE_PAUSING) {
+		if (isDone()) {
+		    return false;
+		}
+		if (STATE.compareAndSet(this, STATE_PAUSING, STATE_PAUSING | STATE_REVERSE)) {
+		    return true;
+		}
+	    } else if (current == (STATE_RESUMING | STATE_REVERSE)) {
+		/*
+		 * The pause, which would follow the resume in progress, is
+		 * called off.
+		 */
+		if (STATE.compareAndSet(this, current, STATE_RESUMING)) {
+		    return true;
+		}
+	    } else {
+		return false;
+	    }
+	}
+    }
+
+    /**
+     * Returns true if the countdown is paused.
+     * 
+     * @return True if the countdown is paused.
+     */
+    public boolean isPaused() {
+	int current = state;
+	return current == STATE_PAUSED || current == STATE_PAUSING || current == (STATE_RESUMING | STATE_REVERSE);
+    }
+
+    /**
+     * Returns true if the countdown computes its remaining time from a
+     * deadline instead of being ticked.
+     * 
+     * @return True if the countdown is tick-free.
+     */
+    public boolean isTickFree() {
+	return tickFree;
+    }
+
+    /**
+     * Registers a listener, which is run once the time has run out. If the
+     * countdown has already expired, the listener is run immediately.
+     * 
+     * @param listener
+     *            The listener to run.
+     */
+    public void onExpire(final Runnable listener) {
+	onExpire(new Consumer<CountdownTime>() {
+	    @Override
+	    public void accept(CountdownTime countdown) {
+		listener.run();
+	    }
+	});
+    }
+
+    /**
+     * Registers a listener, which is called with this countdown once the time
+     * has run out. If the countdown has already expired, the listener is
+     * called immediately.
+     * 
+     * @param listener
+     *            The listener to call.
+     */
+    public void onExpire(Consumer<? super CountdownTime> listener) {
+	if (listener == null) {
+	    throw new NullPointerException("The listener must not be null.");
+	}
+
+	Listener head;
+	Listener node = new Listener(listener, null);
+	do {
+	    head = listeners;
+	    if (head == EXPIRED) {
+		notify(listener);
+		return;
+	    } else if (head == CANCELLED) {
+		return;
+	    }
+	    node.next = head;
+	} while (!LISTENERS.compareAndSet(this, head, node));
+    }
+
+    /**
+     * Returns a future, which is completed with this countdown once the time
+     * has run out. The future is cancelled, if the countdown is stopped before.
+     * 
+     * @return The expiry future.
+     */
+    public CompletableFuture<CountdownTime> expiry() {
+	CompletableFuture<CountdownTime> future = expiry;
+	if (future != null) {
+	    return future;
+	}
+
+	future = new CompletableFuture<CountdownTime>();
+	if (!EXPIRY.compareAndSet(this, null, future)) {
+	    return expiry;
+	}
+
+	/*
+	 * The countdown may have expired or been cancelled before the future
+	 * was published.
+	 */
+	Listener head = listeners;
+	if (head == EXPIRED) {
+	    future.complete(this);
+	} else if (head == CANCELLED) {
+	    future.cancel(false);
+	}
+	return future;
+    }
+
+    /**
+     * Blocks the current thread until the time has run out. The thread is
+     * parked while it's waiting, so it doesn't use any CPU time.
+     * 
+     * @throws InterruptedException
+     *             If the current thread was interrupted while waiting.
+     * @throws CancellationException
+     *             If the countdown was stopped before it expired.
+     */
+    public void awaitExpiry() throws InterruptedException {
+	await(false, 0);
+    }
+
+    /**
+     * Blocks the current thread until the time has run out or the given
+     * timeout has elapsed. The thread is parked while it's waiting, so it
+     * doesn't use any CPU time.
+     * 
+     * @param timeout
+     *            The maximum time to wait.
+     * @param unit
+     *            The unit of the timeout.
+     * @return True if the countdown has expired, false if the timeout elapsed
+     *         before.
+     * @throws InterruptedException
+     *             If the current thread was interrupted while waiting.
+     * @throws CancellationException
+     *             If the countdown was stopped before it expired.
+     */
+    public boolean awaitExpiry(long timeout, TimeUnit unit) throws InterruptedException {
+	return await(true, unit.toNanos(timeout));
+    }
+
+    /**
+     * Returns a publisher of the remaining time in milliseconds, which
+     * delivers the elements with the callback executor of the countdown.
+     * 
+     * A subscriber receives the current time with its first request and
+     * afterwards whenever the time has changed: on every tick of a ticking
+     * countdown and whenever the countdown is extended, set, paused or
+     * resumed. Changes, which happen while the subscriber has no demand, are
+     * conflated into the next element. The stream completes, when the
+     * countdown expires, and fails with a CancellationException, if it's
+     * stopped before.
+     * 
+     * @return The publisher.
+     */
+    public Flow.Publisher<Long> publisher() {
+	CountdownTask current = task;
+	return publisher(current != null ? current.getCallbackExecutor() : CallbackExecutors.getDefault());
+    }
+
+    /**
+     * Returns a publisher of the remaining time in milliseconds, which
+     * delivers the elements with the given executor.
+     * 
+     * @param executor
+     *            The executor, which delivers the elements.
+     * @return The publisher.
+     * @see #publisher()
+     */
+    public Flow.Publisher<Long> publisher(Executor executor) {
+	if (executor == null) {
+	    throw new NullPointerException("The executor must not be null.");
+	}
+	return new RemainingTimePublisher(this, executor);
+    }
+
+    /**
+     * Returns true if the time of the countdown has run out.
+     * 
+     * @return True if the countdown has expired.
+     */
+    public boolean isExpired() {
+	return listeners == EXPIRED;
+    }
+
+    /**
+     * Fires the expiry of the countdown. Only the first call has an effect.
+     * The waiting threads are released immediately, the listeners and the
+     * expiry future are run by the given executor.
+     * 
+     * @param executor
+     *            The executor, which runs the listeners.
+     * @return True if the countdown expired by this call.
+     */
+    boolean expire(Executor executor) {
+	Listener head;
+	do {
+	    head = listeners;
+	    if (head == EXPIRED || head == CANCELLED) {
+		return false;
+	    }
+	} while (!LISTENERS.compareAndSet(this, head, EXPIRED));
+
+	logger.debug("The countdown has expired.");
+
+	release();
+	checkpoint();
+	terminate();
+	untrack();
+
+	/*
+	 * The listeners are stored in reverse order.
+	 */
+	Listener reversed = null;
+	while (head != null) {
+	    Listener next = head.next;
+	    head.next = reversed;
+	    reversed = head;
+	    head = next;
+	}
+
+	if (reversed == null && expiry == null) {
+	    return true;
+	}
+
+	final Listener first = reversed;
+	Runnable callbacks = new Runnable() {
+	    @Override
+	    public void run() {
+		fire(first);
+	    }
+	};
+
+	try {
+	    executor.execute(callbacks);
+	} catch (RejectedExecutionException e) {
+	    logger.warn("The callback executor rejected the expiry callbacks! (" + e
+		    + ") They are run by the scheduler instead.", e);
+	    callbacks.run();
+	}
+	return true;
+    }
+
+    /**
+     * Stops the countdown. The time is frozen, the task is cancelled and the
+     * listeners are dropped, unless the countdown has already expired.
+     */
+    void stop() {
+	halt();
+	cancel();
+
+	/*
+	 * The task is read after the countdown has been cancelled, so a task,
+	 * which is restarted by a concurrent resume(), is cancelled either here
+	 * or by resume() itself.
+	 */
+	CountdownTask current = task;
+	if (current != null) {
+	    current.cancel();
+	}
+    }
+
+    /**
+     * Tracks the countdown in the given journal. The current state isn't
+     * written by this call.
+     * 
+     * @param journal
+     *            The journal or null to stop tracking the countdown.
+     * @param id
+     *            The id of the countdown in the journal.
+     */
+    void track(CountdownJournal journal, long id) {
+	this.journalId = id;
+	this.journal = journal;
+    }
+
+    /**
+     * Writes the current state of the countdown to its journal, if it's
+     * tracked.
+     */
+    void checkpoint() {
+	CountdownJournal current = journal;
+	if (current != null) {
+	    VERSION.incrementAndGet(this);
+	    current.write(journalId, this);
+	}
+    }
+
+    /**
+     * Sets the ClockSync, which corrects the countdown. It drops the
+     * countdown, once it has expired or was stopped.
+     * 
+     * @param sync
+     *            The ClockSync.
+     */
+    void track(ClockSync sync) {
+	this.sync = sync;
+    }
+
+    /**
+     * Returns the number of checkpoints, which have been started so far.
+     * 
+     * @return The version of the countdown.
+     */
+    long getVersion() {
+	return version;
+    }
+
+    /**
+     * Adds a subscription, which is notified whenever the time changes.
+     * 
+     * @param subscription
+     *            The subscription.
+     */
+    @SuppressWarnings("unchecked")
+    void subscribe(RemainingTimeSubscription subscription) {
+	ConcurrentLinkedQueue<RemainingTimeSubscription> current = subscriptions;
+	if (current == null) {
+	    SUBSCRIPTIONS.compareAndSet(this, null, new ConcurrentLinkedQueue<RemainingTimeSubscription>());
+	    current = subscriptions;
+	}
+	current.add(subscription);
+
+	/*
+	 * The countdown may have expired or been cancelled before the
+	 * subscription was added.
+	 */
+	if (isDone()) {
+	    subscription.terminate();
+	}
+    }
+
+    /**
+     * Removes a subscription, which has been cancelled or terminated.
+     * 
+     * @param subscription
+     *            The subscription.
+     */
+    void unsubscribe(RemainingTimeSubscription subscription) {
+	ConcurrentLinkedQueue<RemainingTimeSubscription> current = subscriptions;
+	if (current != null) {
+	    current.remove(subscription);
+	}
+    }
+
+    /**
+     * Marks a countdown, which hasn't been scheduled yet, as paused.
+     */
+    void suspend() {
+	halt();
+	state = STATE_PAUSED;
+    }
+
+    /**
+     * Returns the delay of the task, which ticks the countdown.
+     * 
+     * @return The delay in milliseconds or 0 if the countdown is tick-free.
+     */
+    int getDelay() {
+	CountdownTask current = task;
+	return current == null || tickFree ? 0 : current.getDelay();
+    }
+
+    /**
+     * Returns the accuracy of the task, which ticks the countdown.
+     * 
+     * @return The accuracy or 0 if the countdown isn't adaptive.
+     */
+    double getAccuracy() {
+	CountdownTask current = task;
+	return current == null || tickFree ? 0 : current.getAccuracy();
+    }
+
+    /**
+     * Sets the task, which currently runs the countdown.
+     * 
+     * @param task
+     *            The CountdownTask.
+     */
+    void attach(CountdownTask task) {
+	this.task = task;
+    }
+
+    /**
+     * Drops the listeners and cancels the expiry future, unless the countdown
+     * has already expired.
+     */
+    void cancel() {
+	Listener head;
+	do {
+	    head = listeners;
+	    if (head == EXPIRED || head == CANCELLED) {
+		return;
+	    }
+	} while (!LISTENERS.compareAndSet(this, head, CANCELLED));
+
+	release();
+	checkpoint();
+	terminate();
+	untrack();
+
+	CompletableFuture<CountdownTime> future = expiry;
+	if (future != null) {
+	    future.cancel(false);
+	}
+    }
+
+    /**
+     * Corrects the countdown for a change of the clock offset, it ends earlier
+     * if the offset has grown. A ticking countdown is corrected in whole
+     * milliseconds, so the rest is carried over to the next correction. The
+     * correction isn't checkpointed, the journal stores the deadline by the
+     * wall clock anyway. If the countdown ends earlier, its expiry or next
+     * tick is moved as well.
+     * 
+     * @param from
+     *            The offset in nanoseconds, which the countdown is based on.
+     * @param to
+     *            The new offset in nanoseconds.
+     */
+    void slew(long from, long to) {
+	if (tickFree) {
+	    timer.addAndGet(-((to - from) & ~1L));
+	} else {
+	    timer.addAndGet(-(Math.floorDiv(to, 1000000L) - Math.floorDiv(from, 1000000L)));
+	}
+	if (to - from > 0) {
+	    adjust(false);
+	}
+    }
+
+    /**
+     * Returns true if the countdown has expired or was stopped.
+     * 
+     * @return True if the countdown is done.
+     */
+    boolean isDone() {
+	Listener head = listeners;
+	return head == EXPIRED || head == CANCELLED;
+    }
+
+    private boolean await(boolean timed, long nanos) throws InterruptedException {
+	final long deadline = timed ? System.nanoTime() + nanos : 0L;
+	Waiter node = null;
+	boolean queued = false;
+
+	for (;;) {
+	    Listener state = listeners;
+	    if (state == EXPIRED) {
+		return true;
+	    } else if (state == CANCELLED) {
+		throw new CancellationException("The countdown has been stopped.");
+	    }
+
+	    if (Thread.interrupted()) {
+		removeWaiter(node);
+		throw new InterruptedException();
+	    }
+
+	    if (node == null) {
+		if (timed && nanos <= 0) {
+		    return false;
+		}
+		node = new Waiter(Thread.currentThread());
+	    } else if (!queued) {
+		Waiter head = waiters;
+		if (head != RELEASED) {
+		    node.next = head;
+		    queued = WAITERS.compareAndSet(this, head, node);
+		}
+	    } else if (timed) {
+		nanos = deadline - System.nanoTime();
+		if (nanos <= 0) {
+		    removeWaiter(node);
+		    return listeners == EXPIRED;
+		}
+		LockSupport.parkNanos(this, nanos);
+	    } else {
+		LockSupport.park(this);
+	    }
+	}
+    }
+
+    /*
+     * Unlinks a waiter, which has timed out or was interrupted, together with
+     * all other dead waiters. The traversal restarts whenever it races with
+     * another thread.
+     */
+    private void removeWaiter(Waiter node) {
+	if (node == null) {
+	    return;
+	}
+	node.thread = null;
+
+	retry: for (;;) {
+	    Waiter pred = null;
+	    Waiter q = waiters;
+	    while (q != null && q != RELEASED) {
+		Waiter next = q.next;
+		if (q.thread != null) {
+		    pred = q;
+		} else if (pred != null) {
+		    pred.next = next;
+		    if (pred.thread == null) {
+			continue retry;
+		    }
+		} else if (!WAITERS.compareAndSet(this, q, next)) {
+		    continue retry;
+		}
+		q = next;
+	    }
+	    return;
+	}
+    }
+
+    /*
+     * Performs the transition, which has been entered by the calling thread,
+     * and afterwards every opposite transition, which has been requested by
+     * other threads in the meantime. Returns the result of the first one.
+     */
+    private boolean transition(int current) {
+	boolean first = true;
+	boolean result = true;
+	for (;;) {
+	    if (current == STATE_PAUSING) {
+		CountdownTask task = this.task;
+		if (task != null) {
+		    task.cancel();
+		}
+		halt();
+
+		logger.debug("The countdown has been paused.");
+
+		if (complete(STATE_PAUSING, STATE_PAUSED, STATE_RESUMING)) {
+		    checkpoint();
+		    publish();
+		    return result;
+		}
+		current = STATE_RESUMING;
+	    } else {
+		boolean resumed = !isDone();
+		if (resumed) {
+		    proceed();
+
+		    CountdownTask task = this.task;
+		    if (task != null) {
+			CountdownTask restarted = task.restart();
+
+			/*
+			 * The countdown may have been stopped while the task
+			 * was restarted.
+			 */
+			if (isDone()) {
+			    restarted.cancel();
+			}
+		    }
+
+		    logger.debug("The countdown has been resumed.");
+		}
+		if (first) {
+		    result = resumed;
+		}
+
+		/*
+		 * A countdown, which is done, isn't paused again.
+		 */
+		if (!resumed) {
+		    state = STATE_RUNNING;
+		    return result;
+		}
+		if (complete(STATE_RESUMING, STATE_RUNNING, STATE_PAUSING)) {
+		    checkpoint();
+		    publish();
+		    return result;
+		}
+		current = STATE_PAUSING;
+	    }
+	    first = false;
+	}
+    }
+
+    /*
+     * Leaves the given intermediate state. Returns true if the target state
+     * has been reached or false if the reverse flag was set and the opposite
+     * transition has been entered instead.
+     */
+    private boolean complete(int current, int target, int opposite) {
+	for (;;) {
+	    if (STATE.compareAndSet(this, current, target)) {
+		return true;
+	    }
+	    if (STATE.compareAndSet(this, current | STATE_REVERSE, opposite)) {
+		return false;
+	    }
+	}
+    }
+
+    /*
+     * Lets an adaptive task tick right away and moves the expiry of a
+     * tick-free countdown, since both may be too far away for the new time.
+     */
+    private void adjust(boolean reset) {
+	CountdownTask current = task;
+	if (current != null) {
+	    current.adjust(reset);
+	}
+    }
+
+    private void publish() {
+	ConcurrentLinkedQueue<RemainingTimeSubscription> current = subscriptions;
+	if (current != null) {
+	    for (RemainingTimeSubscription subscription : current) {
+		subscription.changed();
+	    }
+	}
+    }
+
+    private void terminate() {
+	ConcurrentLinkedQueue<RemainingTimeSubscription> current = subscriptions;
+	if (current != null) {
+	    for (RemainingTimeSubscription subscription : current) {
+		subscription.terminate();
+	    }
+	}
+    }
+
+    private void untrack() {
+	ClockSync current = sync;
+	if (current != null) {
+	    current.untrack(this);
+	}
+    }
+
+    private void release() {
+	Waiter q = WAITERS.getAndSet(this, RELEASED);
+	while (q != null && q != RELEASED) {
+	    Thread thread = q.thread;
+	    if (thread != null) {
+		q.thread = null;
+		LockSupport.unpark(thread);
+	    }
+	    q = q.next;
+	}
+    }
+
+    private void fire(Listener listener) {
+	while (listener != null) {
+	    notify(listener.listener);
+	    listener = listener.next;
+	}
+
+	CompletableFuture<CountdownTime> future = expiry;
+	if (future != null) {
+	    future.complete(this);
+	}
+    }
+
+    private void notify(Consumer<? super CountdownTime> listener) {
+	try {
+	    listener.accept(this);
+	} catch (Throwable t) {
+	    logger.error("An Exception occured in an expiry listener! (" + t + ")", t);
+	}
+    }
+
+    /**
+     * Freezes a tick-free countdown at its current remaining time. Ticking
+     * countdowns are frozen by cancelling their task instead.
+     */
+    void halt() {
+	if (!tickFree) {
+	    return;
+	}
+
+	long current;
+	do {
+	    current = timer.get();
+	    if (isHalted(current)) {
+		return;
+	    }
+	} while (!timer.compareAndSet(current, halted(current - System.nanoTime())));
+    }
+
+    /*
+     * Lets a halted tick-free countdown run again from its remaining time.
+     */
+    private void proceed() {
+	if (!tickFree) {
+	    return;
+	}
+
+	long current;
+	do {
+	    current = timer.get();
+	    if (!isHalted(current)) {
+		return;
+	    }
+	} while (!timer.compareAndSet(current, (System.nanoTime() + (current & ~1L)) & ~1L));
+    }
+
+    /**
+     * Returns the time, which has passed since the countdown has run out. The
+     * time of a ticking countdown is only known to the millisecond.
+     * 
+     * @return The time in nanoseconds, which is negative if the countdown
+     *         hasn't run out yet.
+     */
+    long overdue() {
+	long value = timer.get();
+	if (!tickFree) {
+	    return -value * 1000000L;
+	}
+	return isHalted(value) ? -(value & ~1L) : System.nanoTime() - value;
+    }
+
+    private static long deadline(long millis) {
+	return (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis)) & ~1L;
+    }
+
+    private static long halted(long remainingNanos) {
+	return remainingNanos | 1L;
+    }
+
+    private static boolean isHalted(long value) {
+	return (value & 1L) != 0;
+    }
+
+    private static long remaining(long value) {
+	long nanos = isHalted(value) ? value & ~1L : value - System.nanoTime();
+
+	/*
+	 * Round up, so the countdown doesn't read 0 before its deadline.
+	 */
+	return -Math.floorDiv(-nanos, 1000000L);
+    }
+
     /**
      * Return the creation mode.
      * 
@@ -110,4 +1120,25 @@ public class CountdownTime {
     public int getMode() {
 	return mode;
     }
+
+    private static final class Listener {
+
+	private final Consumer<? super CountdownTime> listener;
+	private Listener next;
+
+	private Listener(Consumer<? super CountdownTime> listener, Listener next) {
+	    this.listener = listener;
+	    this.next = next;
+	}
+    }
+
+    private static final class Waiter {
+
+	private volatile Thread thread;
+	private volatile Waiter next;
+
+	private Waiter(Thread thread) {
+	    this.thread = thread;
+	}
+    }
 }
\ No newline at end of file
@@ -2,21 +2,41 @@ package at.mukprojects.countdown;
 
 import java.io.IOException;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Timer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import at.mukprojects.countdown.client.SntpClient;
+import at.mukprojects.countdown.client.ClockOffsetService;
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+import at.mukprojects.countdown.scheduler.ExecutorScheduler;
+import at.mukprojects.countdown.scheduler.TimingWheel;
 
 /**
  * This class represents the countdown timer. The timer can be used to start and
  * stop different kinds of countdowns.
  * 
+ * The countdowns don't own a thread, they are scheduled on a TimingWheel, which
+ * is shared by all timers unless a timer is created with its own scheduler.
+ * Expiry callbacks are run by a separate callback executor, so a slow listener
+ * can't delay the ticks of other countdowns.
+ * 
+ * A ticking countdown is decreased by the time, which has really elapsed since
+ * its last tick, so it doesn't fall behind the clock, if the scheduler runs
+ * late or skips ticks under load. An adaptive countdown ticks rarely while
+ * its end is far away and more often as it comes closer, so a long countdown
+ * costs only a few thousand ticks instead of one per delay.
+ * 
+ * Countdowns on a date use the clock offset of the shared ClockOffsetService,
+ * so starting them doesn't cost a server request as long as the offset is
+ * cached. Afterwards they are kept in line with the NTP servers by the shared
+ * ClockSync, which slews them gradually whenever the offset changes.
+ * 
  * This code is copyright (c) Mathias Markl 2015
  *
  * This program is free software: you can redistribute it and/or modify it under
@@ -36,15 +56,6 @@ import at.mukprojects.countdown.client.SntpClient;
  */
 public class CountdownTimer {
 
-    /**
-     * Date formats.
-     */
-    private static final String[] formats = { "dd.MM.yyyy HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss'Z'",
-	    "yyyy-MM-dd'T'HH:mm:ssZ", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
-	    "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd HH:mm:ss", "MM/dd/yyyy HH:mm:ss", "MM/dd/yyyy'T'HH:mm:ss.SSS'Z'",
-	    "MM/dd/yyyy'T'HH:mm:ss.SSSZ", "MM/dd/yyyy'T'HH:mm:ss.SSS", "MM/dd/yyyy'T'HH:mm:ssZ",
-	    "MM/dd/yyyy'T'HH:mm:ss", "yyyy:MM:dd HH:mm:ss", "yyyyMMdd", "dd.MM.yyyy", "MM/dd/yyyy" };
-
     private static final Logger logger = LoggerFactory.getLogger(CountdownTimer.class);
 
     /**
@@ -52,7 +63,63 @@ public class CountdownTimer {
      */
     private static final DateFormat formatter = new SimpleDateFormat("dd.MM.yyyy - HH:mm:ss:SS z");
 
-    private Timer timer;
+    private final CountdownScheduler scheduler;
+    private final Executor callbackExecutor;
+
+    private CountdownTime countdown;
+
+    private CountdownJournal journal;
+    private long journalId;
+
+    /**
+     * Constructs a new CountdownTimer, which uses the shared TimingWheel and
+     * the default callback executor.
+     */
+    public CountdownTimer() {
+	this(TimingWheel.getDefault());
+    }
+
+    /**
+     * Constructs a new CountdownTimer, which uses the given scheduler and the
+     * default callback executor.
+     * 
+     * @param scheduler
+     *            The CountdownScheduler on which the countdowns are scheduled.
+     */
+    public CountdownTimer(CountdownScheduler scheduler) {
+	this(scheduler, CallbackExecutors.getDefault());
+    }
+
+    /**
+     * Constructs a new CountdownTimer, which runs the countdowns on the given
+     * ScheduledExecutorService and uses the default callback executor.
+     * 
+     * @param executor
+     *            The ScheduledExecutorService on which the countdowns are
+     *            scheduled.
+     */
+    public CountdownTimer(ScheduledExecutorService executor) {
+	this(new ExecutorScheduler(executor));
+    }
+
+    /**
+     * Constructs a new CountdownTimer.
+     * 
+     * @param scheduler
+     *            The CountdownScheduler on which the countdowns are scheduled.
+     * @param callbackExecutor
+     *            The executor, which runs the expiry callbacks.
+     */
+    public CountdownTimer(CountdownScheduler scheduler, Executor callbackExecutor) {
+	if (scheduler == null) {
+	    throw new NullPointerException("The scheduler must not be null.");
+	}
+	if (callbackExecutor == null) {
+	    throw new NullPointerException("The callback executor must not be null.");
+	}
+	this.scheduler = scheduler;
+	this.callbackExecutor = callbackExecutor;
+    }
 
     /**
      * Starts the countdown.
@@ -60,21 +127,82 @@ public class CountdownTimer {
      * @param time
      *            The countdown time in milliseconds.
      * @param delay
-     *            The delay of the timer.
+     *            The delay of the timer, it must be greater than 0. Use
+     *            start(long) or start(Date) for a tick-free countdown.
      * @return The CountdownTime object, which is used to store the time.
      */
     public CountdownTime start(long time, int delay) {
+	if (delay <= 0) {
+	    throw new IllegalArgumentException("The delay must be greater than 0.");
+	}
+
 	stop();
 
 	logger.info("Starting a new timer with the time of " + time + " milliseconds and a delay of " + delay
 		+ " milliseconds...");
 
-	timer = new Timer();
+	countdown = new CountdownTime(time, CountdownTime.MODE_TIMER);
+	schedule(delay);
+
+	logger.info("Timer is running...");
+
+	return countdown;
+    }
+
+    /**
+     * Starts an adaptive countdown. The countdown is ticked rarely while its
+     * end is far away and more often as it comes closer, down to the given
+     * delay. The time between two ticks is the given fraction of the
+     * remaining time, so the time shown by the countdown is never off by more
+     * than this fraction.
+     * 
+     * @param time
+     *            The countdown time in milliseconds.
+     * @param delay
+     *            The shortest delay of the timer, it must be greater than 0.
+     * @param accuracy
+     *            The fraction of the remaining time by which the countdown may
+     *            be off, e.g. 0.01 for 1 percent. It must be greater than 0
+     *            and at most 1.
+     * @return The CountdownTime object, which is used to store the time.
+     */
+    public CountdownTime start(long time, int delay, double accuracy) {
+	if (delay <= 0) {
+	    throw new IllegalArgumentException("The delay must be greater than 0.");
+	}
+	if (!(accuracy > 0 && accuracy <= 1)) {
+	    throw new IllegalArgumentException("The accuracy must be greater than 0 and at most 1.");
+	}
+
+	stop();
 
-	CountdownTime countdown = new CountdownTime(time, CountdownTime.MODE_TIMER);
-	CountdownTask task = new CountdownTask(countdown, delay);
+	logger.info("Starting a new adaptive timer with the time of " + time + " milliseconds, a delay of " + delay
+		+ " milliseconds and an accuracy of " + accuracy + "...");
 
-	timer.schedule(task, 0, delay);
+	countdown = new CountdownTime(time, CountdownTime.MODE_TIMER);
+	schedule(new CountdownTask(countdown, delay, accuracy));
+
+	logger.info("Timer is running...");
+
+	return countdown;
+    }
+
+    /**
+     * Starts a tick-free countdown. The countdown computes its remaining time
+     * from its deadline whenever it's read, so it doesn't cost anything while
+     * it's running. The timer only wakes up when the countdown expires.
+     * 
+     * @param time
+     *            The countdown time in milliseconds.
+     * @return The CountdownTime object, which is used to store the time.
+     */
+    public CountdownTime start(long time) {
+	stop();
+
+	logger.info("Starting a new tick-free timer with the time of " + time + " milliseconds...");
+
+	countdown = new CountdownTime(time, CountdownTime.MODE_TIMER, true);
+	schedule(0);
 
 	logger.info("Timer is running...");
 
@@ -87,22 +215,172 @@ public class CountdownTimer {
      * @param date
      *            The date on which the countdown should end.
      * @param delay
-     *            The delay of the timer.
+     *            The delay of the timer, it must be greater than 0. Use
+     *            start(long) or start(Date) for a tick-free countdown.
      * @return The CountdownTime object, which is used to store the time.
      */
     public CountdownTime start(Date date, int delay) {
+	if (delay <= 0) {
+	    throw new IllegalArgumentException("The delay must be greater than 0.");
+	}
+
 	stop();
 
 	logger.info("Starting a new timer with the date " + formatter.format(date) + " and a delay of " + delay
 		+ " milliseconds...");
 
-	timer = new Timer();
+	countdown = countdownUntil(date, false);
+	schedule(delay);
+
+	logger.info("Timer is running...");
+
+	return countdown;
+    }
+
+    /**
+     * Starts an adaptive countdown.
+     * 
+     * @param date
+     *            The date on which the countdown should end.
+     * @param delay
+     *            The shortest delay of the timer, it must be greater than 0.
+     * @param accuracy
+     *            The fraction of the remaining time by which the countdown may
+     *            be off, e.g. 0.01 for 1 percent. It must be greater than 0
+     *            and at most 1.
+     * @return The CountdownTime object, which is used to store the time.
+     * @see #start(long, int, double)
+     */
+    public CountdownTime start(Date date, int delay, double accuracy) {
+	if (delay <= 0) {
+	    throw new IllegalArgumentException("The delay must be greater than 0.");
+	}
+	if (!(accuracy > 0 && accuracy <= 1)) {
+	    throw new IllegalArgumentException("The accuracy must be greater than 0 and at most 1.");
+	}
+
+	stop();
+
+	logger.info("Starting a new adaptive timer with the date " + formatter.format(date) + ", a delay of "
+		+ delay + " milliseconds and an accuracy of " + accuracy + "...");
+
+	countdown = countdownUntil(date, false);
+	schedule(new CountdownTask(countdown, delay, accuracy));
+
+	logger.info("Timer is running...");
+
+	return countdown;
+    }
+
+    /**
+     * Starts a tick-free countdown. The countdown computes its remaining time
+     * from its deadline whenever it's read, so it doesn't cost anything while
+     * it's running. The timer only wakes up when the countdown expires.
+     * 
+     * @param date
+     *            The date on which the countdown should end.
+     * @return The CountdownTime object, which is used to store the time.
+     */
+    public CountdownTime start(Date date) {
+	stop();
+
+	logger.info("Starting a new tick-free timer with the date " + formatter.format(date) + "...");
+
+	countdown = countdownUntil(date, true);
+	schedule(0);
+
+	logger.info("Timer is running...");
+
+	return countdown;
+    }
+
+    /**
+     * Checkpoints the countdowns of this timer to the given journal. The
+     * current countdown and every countdown, which is started afterwards, is
+     * written to the journal under the given id, whenever it changes.
+     * 
+     * @param journal
+     *            The journal or null to stop checkpointing.
+     * @param id
+     *            The id of the countdowns in the journal.
+     */
+    public void checkpoint(CountdownJournal journal, long id) {
+	this.journal = journal;
+	this.journalId = id;
+	if (countdown != null) {
+	    countdown.track(journal, id);
+	    countdown.checkpoint();
+	}
+    }
+
+    /**
+     * Returns the current countdown.
+     * 
+     * @return The CountdownTime object or null if no countdown is running.
+     */
+    public CountdownTime getCountdown() {
+	return countdown;
+    }
+
+    /**
+     * Stops the countdown. The listeners of the countdown won't be called, if
+     * it hasn't expired yet.
+     */
+    public void stop() {
+	if (countdown != null) {
+	    logger.info("Stoping the current timer...");
+	    countdown.stop();
+	    countdown = null;
+	    logger.info("The current timer has been stoped.");
+	}
+    }
+
+    private void schedule(int delay) {
+	schedule(new CountdownTask(countdown, delay, true));
+    }
+
+    private void schedule(CountdownTask task) {
+	task.schedule(scheduler, callbackExecutor);
+	if (journal != null) {
+	    countdown.track(journal, journalId);
+	    countdown.checkpoint();
+	}
+    }
+
+    /*
+     * Starts a countdown, which has been restored from the given journal. The
+     * countdown isn't written to the journal again. A countdown on the atomic
+     * time is corrected by the shared ClockSync again.
+     */
+    void restore(CountdownJournal journal, long id, long time, int mode, int delay, double accuracy,
+	    boolean paused) {
+	this.journal = journal;
+	this.journalId = id;
+
+	countdown = new CountdownTime(time, mode, delay == 0);
+	countdown.track(journal, id);
+	if (mode == CountdownTime.MODE_ATOMIC_TIME) {
+	    ClockSync.getDefault().track(countdown);
+	}
 
+	CountdownTask task = accuracy > 0 ? new CountdownTask(countdown, delay, accuracy)
+		: new CountdownTask(countdown, delay, true);
+	if (paused) {
+	    countdown.suspend();
+	    task.prepare(scheduler, callbackExecutor);
+	} else {
+	    task.schedule(scheduler, callbackExecutor);
+	}
+    }
+
+    private CountdownTime countdownUntil(Date date, boolean tickFree) {
 	long time;
 	int mode;
+	long offset = 0;
 
 	try {
-	    time = SntpClient.getTime();
+	    offset = ClockOffsetService.getDefault().getSample().getOffsetMillis();
+	    time = System.currentTimeMillis() + offset;
 	    mode = CountdownTime.MODE_ATOMIC_TIME;
 	} catch (IOException e) {
 	    logger.error("An Exception occured during the server request! (" + e
@@ -127,25 +405,11 @@ public class CountdownTimer {
 	logger.debug("The countdown starts with " + days + " days and a time of " + hours + ":" + minutes + ":"
 		+ seconds + ":" + milliseconds + " on the clock.");
 
-	CountdownTime countdown = new CountdownTime(diff, mode);
-	CountdownTask task = new CountdownTask(countdown, delay);
-
-	timer.schedule(task, 0, delay);
-
-	logger.info("Timer is running...");
-
-	return countdown;
-    }
-
-    /**
-     * Stops the countdown.
-     */
-    public void stop() {
-	if (timer != null) {
-	    logger.info("Stoping the current timer...");
-	    timer.cancel();
-	    logger.info("The current timer has been stoped.");
+	CountdownTime countdown = new CountdownTime(diff, mode, tickFree);
+	if (mode == CountdownTime.MODE_ATOMIC_TIME) {
+	    ClockSync.getDefault().track(countdown, TimeUnit.MILLISECONDS.toNanos(offset));
 	}
+	return countdown;
     }
 
     /**
@@ -164,44 +428,15 @@ public class CountdownTimer {
     }
 
     /**
-     * Tries to parse a date from a given string.
+     * Tries to parse a date from a given string. The supported formats are
+     * listed in DateParser.
      * 
      * @param date
      *            The date as string.
      * @return The parsed date or null if the date wasn't parsable.
      */
     public static Date parseDate(String date) {
-	try {
-	    return parse(date);
-	} catch (ParseException e) {
-	    return null;
-	}
-    }
-
-    private static Date parse(String date) throws ParseException {
-	if (date != null && !date.isEmpty()) {
-	    Date output = null;
-
-	    for (String format : formats) {
-		SimpleDateFormat sdf = new SimpleDateFormat(format);
-		try {
-		    Date parsedDate = sdf.parse(date);
-		    output = parsedDate;
-		    
-		    if (output != null) {
-			break;
-		    }
-		} catch (ParseException e) {
-		}
-	    }
-
-	    if (output != null) {
-		return output;
-	    } else {
-		throw new ParseException(date, 0);
-	    }
-	} else {
-	    throw new ParseException(date, 0);
-	}
+	long time = DateParser.getDefault().parse(date);
+	return time == DateParser.INVALID ? null : new Date(time);
     }
 }
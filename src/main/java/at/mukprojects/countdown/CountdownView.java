@@ -0,0 +1,136 @@
+package at.mukprojects.countdown;
+
+/**
+ * This class represents a flyweight view of a single countdown in a
+ * CountdownRegistry. It only holds the id of the countdown, so the same view
+ * can be reused for many countdowns with wrap().
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class CountdownView {
+
+    private final CountdownRegistry registry;
+    private long id;
+
+    /**
+     * Constructs a new CountdownView of the given registry.
+     * 
+     * @param registry
+     *            The CountdownRegistry.
+     */
+    public CountdownView(CountdownRegistry registry) {
+	this.registry = registry;
+    }
+
+    /**
+     * Points the view to the countdown with the given id.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @return This view.
+     */
+    public CountdownView wrap(long id) {
+	this.id = id;
+	return this;
+    }
+
+    /**
+     * Returns the id of the countdown.
+     * 
+     * @return The id.
+     */
+    public long getId() {
+	return id;
+    }
+
+    /**
+     * Gets the remaining time.
+     * 
+     * @return The remaining time in milliseconds or 0 if the countdown isn't
+     *         registered.
+     */
+    public long get() {
+	return registry.get(id);
+    }
+
+    /**
+     * Extends the countdown by the given time, unless it has already run out.
+     * 
+     * @param millis
+     *            The time to add in milliseconds.
+     * @return True if the countdown has been extended.
+     */
+    public boolean extend(long millis) {
+	return registry.extend(id, millis);
+    }
+
+    /**
+     * Pauses the countdown.
+     * 
+     * @return True if the countdown has been paused by this call.
+     */
+    public boolean pause() {
+	return registry.pause(id);
+    }
+
+    /**
+     * Resumes the countdown.
+     * 
+     * @return True if the countdown has been resumed by this call.
+     */
+    public boolean resume() {
+	return registry.resume(id);
+    }
+
+    /**
+     * Stops the countdown and removes it from the registry.
+     * 
+     * @return True if the countdown has been removed.
+     */
+    public boolean stop() {
+	return registry.stop(id);
+    }
+
+    /**
+     * Returns true if the countdown is paused.
+     * 
+     * @return True if the countdown is paused.
+     */
+    public boolean isPaused() {
+	return registry.isPaused(id);
+    }
+
+    /**
+     * Returns true if the countdown has expired or was stopped.
+     * 
+     * @return True if the countdown isn't registered any more.
+     */
+    public boolean isDone() {
+	return !registry.contains(id);
+    }
+
+    /**
+     * Return the creation mode.
+     * 
+     * @return The mode.
+     */
+    public int getMode() {
+	return registry.getMode(id);
+    }
+}
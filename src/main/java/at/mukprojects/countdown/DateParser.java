@@ -0,0 +1,529 @@
+package at.mukprojects.countdown;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class represents a thread-safe parser for the date formats, which are
+ * supported by CountdownTimer.parseDate(String).
+ * 
+ * Instead of trying one date format after another, the parser looks at the
+ * shape of the string once. The length of the leading number and the separator
+ * behind it select the order of the date fields, the rest of the string is
+ * read in a single pass. The parser doesn't throw or allocate anything when a
+ * string can't be parsed, it returns INVALID instead.
+ * 
+ * The following formats are supported, where 'T' may be replaced by a space
+ * and the day and month may have a single digit:
+ * 
+ * dd.MM.yyyy, MM/dd/yyyy, yyyy-MM-dd, yyyy:MM:dd and yyyyMMdd, each optionally
+ * followed by 'T'HH:mm:ss, a fraction of a second (.SSS) and a zone, which is
+ * either 'Z' for UTC or an offset like +0200, +02:00 or +02. Dates without a
+ * zone are in the given time zone.
+ * 
+ * Large amounts of dates can be parsed in parallel with parseAll(...), which
+ * returns the results in a primitive array and can stream dates from a file.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public final class DateParser {
+
+    /**
+     * The value, which is returned for strings, which can't be parsed.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    /**
+     * Number of characters, which are read from a stream at once.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Number of dates, which are parsed by a single task.
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    private static final int MILLIS_PER_SECOND = 1000;
+    private static final int SECONDS_PER_DAY = 86400;
+
+    /*
+     * Orders of the date fields.
+     */
+    private static final int DAY_MONTH_YEAR = 0;
+    private static final int MONTH_DAY_YEAR = 1;
+    private static final int YEAR_MONTH_DAY = 2;
+
+    private static final DateParser defaultParser = new DateParser(null);
+
+    private final ZoneId zone;
+
+    /**
+     * Constructs a new DateParser, which uses the given time zone for dates
+     * without a zone.
+     * 
+     * @param zone
+     *            The time zone or null to use the current default time zone.
+     */
+    public DateParser(ZoneId zone) {
+	this.zone = zone;
+    }
+
+    /**
+     * Returns the shared DateParser, which uses the current default time zone.
+     * 
+     * @return The shared parser.
+     */
+    public static DateParser getDefault() {
+	return defaultParser;
+    }
+
+    /**
+     * Parses a date.
+     * 
+     * @param text
+     *            The date as string.
+     * @return The milliseconds since the epoch or INVALID if the date wasn't
+     *         parsable.
+     */
+    public long parse(CharSequence text) {
+	if (text == null) {
+	    return INVALID;
+	}
+
+	final int length = text.length();
+
+	/*
+	 * The shape of the leading number decides the order of the fields.
+	 */
+	int lead = digits(text, 0, length);
+	int order;
+	int year, month, day;
+	int pos;
+
+	if (lead == 8 && (length == 8 || text.charAt(8) == 'T' || text.charAt(8) == ' ')) {
+	    year = number(text, 0, 4);
+	    month = number(text, 4, 2);
+	    day = number(text, 6, 2);
+	    pos = 8;
+	} else {
+	    if (lead == 4 && length > 4 && (text.charAt(4) == '-' || text.charAt(4) == ':')) {
+		order = YEAR_MONTH_DAY;
+	    } else if ((lead == 1 || lead == 2) && length > lead && text.charAt(lead) == '.') {
+		order = DAY_MONTH_YEAR;
+	    } else if ((lead == 1 || lead == 2) && length > lead && text.charAt(lead) == '/') {
+		order = MONTH_DAY_YEAR;
+	    } else {
+		return INVALID;
+	    }
+
+	    char separator = text.charAt(lead);
+	    int first = number(text, 0, lead);
+
+	    pos = lead + 1;
+	    int count = digits(text, pos, length);
+	    if (count < 1 || count > 2 || pos + count >= length || text.charAt(pos + count) != separator) {
+		return INVALID;
+	    }
+	    int second = number(text, pos, count);
+
+	    pos += count + 1;
+	    count = digits(text, pos, length);
+	    int third;
+	    if (order == YEAR_MONTH_DAY) {
+		if (count < 1 || count > 2) {
+		    return INVALID;
+		}
+	    } else if (count != 4) {
+		return INVALID;
+	    }
+	    third = number(text, pos, count);
+	    pos += count;
+
+	    if (order == DAY_MONTH_YEAR) {
+		day = first;
+		month = second;
+		year = third;
+	    } else if (order == MONTH_DAY_YEAR) {
+		month = first;
+		day = second;
+		year = third;
+	    } else {
+		year = first;
+		month = second;
+		day = third;
+	    }
+	}
+
+	if (month < 1 || month > 12 || day < 1 || day > LocalDate.of(year, month, 1).lengthOfMonth()) {
+	    return INVALID;
+	}
+
+	int hour = 0, minute = 0, second = 0, millis = 0;
+	boolean zoned = false;
+	int offset = 0;
+
+	if (pos < length) {
+	    char separator = text.charAt(pos);
+	    if ((separator != 'T' && separator != ' ') || pos + 9 > length || text.charAt(pos + 3) != ':'
+		    || text.charAt(pos + 6) != ':' || digits(text, pos + 1, pos + 3) != 2
+		    || digits(text, pos + 4, pos + 6) != 2 || digits(text, pos + 7, pos + 9) != 2) {
+		return INVALID;
+	    }
+	    hour = number(text, pos + 1, 2);
+	    minute = number(text, pos + 4, 2);
+	    second = number(text, pos + 7, 2);
+	    if (hour > 23 || minute > 59 || second > 59) {
+		return INVALID;
+	    }
+	    pos += 9;
+
+	    /*
+	     * Fraction of a second, which is truncated to milliseconds.
+	     */
+	    if (pos < length && text.charAt(pos) == '.') {
+		int count = digits(text, pos + 1, length);
+		if (count < 1 || count > 9) {
+		    return INVALID;
+		}
+		millis = number(text, pos + 1, Math.min(count, 3));
+		for (int i = count; i < 3; i++) {
+		    millis *= 10;
+		}
+		pos += count + 1;
+	    }
+
+	    if (pos < length) {
+		char sign = text.charAt(pos);
+		if (sign == 'Z' && pos + 1 == length) {
+		    zoned = true;
+		} else if (sign == '+' || sign == '-') {
+		    offset = offset(text, pos + 1, length);
+		    if (offset < 0) {
+			return INVALID;
+		    }
+		    if (sign == '-') {
+			offset = -offset;
+		    }
+		    zoned = true;
+		} else {
+		    return INVALID;
+		}
+	    }
+	}
+
+	long seconds;
+	if (zoned) {
+	    seconds = LocalDate.of(year, month, day).toEpochDay() * SECONDS_PER_DAY + hour * 3600 + minute * 60
+		    + second - offset;
+	} else {
+	    ZoneId local = zone != null ? zone : ZoneId.systemDefault();
+	    LocalDateTime dateTime = LocalDateTime.of(year, month, day, hour, minute, second);
+	    if (local instanceof ZoneOffset) {
+		seconds = dateTime.toEpochSecond((ZoneOffset) local);
+	    } else {
+		seconds = dateTime.atZone(local).toEpochSecond();
+	    }
+	}
+
+	return seconds * MILLIS_PER_SECOND + millis;
+    }
+
+    /**
+     * Parses a list of dates in parallel on the common ForkJoinPool.
+     * 
+     * @param dates
+     *            The dates as strings.
+     * @return The milliseconds since the epoch of each date in the order of
+     *         the list. Dates, which weren't parsable, are INVALID.
+     */
+    public long[] parseAll(List<? extends CharSequence> dates) {
+	CharSequence[] texts = dates.toArray(new CharSequence[dates.size()]);
+	long[] result = new long[texts.length];
+	if (texts.length > 0) {
+	    ForkJoinPool.commonPool().invoke(new ParseTask(this, texts, null, null, result, 0, texts.length));
+	}
+	return result;
+    }
+
+    /**
+     * Parses a file with one date per line. The file is read in chunks and
+     * every chunk is parsed in parallel on the common ForkJoinPool, so the
+     * lines are never held in memory as strings.
+     * 
+     * @param file
+     *            The file, which is read as UTF-8.
+     * @return The milliseconds since the epoch of each line in the order of
+     *         the file. Lines, which weren't parsable, are INVALID.
+     * @throws IOException
+     *             If the file couldn't be read.
+     */
+    public long[] parseAll(Path file) throws IOException {
+	Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+	try {
+	    return parseAll(reader);
+	} finally {
+	    reader.close();
+	}
+    }
+
+    /**
+     * Parses a stream of characters with one date per line. The stream is read
+     * in chunks and every chunk is parsed in parallel on the common
+     * ForkJoinPool. Lines may end with \n or \r\n, a final line break is
+     * optional.
+     * 
+     * @param reader
+     *            The reader of the dates. It isn't closed by this method.
+     * @return The milliseconds since the epoch of each line in the order of
+     *         the stream. Lines, which weren't parsable, are INVALID.
+     * @throws IOException
+     *             If the stream couldn't be read.
+     */
+    public long[] parseAll(Reader reader) throws IOException {
+	char[] buffer = new char[CHUNK_SIZE];
+	int[] starts = new int[CHUNK_SIZE / 8];
+	int[] ends = new int[starts.length];
+
+	long[] result = new long[1024];
+	int count = 0;
+	int filled = 0;
+	boolean eof = false;
+
+	while (!eof) {
+	    int read = reader.read(buffer, filled, buffer.length - filled);
+	    if (read < 0) {
+		eof = true;
+	    } else {
+		filled += read;
+	    }
+
+	    /*
+	     * Collect the complete lines of the chunk.
+	     */
+	    int lines = 0;
+	    int start = 0;
+	    for (int i = 0; i < filled; i++) {
+		if (buffer[i] == '\n') {
+		    if (lines == starts.length) {
+			starts = Arrays.copyOf(starts, lines * 2);
+			ends = Arrays.copyOf(ends, lines * 2);
+		    }
+		    starts[lines] = start;
+		    ends[lines] = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+		    lines++;
+		    start = i + 1;
+		}
+	    }
+	    if (eof && start < filled) {
+		if (lines == starts.length) {
+		    starts = Arrays.copyOf(starts, lines + 1);
+		    ends = Arrays.copyOf(ends, lines + 1);
+		}
+		starts[lines] = start;
+		ends[lines] = buffer[filled - 1] == '\r' ? filled - 1 : filled;
+		lines++;
+		start = filled;
+	    }
+
+	    if (lines > 0) {
+		if (result.length - count < lines) {
+		    result = Arrays.copyOf(result, Math.max(result.length * 2, count + lines));
+		}
+		ForkJoinPool.commonPool().invoke(new ParseTask(this, buffer, starts, ends, result, count, count
+			+ lines));
+		count += lines;
+	    }
+
+	    /*
+	     * Move the incomplete line to the front. A line, which doesn't fit
+	     * into the buffer, lets it grow.
+	     */
+	    filled -= start;
+	    System.arraycopy(buffer, start, buffer, 0, filled);
+	    if (filled == buffer.length) {
+		buffer = Arrays.copyOf(buffer, buffer.length * 2);
+	    }
+	}
+
+	return Arrays.copyOf(result, count);
+    }
+
+    /*
+     * Returns the offset of a zone like 0200, 02:00 or 02 in seconds or -1 if
+     * it isn't valid.
+     */
+    private static int offset(CharSequence text, int pos, int length) {
+	int hours, minutes;
+	int count = length - pos;
+
+	if (count == 2 && digits(text, pos, length) == 2) {
+	    hours = number(text, pos, 2);
+	    minutes = 0;
+	} else if (count == 4 && digits(text, pos, length) == 4) {
+	    hours = number(text, pos, 2);
+	    minutes = number(text, pos + 2, 2);
+	} else if (count == 5 && text.charAt(pos + 2) == ':' && digits(text, pos, pos + 2) == 2
+		&& digits(text, pos + 3, length) == 2) {
+	    hours = number(text, pos, 2);
+	    minutes = number(text, pos + 3, 2);
+	} else {
+	    return -1;
+	}
+
+	if (hours > 18 || minutes > 59) {
+	    return -1;
+	}
+	return hours * 3600 + minutes * 60;
+    }
+
+    /*
+     * Returns the number of consecutive digits, which start at the given
+     * position.
+     */
+    private static int digits(CharSequence text, int pos, int end) {
+	int count = 0;
+	while (pos + count < end) {
+	    char c = text.charAt(pos + count);
+	    if (c < '0' || c > '9') {
+		break;
+	    }
+	    count++;
+	}
+	return count;
+    }
+
+    private static int number(CharSequence text, int pos, int count) {
+	int value = 0;
+	for (int i = 0; i < count; i++) {
+	    value = value * 10 + (text.charAt(pos + i) - '0');
+	}
+	return value;
+    }
+
+    /**
+     * Parses a range of dates. The dates are either given as strings or as
+     * lines of a character buffer, which are read through a reused view.
+     */
+    private static final class ParseTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final DateParser parser;
+	private final CharSequence[] texts;
+	private final char[] buffer;
+	private final int[] starts;
+	private final int[] ends;
+	private final long[] result;
+	private final int offset;
+	private final int from;
+	private final int to;
+
+	private ParseTask(DateParser parser, CharSequence[] texts, int[] starts, int[] ends, long[] result,
+		int from, int to) {
+	    this(parser, texts, null, starts, ends, result, 0, from, to);
+	}
+
+	private ParseTask(DateParser parser, char[] buffer, int[] starts, int[] ends, long[] result, int from,
+		int to) {
+	    this(parser, null, buffer, starts, ends, result, from, from, to);
+	}
+
+	private ParseTask(DateParser parser, CharSequence[] texts, char[] buffer, int[] starts, int[] ends,
+		long[] result, int offset, int from, int to) {
+	    this.parser = parser;
+	    this.texts = texts;
+	    this.buffer = buffer;
+	    this.starts = starts;
+	    this.ends = ends;
+	    this.result = result;
+	    this.offset = offset;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+	    if (to - from > BATCH_SIZE) {
+		int middle = (from + to) >>> 1;
+		invokeAll(new ParseTask(parser, texts, buffer, starts, ends, result, offset, from, middle),
+			new ParseTask(parser, texts, buffer, starts, ends, result, offset, middle, to));
+	    } else if (texts != null) {
+		for (int i = from; i < to; i++) {
+		    result[i] = parser.parse(texts[i]);
+		}
+	    } else {
+		Line line = new Line(buffer);
+		for (int i = from; i < to; i++) {
+		    result[i] = parser.parse(line.set(starts[i - offset], ends[i - offset]));
+		}
+	    }
+	}
+    }
+
+    /**
+     * A view of a line in a character buffer.
+     */
+    private static final class Line implements CharSequence {
+
+	private final char[] buffer;
+	private int start;
+	private int end;
+
+	private Line(char[] buffer) {
+	    this.buffer = buffer;
+	}
+
+	private Line set(int start, int end) {
+	    this.start = start;
+	    this.end = end;
+	    return this;
+	}
+
+	@Override
+	public int length() {
+	    return end - start;
+	}
+
+	@Override
+	public char charAt(int index) {
+	    return buffer[start + index];
+	}
+
+	@Override
+	public CharSequence subSequence(int from, int to) {
+	    return new String(buffer, start + from, to - from);
+	}
+
+	@Override
+	public String toString() {
+	    return new String(buffer, start, end - start);
+	}
+    }
+}
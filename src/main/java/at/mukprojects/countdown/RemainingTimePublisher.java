@@ -0,0 +1,245 @@
+package at.mukprojects.countdown;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.flow.Flow;
+
+/**
+ * This class publishes the remaining time of a CountdownTime in milliseconds.
+ * 
+ * Updates are conflated: a Subscription only remembers that the time has
+ * changed, not by how much. Once the Subscriber requests the next element, it
+ * receives the remaining time at this moment. A slow Subscriber therefore
+ * skips the ticks it can't keep up with, nothing is buffered and the scheduler
+ * never waits for it. The elements are delivered by the given executor.
+ * 
+ * The stream completes, when the countdown expires. If there's demand left, the
+ * last element is 0. If the countdown is stopped before, the stream fails with
+ * a CancellationException.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+final class RemainingTimePublisher implements Flow.Publisher<Long> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemainingTimePublisher.class);
+
+    private final CountdownTime countdown;
+    private final Executor executor;
+
+    /**
+     * Constructs a new RemainingTimePublisher.
+     * 
+     * @param countdown
+     *            The countdown, whose remaining time is published.
+     * @param executor
+     *            The executor, which delivers the elements.
+     */
+    RemainingTimePublisher(CountdownTime countdown, Executor executor) {
+	this.countdown = countdown;
+	this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Long> subscriber) {
+	if (subscriber == null) {
+	    throw new NullPointerException("The subscriber must not be null.");
+	}
+
+	RemainingTimeSubscription subscription = new RemainingTimeSubscription(countdown, subscriber, executor);
+	try {
+	    subscriber.onSubscribe(subscription);
+	} catch (Throwable t) {
+	    logger.error("An Exception occured in a subscriber! (" + t + ")", t);
+	    return;
+	}
+	countdown.subscribe(subscription);
+    }
+
+    /**
+     * The Subscription of a single Subscriber. The elements are delivered by a
+     * drain loop, which is only run by one thread at a time.
+     */
+    static final class RemainingTimeSubscription implements Flow.Subscription, Runnable {
+
+	private static final AtomicLongFieldUpdater<RemainingTimeSubscription> REQUESTED = AtomicLongFieldUpdater
+		.newUpdater(RemainingTimeSubscription.class, "requested");
+
+	private static final AtomicIntegerFieldUpdater<RemainingTimeSubscription> WIP = AtomicIntegerFieldUpdater
+		.newUpdater(RemainingTimeSubscription.class, "wip");
+
+	private final CountdownTime countdown;
+	private final Flow.Subscriber<? super Long> subscriber;
+	private final Executor executor;
+
+	private volatile long requested;
+	private volatile int wip;
+	private volatile boolean pending = true;
+	private volatile boolean terminated;
+	private volatile boolean cancelled;
+	private volatile Throwable error;
+
+	/*
+	 * Only read and written by the drain loop.
+	 */
+	private boolean done;
+
+	private RemainingTimeSubscription(CountdownTime countdown, Flow.Subscriber<? super Long> subscriber,
+		Executor executor) {
+	    this.countdown = countdown;
+	    this.subscriber = subscriber;
+	    this.executor = executor;
+	}
+
+	@Override
+	public void request(long n) {
+	    if (n <= 0) {
+		error = new IllegalArgumentException("The number of requested elements must be positive.");
+		drain();
+		return;
+	    }
+
+	    long current;
+	    long update;
+	    do {
+		current = requested;
+		if (current == Long.MAX_VALUE) {
+		    break;
+		}
+		update = current + n;
+		if (update < 0) {
+		    update = Long.MAX_VALUE;
+		}
+	    } while (!REQUESTED.compareAndSet(this, current, update));
+	    drain();
+	}
+
+	@Override
+	public void cancel() {
+	    if (!cancelled) {
+		cancelled = true;
+		countdown.unsubscribe(this);
+	    }
+	}
+
+	/**
+	 * Marks the remaining time as changed. The drain loop is only started,
+	 * if the Subscriber is waiting for an element. Changes after the
+	 * termination are ignored, so the last element is the final time.
+	 */
+	void changed() {
+	    if (terminated) {
+		return;
+	    }
+	    pending = true;
+	    if (requested > 0) {
+		drain();
+	    }
+	}
+
+	/**
+	 * Marks the countdown as expired or stopped.
+	 */
+	void terminate() {
+	    pending = true;
+	    terminated = true;
+	    drain();
+	}
+
+	@Override
+	public void run() {
+	    int missed = 1;
+	    for (;;) {
+		while (!cancelled && !done) {
+		    long r = requested;
+		    Throwable failure = error;
+		    if (failure != null) {
+			done = true;
+			countdown.unsubscribe(this);
+			signalError(failure);
+		    } else if (pending && r > 0) {
+			pending = false;
+			long remaining = Math.max(0, countdown.get());
+			if (r != Long.MAX_VALUE) {
+			    REQUESTED.decrementAndGet(this);
+			}
+			try {
+			    subscriber.onNext(remaining);
+			} catch (Throwable t) {
+			    logger.error("An Exception occured in a subscriber! (" + t + ")", t);
+			    cancel();
+			}
+		    } else if (terminated && (!pending || r == 0)) {
+			done = true;
+			countdown.unsubscribe(this);
+			if (countdown.isExpired()) {
+			    complete();
+			} else {
+			    signalError(new CancellationException("The countdown has been stopped."));
+			}
+		    } else {
+			break;
+		    }
+		}
+
+		missed = WIP.addAndGet(this, -missed);
+		if (missed == 0) {
+		    return;
+		}
+	    }
+	}
+
+	private void drain() {
+	    if (WIP.getAndIncrement(this) != 0) {
+		return;
+	    }
+
+	    try {
+		executor.execute(this);
+	    } catch (RejectedExecutionException e) {
+		logger.warn("The executor rejected the delivery of the remaining time! (" + e
+			+ ") The subscription is cancelled.", e);
+		cancel();
+		wip = 0;
+	    }
+	}
+
+	private void complete() {
+	    try {
+		subscriber.onComplete();
+	    } catch (Throwable t) {
+		logger.error("An Exception occured in a subscriber! (" + t + ")", t);
+	    }
+	}
+
+	private void signalError(Throwable error) {
+	    try {
+		subscriber.onError(error);
+	    } catch (Throwable t) {
+		logger.error("An Exception occured in a subscriber! (" + t + ")", t);
+	    }
+	}
+    }
+}
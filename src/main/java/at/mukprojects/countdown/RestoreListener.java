@@ -0,0 +1,47 @@
+package at.mukprojects.countdown;
+
+/**
+ * This interface represents a listener, which receives the countdowns
+ * restored by a CountdownJournal.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public interface RestoreListener {
+
+    /**
+     * Called for every countdown, which was running or paused, when it was
+     * checkpointed last. The countdown has already been started again on the
+     * given timer.
+     * 
+     * @param id
+     *            The id of the countdown.
+     * @param timer
+     *            The CountdownTimer, which runs the countdown.
+     */
+    void restored(long id, CountdownTimer timer);
+
+    /**
+     * Called once with all countdowns, which have run out while they couldn't
+     * be run.
+     * 
+     * @param ids
+     *            The ids of the expired countdowns.
+     */
+    void expired(long[] ids);
+}
@@ -0,0 +1,244 @@
+package at.mukprojects.countdown.client;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class caches the resolved addresses of the NTP servers. All server
+ * names are resolved in the background as soon as the cache is created and
+ * every address of a name is kept for the time to live. Successive requests
+ * are rotated across the addresses of a name.
+ * 
+ * Like the ClockOffsetService, the cache refreshes an entry in the background
+ * shortly before it expires and collapses concurrent resolutions of the same
+ * name. A failed resolution is remembered for a short while. The addresses of
+ * the previous resolution are still used in the meantime, if there are any.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+final class AddressCache {
+
+    /**
+     * Time in milliseconds a failed resolution is remembered.
+     */
+    private static final long FAILURE_TTL = 30000;
+
+    private static final Logger logger = LoggerFactory.getLogger(AddressCache.class);
+
+    private final NameResolver resolver;
+    private final Executor executor;
+    private final int port;
+    private final long ttl;
+    private final long refreshAt;
+
+    /*
+     * The map is filled by the constructor and never changed afterwards.
+     */
+    private final Map<String, Pool> pools = new HashMap<String, Pool>();
+
+    /**
+     * Constructs a new AddressCache and starts resolving the given names.
+     * 
+     * @param serverNames
+     *            The names of the servers.
+     * @param port
+     *            The UDP port of the servers.
+     * @param resolver
+     *            The resolver, which looks up the addresses.
+     * @param executor
+     *            The executor, which runs the resolver.
+     * @param ttl
+     *            The time to live of the addresses in milliseconds.
+     */
+    AddressCache(String[] serverNames, int port, NameResolver resolver, Executor executor, long ttl) {
+	this.resolver = resolver;
+	this.executor = executor;
+	this.port = port;
+	this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+	this.refreshAt = this.ttl - this.ttl / 5;
+
+	for (String serverName : serverNames) {
+	    pools.put(serverName, new Pool(serverName));
+	}
+	for (Pool pool : pools.values()) {
+	    pool.resolve();
+	}
+    }
+
+    /**
+     * Returns the next address of the given server. The future is completed
+     * immediately, if the addresses of the server are cached.
+     * 
+     * @param serverName
+     *            The name of the server.
+     * @return The future of the address.
+     */
+    CompletableFuture<InetSocketAddress> next(String serverName) {
+	final Pool pool = pools.get(serverName);
+	if (pool == null) {
+	    throw new IllegalArgumentException("Unknown server: " + serverName);
+	}
+
+	Entry entry = pool.entry;
+	if (entry != null) {
+	    long age = System.nanoTime() - entry.created;
+	    if (age < entry.ttl) {
+		if (entry.failure == null && age >= refreshAt) {
+		    pool.resolve();
+		}
+		return entry.next();
+	    }
+	}
+
+	return pool.resolve().thenCompose(new Function<Entry, CompletableFuture<InetSocketAddress>>() {
+	    @Override
+	    public CompletableFuture<InetSocketAddress> apply(Entry resolved) {
+		return resolved.next();
+	    }
+	});
+    }
+
+    /**
+     * Returns the number of cached addresses of the given server.
+     * 
+     * @param serverName
+     *            The name of the server.
+     * @return The number of addresses.
+     */
+    int size(String serverName) {
+	Pool pool = pools.get(serverName);
+	Entry entry = pool == null ? null : pool.entry;
+	return entry == null ? 0 : entry.addresses.length;
+    }
+
+    /**
+     * The cache entry of one server name.
+     */
+    private final class Pool {
+
+	private final String serverName;
+	private final AtomicReference<CompletableFuture<Entry>> inFlight = new AtomicReference<CompletableFuture<Entry>>();
+
+	private volatile Entry entry;
+
+	private Pool(String serverName) {
+	    this.serverName = serverName;
+	}
+
+	/*
+	 * Resolves the name again, unless a resolution is already in flight.
+	 */
+	private CompletableFuture<Entry> resolve() {
+	    for (;;) {
+		CompletableFuture<Entry> pending = inFlight.get();
+		if (pending != null) {
+		    return pending;
+		}
+
+		final CompletableFuture<Entry> future = new CompletableFuture<Entry>();
+		if (inFlight.compareAndSet(null, future)) {
+		    CompletableFuture.supplyAsync(new Supplier<InetAddress[]>() {
+			@Override
+			public InetAddress[] get() {
+			    try {
+				return resolver.resolve(serverName);
+			    } catch (UnknownHostException e) {
+				throw new IllegalStateException(e);
+			    }
+			}
+		    }, executor).handle(new BiFunction<InetAddress[], Throwable, Entry>() {
+			@Override
+			public Entry apply(InetAddress[] addresses, Throwable failure) {
+			    Entry resolved = update(addresses, failure);
+			    inFlight.set(null);
+			    future.complete(resolved);
+			    return resolved;
+			}
+		    });
+		    return future;
+		}
+	    }
+	}
+
+	private Entry update(InetAddress[] addresses, Throwable failure) {
+	    Entry resolved;
+	    if (failure == null && addresses != null && addresses.length > 0) {
+		logger.debug("The NTP server " + serverName + " has been resolved to " + addresses.length
+			+ " address(es).");
+		resolved = new Entry(addresses, null, ttl);
+	    } else {
+		if (failure == null) {
+		    failure = new UnknownHostException(serverName);
+		}
+
+		/*
+		 * Keep the previous addresses, they are better than none.
+		 */
+		Entry previous = entry;
+		resolved = new Entry(previous == null ? new InetAddress[0] : previous.addresses, failure,
+			TimeUnit.MILLISECONDS.toNanos(FAILURE_TTL));
+	    }
+	    entry = resolved;
+	    return resolved;
+	}
+    }
+
+    /**
+     * The resolved addresses of a server name and the position of the next
+     * request.
+     */
+    private final class Entry {
+
+	private final InetAddress[] addresses;
+	private final Throwable failure;
+	private final long ttl;
+	private final long created = System.nanoTime();
+	private final AtomicInteger position = new AtomicInteger();
+
+	private Entry(InetAddress[] addresses, Throwable failure, long ttl) {
+	    this.addresses = addresses;
+	    this.failure = failure;
+	    this.ttl = ttl;
+	}
+
+	private CompletableFuture<InetSocketAddress> next() {
+	    if (addresses.length == 0) {
+		CompletableFuture<InetSocketAddress> failed = new CompletableFuture<InetSocketAddress>();
+		failed.completeExceptionally(failure);
+		return failed;
+	    }
+	    int index = (position.getAndIncrement() & Integer.MAX_VALUE) % addresses.length;
+	    return CompletableFuture.completedFuture(new InetSocketAddress(addresses[index], port));
+	}
+    }
+}
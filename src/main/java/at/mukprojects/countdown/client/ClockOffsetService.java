@@ -0,0 +1,315 @@
+package at.mukprojects.countdown.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
+/**
+ * This class represents a process-wide cache of the local clock offset. The
+ * offset is requested from an SntpClient and kept for a configurable time to
+ * live, so starting a countdown on a date doesn't cost a network round trip.
+ * 
+ * A cached offset is refreshed in the background shortly before it expires, as
+ * long as it has been read since the last refresh. Concurrent cache misses are
+ * collapsed into a single request. A failed request is remembered for a short
+ * while, so callers fall back to the system time without waiting for the
+ * network again.
+ * 
+ * Every new sample is passed to the registered listeners, so the ClockSync
+ * corrects its countdowns with the same offset, which new countdowns are
+ * started with.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class ClockOffsetService {
+
+    /**
+     * Default time to live of an offset in milliseconds.
+     */
+    public static final long DEFAULT_TTL = 600000;
+
+    /**
+     * Time in milliseconds a failed request is remembered.
+     */
+    private static final long FAILURE_TTL = 30000;
+
+    private static final Logger logger = LoggerFactory.getLogger(ClockOffsetService.class);
+
+    private static volatile ClockOffsetService defaultService;
+
+    private final SntpClient client;
+    private final CountdownScheduler scheduler;
+    private final long ttl;
+    private final long refreshAt;
+
+    private final AtomicReference<CompletableFuture<TimeSample>> inFlight = new AtomicReference<CompletableFuture<TimeSample>>();
+    private final List<Consumer<? super TimeSample>> listeners = new CopyOnWriteArrayList<Consumer<? super TimeSample>>();
+
+    private volatile Entry entry;
+    private volatile boolean used;
+
+    /**
+     * Constructs a new ClockOffsetService, which uses the shared SntpClient,
+     * the shared TimingWheel and the default time to live.
+     */
+    public ClockOffsetService() {
+	this(SntpClient.getDefault(), TimingWheel.getDefault(), DEFAULT_TTL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs a new ClockOffsetService.
+     * 
+     * @param client
+     *            The client, which requests the offset.
+     * @param scheduler
+     *            The scheduler, which runs the background refreshes.
+     * @param ttl
+     *            The time to live of an offset.
+     * @param unit
+     *            The unit of the time to live.
+     */
+    public ClockOffsetService(SntpClient client, CountdownScheduler scheduler, long ttl, TimeUnit unit) {
+	if (client == null) {
+	    throw new NullPointerException("The client must not be null.");
+	}
+	if (scheduler == null) {
+	    throw new NullPointerException("The scheduler must not be null.");
+	}
+	if (ttl <= 0) {
+	    throw new IllegalArgumentException("The time to live must be positive.");
+	}
+	this.client = client;
+	this.scheduler = scheduler;
+	this.ttl = unit.toNanos(ttl);
+
+	/*
+	 * Refresh after four fifths of the time to live, so the new offset
+	 * is there before the old one expires.
+	 */
+	this.refreshAt = this.ttl - this.ttl / 5;
+    }
+
+    /**
+     * Returns the shared ClockOffsetService.
+     * 
+     * @return The shared service.
+     */
+    public static ClockOffsetService getDefault() {
+	ClockOffsetService service = defaultService;
+	if (service == null) {
+	    synchronized (ClockOffsetService.class) {
+		service = defaultService;
+		if (service == null) {
+		    service = new ClockOffsetService();
+		    defaultService = service;
+		}
+	    }
+	}
+	return service;
+    }
+
+    /**
+     * Returns the local time corrected by the cached offset. The method only
+     * blocks if there is no valid offset in the cache.
+     * 
+     * @return The corrected local time.
+     * @throws IOException
+     *             If the offset couldn't be requested.
+     */
+    public long getTime() throws IOException {
+	return System.currentTimeMillis() + getSample().getOffsetMillis();
+    }
+
+    /**
+     * Returns the cached time sample. The method only blocks if there is no
+     * valid sample in the cache.
+     * 
+     * @return The time sample.
+     * @throws IOException
+     *             If the sample couldn't be requested.
+     */
+    public TimeSample getSample() throws IOException {
+	try {
+	    return getSampleAsync().get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted while waiting for the server response.");
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    }
+	    throw new IOException("Server request failed!", e.getCause());
+	}
+    }
+
+    /**
+     * Returns the cached time sample. A new sample is requested if there is
+     * no valid sample in the cache. The returned future is shared with all
+     * concurrent callers.
+     * 
+     * @return The future of the time sample.
+     */
+    public CompletableFuture<TimeSample> getSampleAsync() {
+	Entry current = entry;
+	if (current != null) {
+	    long age = System.nanoTime() - current.created;
+	    if (current.sample != null) {
+		if (age < ttl) {
+		    used = true;
+		    if (age >= refreshAt) {
+			refresh();
+		    }
+		    return current.future;
+		}
+	    } else if (age < TimeUnit.MILLISECONDS.toNanos(FAILURE_TTL)) {
+		return current.future;
+	    }
+	}
+	return refresh();
+    }
+
+    /**
+     * Returns the cached time sample without requesting a new one.
+     * 
+     * @return The time sample or null if there is no valid sample.
+     */
+    public TimeSample getCachedSample() {
+	Entry current = entry;
+	if (current != null && current.sample != null && System.nanoTime() - current.created < ttl) {
+	    return current.sample;
+	}
+	return null;
+    }
+
+    /**
+     * Requests a new time sample, unless a request is already in flight.
+     * 
+     * @return The future of the time sample.
+     */
+    public CompletableFuture<TimeSample> refresh() {
+	for (;;) {
+	    CompletableFuture<TimeSample> pending = inFlight.get();
+	    if (pending != null) {
+		return pending;
+	    }
+
+	    final CompletableFuture<TimeSample> future = new CompletableFuture<TimeSample>();
+	    if (inFlight.compareAndSet(null, future)) {
+		logger.debug("Requesting a new clock offset...");
+
+		client.requestSample().whenComplete(new BiConsumer<TimeSample, Throwable>() {
+		    @Override
+		    public void accept(TimeSample sample, Throwable failure) {
+			update(sample, failure);
+			inFlight.set(null);
+			if (failure != null) {
+			    future.completeExceptionally(failure);
+			} else {
+			    future.complete(sample);
+			}
+		    }
+		});
+		return future;
+	    }
+	}
+    }
+
+    /**
+     * Registers a listener, which is called with every new time sample,
+     * before the requests waiting for it are completed.
+     * 
+     * @param listener
+     *            The listener to call.
+     */
+    public void onSample(Consumer<? super TimeSample> listener) {
+	if (listener == null) {
+	    throw new NullPointerException("The listener must not be null.");
+	}
+	listeners.add(listener);
+    }
+
+    /**
+     * Returns the time to live of an offset.
+     * 
+     * @return The time to live in milliseconds.
+     */
+    public long getTtl() {
+	return TimeUnit.NANOSECONDS.toMillis(ttl);
+    }
+
+    private void update(TimeSample sample, Throwable failure) {
+	if (failure == null) {
+	    entry = new Entry(sample, CompletableFuture.completedFuture(sample));
+	    used = false;
+
+	    for (Consumer<? super TimeSample> listener : listeners) {
+		try {
+		    listener.accept(sample);
+		} catch (Throwable t) {
+		    logger.error("An Exception occured in a sample listener! (" + t + ")", t);
+		}
+	    }
+
+	    scheduler.schedule(new Runnable() {
+		@Override
+		public void run() {
+		    if (used) {
+			refresh();
+		    }
+		}
+	    }, refreshAt, TimeUnit.NANOSECONDS);
+	} else {
+	    logger.warn("The clock offset couldn't be refreshed! (" + failure + ")");
+
+	    /*
+	     * Keep a valid offset, the next read will try again.
+	     */
+	    if (getCachedSample() == null) {
+		CompletableFuture<TimeSample> failed = new CompletableFuture<TimeSample>();
+		failed.completeExceptionally(failure);
+		entry = new Entry(null, failed);
+	    }
+	}
+    }
+
+    private static final class Entry {
+
+	private final TimeSample sample;
+	private final CompletableFuture<TimeSample> future;
+	private final long created = System.nanoTime();
+
+	private Entry(TimeSample sample, CompletableFuture<TimeSample> future) {
+	    this.sample = sample;
+	    this.future = future;
+	}
+    }
+}
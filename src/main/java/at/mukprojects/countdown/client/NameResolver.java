@@ -0,0 +1,42 @@
+package at.mukprojects.countdown.client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * This interface represents a resolver, which looks up the addresses of the
+ * NTP servers. The SntpClient calls it on a background thread, so it may
+ * block.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public interface NameResolver {
+
+    /**
+     * Returns all addresses of the given host, e.g. every A and AAAA record of
+     * an NTP pool.
+     * 
+     * @param host
+     *            The name of the host.
+     * @return The addresses, at least one.
+     * @throws UnknownHostException
+     *             If the host couldn't be resolved.
+     */
+    InetAddress[] resolve(String host) throws UnknownHostException;
+}
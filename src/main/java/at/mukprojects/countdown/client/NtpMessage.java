@@ -17,6 +17,10 @@ import java.text.DecimalFormat;
  * However, the contructor NtpMessage(byte[]) and the method toByteArray()
  * allow the import and export of the raw NTP message format.
  * 
+ * The SntpClient uses the NtpPacket codec instead, which reads and writes
+ * the fields directly in a ByteBuffer and keeps the timestamps in the exact
+ * fixed point format.
+ * 
  * 
  * Usage example
  * 
@@ -360,14 +364,14 @@ public class NtpMessage {
     */
    public static double decodeTimestamp(byte[] array, int pointer)
    {
-      double r = 0.0;
+      long timestamp = 0;
     
       for(int i=0; i<8; i++)
          {
-            r += unsignedByteToShort(array[pointer+i]) * Math.pow(2, (3-i)*8);
+            timestamp = timestamp << 8 | (array[pointer+i] & 0xFF);
          }
     
-      return r;
+      return NtpPacket.toSeconds(timestamp);
    }
   
   
@@ -377,21 +381,18 @@ public class NtpMessage {
     */
    public static void encodeTimestamp (final byte[] array, final int pointer, double timestamp)  {
       // Converts a double into a 64-bit fixed point
-      for(int i=0; i<8; i++) {
-         // 2^24, 2^16, 2^8, .. 2^-32
-         final double base = Math.pow(2, (3-i)*8);
-         // Capture byte value
-         array[pointer+i] = (byte) (timestamp / base);
-
-         // Subtract captured value from remaining total
-         timestamp = timestamp - (double) (unsignedByteToShort(array[pointer+i]) * base);
+      long fixed = NtpPacket.fromSeconds(timestamp);
+      
+      for(int i=7; i>=0; i--) {
+         array[pointer+i] = (byte) fixed;
+         fixed >>>= 8;
       }
     
       // From RFC 2030: It is advisable to fill the non-significant
       // low order bits of the timestamp with a random, unbiased
       // bitstring, both to avoid systematic roundoff errors and as
       // a means of loop detection and replay detection.
-      array[7] = (byte) (Math.random()*255.0);
+      array[pointer+7] = (byte) (Math.random()*255.0);
    }
   
   
@@ -0,0 +1,531 @@
+package at.mukprojects.countdown.client;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class represents a flyweight view of an NTP packet, as specified in RFC
+ * 2030. Unlike NtpMessage it doesn't copy the packet, it reads and writes the
+ * fields directly in a ByteBuffer, so a single instance can be reused for any
+ * number of packets without allocating.
+ * 
+ * Timestamps are exact 64-bit fixed-point values with 32 bits of seconds since
+ * 00:00 1-Jan-1900 and 32 bits of fraction, which is the wire format of NTP.
+ * The differences of two timestamps are exact as well and can be converted to
+ * nanoseconds with toNanos(long).
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public final class NtpPacket {
+
+    /**
+     * Size of an NTP packet without authentication.
+     */
+    public static final int SIZE = 48;
+
+    /**
+     * Seconds from 1 Jan 1900 to 1 Jan 1970.
+     */
+    private static final long SECS = 60L * 60 * 24 * 25567;
+
+    /**
+     * Mask of the fraction bits below a microsecond.
+     */
+    private static final long NOISE = (1L << 12) - 1;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final int ROOT_DELAY = 4;
+    private static final int ROOT_DISPERSION = 8;
+    private static final int REFERENCE_IDENTIFIER = 12;
+    private static final int REFERENCE_TIMESTAMP = 16;
+    private static final int ORIGINATE_TIMESTAMP = 24;
+    private static final int RECEIVE_TIMESTAMP = 32;
+    private static final int TRANSMIT_TIMESTAMP = 40;
+
+    private ByteBuffer buffer;
+    private int offset;
+
+    /**
+     * Constructs a new NtpPacket, which isn't bound to a buffer yet.
+     */
+    public NtpPacket() {
+    }
+
+    /**
+     * Constructs a new NtpPacket, which is bound to the current position of
+     * the given buffer.
+     * 
+     * @param buffer
+     *            The buffer, which holds the packet.
+     */
+    public NtpPacket(ByteBuffer buffer) {
+	wrap(buffer);
+    }
+
+    /**
+     * Binds the packet to the current position of the given buffer. The
+     * position and limit of the buffer aren't changed.
+     * 
+     * @param buffer
+     *            The buffer, which holds the packet.
+     * @return This packet.
+     */
+    public NtpPacket wrap(ByteBuffer buffer) {
+	return wrap(buffer, buffer.position());
+    }
+
+    /**
+     * Binds the packet to the given offset of the buffer.
+     * 
+     * @param buffer
+     *            The buffer, which holds the packet.
+     * @param offset
+     *            The offset of the packet in the buffer.
+     * @return This packet.
+     */
+    public NtpPacket wrap(ByteBuffer buffer, int offset) {
+	if (offset < 0 || buffer.capacity() - offset < SIZE) {
+	    throw new IndexOutOfBoundsException("The buffer is too small for an NTP packet.");
+	}
+	this.buffer = buffer;
+	this.offset = offset;
+	return this;
+    }
+
+    /**
+     * Returns the buffer of the packet.
+     * 
+     * @return The buffer.
+     */
+    public ByteBuffer buffer() {
+	return buffer;
+    }
+
+    /**
+     * Sets all fields of the packet to zero.
+     * 
+     * @return This packet.
+     */
+    public NtpPacket clear() {
+	for (int i = 0; i < SIZE; i += 8) {
+	    buffer.putLong(offset + i, 0);
+	}
+	return this;
+    }
+
+    /**
+     * Turns the packet into a client request, which has been sent at the
+     * given time.
+     * 
+     * @param transmitTimestamp
+     *            The transmit timestamp of the request.
+     * @return This packet.
+     */
+    public NtpPacket request(long transmitTimestamp) {
+	clear();
+	buffer.put(offset, (byte) (3 << 3 | 3));
+	setTransmitTimestamp(transmitTimestamp);
+	return this;
+    }
+
+    /**
+     * Returns the leap indicator.
+     * 
+     * @return The leap indicator.
+     */
+    public int getLeapIndicator() {
+	return (buffer.get(offset) >> 6) & 0x3;
+    }
+
+    /**
+     * Sets the leap indicator.
+     * 
+     * @param leapIndicator
+     *            The leap indicator.
+     * @return This packet.
+     */
+    public NtpPacket setLeapIndicator(int leapIndicator) {
+	buffer.put(offset, (byte) ((buffer.get(offset) & 0x3F) | (leapIndicator & 0x3) << 6));
+	return this;
+    }
+
+    /**
+     * Returns the version number.
+     * 
+     * @return The version number.
+     */
+    public int getVersion() {
+	return (buffer.get(offset) >> 3) & 0x7;
+    }
+
+    /**
+     * Sets the version number.
+     * 
+     * @param version
+     *            The version number.
+     * @return This packet.
+     */
+    public NtpPacket setVersion(int version) {
+	buffer.put(offset, (byte) ((buffer.get(offset) & 0xC7) | (version & 0x7) << 3));
+	return this;
+    }
+
+    /**
+     * Returns the mode.
+     * 
+     * @return The mode.
+     */
+    public int getMode() {
+	return buffer.get(offset) & 0x7;
+    }
+
+    /**
+     * Sets the mode.
+     * 
+     * @param mode
+     *            The mode.
+     * @return This packet.
+     */
+    public NtpPacket setMode(int mode) {
+	buffer.put(offset, (byte) ((buffer.get(offset) & 0xF8) | (mode & 0x7)));
+	return this;
+    }
+
+    /**
+     * Returns the stratum.
+     * 
+     * @return The stratum.
+     */
+    public int getStratum() {
+	return buffer.get(offset + 1) & 0xFF;
+    }
+
+    /**
+     * Sets the stratum.
+     * 
+     * @param stratum
+     *            The stratum.
+     * @return This packet.
+     */
+    public NtpPacket setStratum(int stratum) {
+	buffer.put(offset + 1, (byte) stratum);
+	return this;
+    }
+
+    /**
+     * Returns the poll interval in seconds to the nearest power of two.
+     * 
+     * @return The poll interval.
+     */
+    public int getPollInterval() {
+	return buffer.get(offset + 2);
+    }
+
+    /**
+     * Sets the poll interval in seconds to the nearest power of two.
+     * 
+     * @param pollInterval
+     *            The poll interval.
+     * @return This packet.
+     */
+    public NtpPacket setPollInterval(int pollInterval) {
+	buffer.put(offset + 2, (byte) pollInterval);
+	return this;
+    }
+
+    /**
+     * Returns the precision of the clock in seconds to the nearest power of two.
+     * 
+     * @return The precision of the clock.
+     */
+    public int getPrecision() {
+	return buffer.get(offset + 3);
+    }
+
+    /**
+     * Sets the precision of the clock in seconds to the nearest power of two.
+     * 
+     * @param precision
+     *            The precision of the clock.
+     * @return This packet.
+     */
+    public NtpPacket setPrecision(int precision) {
+	buffer.put(offset + 3, (byte) precision);
+	return this;
+    }
+
+    /**
+     * Returns the root delay as signed 16.16 fixed-point seconds.
+     * 
+     * @return The root delay.
+     */
+    public int getRootDelay() {
+	return buffer.getInt(offset + ROOT_DELAY);
+    }
+
+    /**
+     * Sets the root delay.
+     * 
+     * @param rootDelay
+     *            The root delay.
+     * @return This packet.
+     */
+    public NtpPacket setRootDelay(int rootDelay) {
+	buffer.putInt(offset + ROOT_DELAY, rootDelay);
+	return this;
+    }
+
+    /**
+     * Returns the root dispersion as unsigned 16.16 fixed-point seconds.
+     * 
+     * @return The root dispersion.
+     */
+    public long getRootDispersion() {
+	return buffer.getInt(offset + ROOT_DISPERSION) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Sets the root dispersion.
+     * 
+     * @param rootDispersion
+     *            The root dispersion.
+     * @return This packet.
+     */
+    public NtpPacket setRootDispersion(long rootDispersion) {
+	buffer.putInt(offset + ROOT_DISPERSION, (int) rootDispersion);
+	return this;
+    }
+
+    /**
+     * Returns the reference identifier as big-endian integer.
+     * 
+     * @return The reference identifier.
+     */
+    public int getReferenceIdentifier() {
+	return buffer.getInt(offset + REFERENCE_IDENTIFIER);
+    }
+
+    /**
+     * Sets the reference identifier.
+     * 
+     * @param referenceIdentifier
+     *            The reference identifier.
+     * @return This packet.
+     */
+    public NtpPacket setReferenceIdentifier(int referenceIdentifier) {
+	buffer.putInt(offset + REFERENCE_IDENTIFIER, referenceIdentifier);
+	return this;
+    }
+
+    /**
+     * Returns the reference timestamp.
+     * 
+     * @return The reference timestamp.
+     */
+    public long getReferenceTimestamp() {
+	return buffer.getLong(offset + REFERENCE_TIMESTAMP);
+    }
+
+    /**
+     * Sets the reference timestamp.
+     * 
+     * @param timestamp
+     *            The reference timestamp.
+     * @return This packet.
+     */
+    public NtpPacket setReferenceTimestamp(long timestamp) {
+	buffer.putLong(offset + REFERENCE_TIMESTAMP, timestamp);
+	return this;
+    }
+
+    /**
+     * Returns the originate timestamp.
+     * 
+     * @return The originate timestamp.
+     */
+    public long getOriginateTimestamp() {
+	return buffer.getLong(offset + ORIGINATE_TIMESTAMP);
+    }
+
+    /**
+     * Sets the originate timestamp.
+     * 
+     * @param timestamp
+     *            The originate timestamp.
+     * @return This packet.
+     */
+    public NtpPacket setOriginateTimestamp(long timestamp) {
+	buffer.putLong(offset + ORIGINATE_TIMESTAMP, timestamp);
+	return this;
+    }
+
+    /**
+     * Returns the receive timestamp.
+     * 
+     * @return The receive timestamp.
+     */
+    public long getReceiveTimestamp() {
+	return buffer.getLong(offset + RECEIVE_TIMESTAMP);
+    }
+
+    /**
+     * Sets the receive timestamp.
+     * 
+     * @param timestamp
+     *            The receive timestamp.
+     * @return This packet.
+     */
+    public NtpPacket setReceiveTimestamp(long timestamp) {
+	buffer.putLong(offset + RECEIVE_TIMESTAMP, timestamp);
+	return this;
+    }
+
+    /**
+     * Returns the transmit timestamp.
+     * 
+     * @return The transmit timestamp.
+     */
+    public long getTransmitTimestamp() {
+	return buffer.getLong(offset + TRANSMIT_TIMESTAMP);
+    }
+
+    /**
+     * Sets the transmit timestamp.
+     * 
+     * @param timestamp
+     *            The transmit timestamp.
+     * @return This packet.
+     */
+    public NtpPacket setTransmitTimestamp(long timestamp) {
+	buffer.putLong(offset + TRANSMIT_TIMESTAMP, timestamp);
+	return this;
+    }
+
+    /**
+     * Returns the current time as NTP timestamp. The time has the resolution
+     * of the system clock, which is a microsecond or better on most platforms.
+     * The fraction bits below a microsecond are filled with random bits, as
+     * advised by RFC 2030.
+     * 
+     * @return The current time.
+     */
+    public static long now() {
+	Instant now = Instant.now();
+	return timestamp(now.getEpochSecond(), now.getNano()) | (ThreadLocalRandom.current().nextLong() & NOISE);
+    }
+
+    /**
+     * Converts a point in time into an NTP timestamp.
+     * 
+     * @param epochSecond
+     *	    The seconds since 1 Jan 1970.
+     * @param nanos
+     *	    The nanoseconds within the second.
+     * @return The NTP timestamp.
+     */
+    public static long timestamp(long epochSecond, int nanos) {
+	return (epochSecond + SECS) << 32 | ((long) nanos << 32) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Converts milliseconds since the epoch into an NTP timestamp.
+     * 
+     * @param millis
+     *            The milliseconds since 1 Jan 1970.
+     * @return The NTP timestamp.
+     */
+    public static long timestamp(long millis) {
+	long seconds = Math.floorDiv(millis, 1000L);
+	long fraction = (Math.floorMod(millis, 1000L) << 32) / 1000L;
+	return (seconds + SECS) << 32 | fraction;
+    }
+
+    /**
+     * Converts an NTP timestamp into milliseconds since the epoch. The
+     * timestamp is rounded to the nearest millisecond.
+     * 
+     * @param timestamp
+     *            The NTP timestamp.
+     * @return The milliseconds since 1 Jan 1970.
+     */
+    public static long toMillis(long timestamp) {
+	long seconds = (timestamp >>> 32) - SECS;
+	long fraction = ((timestamp & 0xFFFFFFFFL) * 1000L + (1L << 31)) >>> 32;
+	return seconds * 1000L + fraction;
+    }
+
+    /**
+     * Converts the difference of two NTP timestamps into nanoseconds. The
+     * difference is a signed 32.32 fixed-point value, so it can span about 68
+     * years in both directions.
+     * 
+     * @param difference
+     *            The difference of two timestamps.
+     * @return The difference in nanoseconds.
+     */
+    public static long toNanos(long difference) {
+	long seconds = difference >> 32;
+	long fraction = ((difference & 0xFFFFFFFFL) * NANOS_PER_SECOND + (1L << 31)) >>> 32;
+	return seconds * NANOS_PER_SECOND + fraction;
+    }
+
+    /**
+     * Converts a duration into the fixed-point format of NTP timestamps.
+     * 
+     * @param duration
+     *            The duration.
+     * @param unit
+     *            The unit of the duration.
+     * @return The duration as signed 32.32 fixed-point seconds.
+     */
+    public static long fromDuration(long duration, TimeUnit unit) {
+	long nanos = unit.toNanos(duration);
+	long seconds = Math.floorDiv(nanos, NANOS_PER_SECOND);
+	long fraction = (Math.floorMod(nanos, NANOS_PER_SECOND) << 32) / NANOS_PER_SECOND;
+	return seconds << 32 | fraction;
+    }
+
+    /**
+     * Converts an NTP timestamp into the seconds since 00:00 1-Jan-1900, which
+     * are used by NtpMessage.
+     * 
+     * @param timestamp
+     *            The NTP timestamp.
+     * @return The seconds since 1 Jan 1900.
+     */
+    public static double toSeconds(long timestamp) {
+	return (timestamp >>> 32) + (timestamp & 0xFFFFFFFFL) / 4294967296.0;
+    }
+
+    /**
+     * Converts the seconds since 00:00 1-Jan-1900, which are used by
+     * NtpMessage, into an NTP timestamp.
+     * 
+     * @param seconds
+     *            The seconds since 1 Jan 1900.
+     * @return The NTP timestamp.
+     */
+    public static long fromSeconds(double seconds) {
+	long whole = (long) seconds;
+	return whole << 32 | (long) ((seconds - whole) * 4294967296.0);
+    }
+}
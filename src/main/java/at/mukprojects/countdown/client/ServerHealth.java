@@ -0,0 +1,141 @@
+package at.mukprojects.countdown.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps the health of a single NTP server: an exponentially
+ * weighted moving average of its round-trip time, the mean deviation of the
+ * round-trip time and its failure rate.
+ * 
+ * The round-trip time is smoothed like the retransmission timer of TCP (RFC
+ * 6298), the first sample replaces the initial estimate. The average plus twice the mean deviation is an estimate of the 95th
+ * percentile of the round-trip time, which is the time after which the
+ * SntpClient asks the next server.
+ * 
+ * The estimates are only written by the selector thread of the client.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+final class ServerHealth {
+
+    /**
+     * The round-trip time of a server, which hasn't answered yet.
+     */
+    private static final long INITIAL_RTT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The shortest time after which the next server is asked.
+     */
+    private static final long MIN_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The highest failure rate, which is taken into account, so a server is
+     * never ruled out for good.
+     */
+    private static final double MAX_FAILURE_RATE = 0.95;
+
+    private volatile long roundTripTime = INITIAL_RTT;
+    private volatile long deviation = INITIAL_RTT / 2;
+    private volatile double failureRate;
+    private boolean measured;
+
+    /**
+     * Records a response of the server.
+     * 
+     * @param nanos
+     *            The time between the request and the response.
+     */
+    void success(long nanos) {
+	sample(nanos);
+	failureRate -= failureRate / 8;
+    }
+
+    /**
+     * Records a request, which has been overtaken by another server. The
+     * elapsed time is only a lower bound of the round-trip time, but it's
+     * still a sample of it.
+     * 
+     * @param nanos
+     *            The time, which has elapsed since the request.
+     */
+    void overtaken(long nanos) {
+	if (nanos > roundTripTime) {
+	    sample(nanos);
+	}
+    }
+
+    /**
+     * Records a failed or timed out request.
+     */
+    void failure() {
+	failureRate += (1 - failureRate) / 8;
+    }
+
+    /**
+     * Returns the time after which the next server is asked, the estimated
+     * 95th percentile of the round-trip time.
+     * 
+     * @return The delay in nanoseconds.
+     */
+    long getHedgeDelay() {
+	return Math.max(MIN_HEDGE_DELAY, roundTripTime + 2 * deviation);
+    }
+
+    /**
+     * Returns the score of the server, the lower the healthier. It's the
+     * hedge delay stretched by the failure rate, so it's the expected time
+     * until the server has answered.
+     * 
+     * @return The score.
+     */
+    double getScore() {
+	return getHedgeDelay() / (1 - Math.min(MAX_FAILURE_RATE, failureRate));
+    }
+
+    /**
+     * Returns the smoothed round-trip time.
+     * 
+     * @return The round-trip time in nanoseconds.
+     */
+    long getRoundTripTime() {
+	return roundTripTime;
+    }
+
+    /**
+     * Returns the smoothed failure rate.
+     * 
+     * @return The failure rate between 0 and 1.
+     */
+    double getFailureRate() {
+	return failureRate;
+    }
+
+    private void sample(long nanos) {
+	if (!measured) {
+	    roundTripTime = nanos;
+	    deviation = nanos / 2;
+	    measured = true;
+	    return;
+	}
+
+	long error = nanos - roundTripTime;
+	deviation += (Math.abs(error) - deviation) / 4;
+	roundTripTime += error / 8;
+    }
+}
@@ -1,22 +1,65 @@
 package at.mukprojects.countdown.client;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.mukprojects.countdown.metrics.Metrics;
+
 /**
  * This class represents an SNTP client, which uses an NTP message to
  * communicate with the server. The local clock offset calculation is
  * implemented according to the SNTP algorithm specified in RFC 2030.
  * 
+ * The client is non-blocking. All requests of a client share a single
+ * selector thread. A request is hedged: it's sent to the healthiest server
+ * first and whenever a server hasn't answered within the 95th percentile of
+ * its round-trip time or has failed, the next healthiest server is asked as
+ * well. The health of every server is the moving average of its round-trip
+ * time and its failure rate, so a slow or unreachable server is asked last.
+ * 
+ * Every server is asked with a burst of pipelined requests, which are all in
+ * flight at once, so the burst costs about a single round trip. Like the clock
+ * filter of RFC 5905, the client keeps the sample with the lowest round-trip
+ * delay, since it has been delayed the least by queues and its offset is the
+ * most accurate. The request is finished, once a server has answered its
+ * whole burst or the 95th percentile of its round-trip time has passed since
+ * its first answer.
+ * 
+ * Server names are resolved ahead of time on a small pool of daemon threads.
+ * All addresses of a name are cached for a time to live and the requests are
+ * rotated across them, so a request doesn't wait for the resolver, unless the
+ * cache has run dry.
+ * 
  * The code is based on the Java implementation of an SNTP client copyrighted
  * under the terms of the GPL by Adam Buckley in 2004.
  * 
@@ -40,9 +83,9 @@ import org.slf4j.LoggerFactory;
 public class SntpClient {
 
     /**
-     * UDP port
+     * Default UDP port.
      */
-    private static final int PORT = 123;
+    public static final int DEFAULT_PORT = 123;
 
     /**
      * NTP server
@@ -51,12 +94,149 @@ public class SntpClient {
 	    "uk.pool.ntp.org", "au.pool.ntp.org" };
 
     /**
-     * Socket timeout in milliseconds
+     * Default timeout of a request in milliseconds.
      */
-    private static final int TIMEOUT = 10000;
+    public static final int DEFAULT_TIMEOUT = 10000;
+
+    /**
+     * Default time to live of the resolved addresses in milliseconds.
+     */
+    public static final long DEFAULT_DNS_TTL = 300000;
+
+    /**
+     * Default number of requests, which are sent to a server at once.
+     */
+    public static final int DEFAULT_BURST = 4;
 
     private static final Logger logger = LoggerFactory.getLogger(SntpClient.class);
 
+    private static final Executor resolver = Executors.newCachedThreadPool(new ThreadFactory() {
+	@Override
+	public Thread newThread(Runnable runnable) {
+	    Thread thread = new Thread(runnable, "sntp-resolver");
+	    thread.setDaemon(true);
+	    return thread;
+	}
+    });
+
+    private static final NameResolver SYSTEM_RESOLVER = new NameResolver() {
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+	    return InetAddress.getAllByName(host);
+	}
+    };
+
+    private static volatile SntpClient defaultClient;
+
+    private final String[] serverNames;
+    private final int port;
+    private final int timeout;
+    private final AddressCache addresses;
+    private final ServerHealth[] health;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final List<Request> requests = new ArrayList<Request>();
+
+    /*
+     * The buffers and the packet view are only used by the selector thread.
+     */
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(NtpPacket.SIZE);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(512);
+    private final NtpPacket packet = new NtpPacket();
+
+    private Selector selector;
+
+    /**
+     * Constructs a new SntpClient, which uses the default NTP servers.
+     */
+    public SntpClient() {
+	this(SERVERNAMES, DEFAULT_PORT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructs a new SntpClient.
+     * 
+     * @param serverNames
+     *            The names of the NTP servers.
+     * @param port
+     *            The UDP port of the servers.
+     * @param timeout
+     *            The timeout of a request in milliseconds.
+     */
+    public SntpClient(String[] serverNames, int port, int timeout) {
+	this(serverNames, port, timeout, SYSTEM_RESOLVER, DEFAULT_DNS_TTL);
+    }
+
+    /**
+     * Constructs a new SntpClient, which resolves the server names with the
+     * given resolver. The names are resolved right away in the background.
+     * 
+     * @param serverNames
+     *            The names of the NTP servers.
+     * @param port
+     *            The UDP port of the servers.
+     * @param timeout
+     *            The timeout of a request in milliseconds.
+     * @param resolver
+     *            The resolver, which looks up the addresses of the servers.
+     * @param dnsTtl
+     *            The time to live of the resolved addresses in milliseconds.
+     */
+    public SntpClient(String[] serverNames, int port, int timeout, NameResolver resolver, long dnsTtl) {
+	if (serverNames == null || serverNames.length == 0) {
+	    throw new IllegalArgumentException("At least one server is required.");
+	}
+	if (resolver == null) {
+	    throw new NullPointerException("The resolver must not be null.");
+	}
+	if (dnsTtl <= 0) {
+	    throw new IllegalArgumentException("The time to live must be positive.");
+	}
+	this.serverNames = serverNames.clone();
+	this.port = port;
+	this.timeout = timeout;
+	this.addresses = new AddressCache(this.serverNames, port, resolver, SntpClient.resolver, dnsTtl);
+	this.health = new ServerHealth[serverNames.length];
+	for (int i = 0; i < health.length; i++) {
+	    health[i] = new ServerHealth();
+	}
+    }
+
+    /**
+     * Returns the shared SntpClient, which uses the default NTP servers.
+     * 
+     * @return The shared client.
+     */
+    public static SntpClient getDefault() {
+	SntpClient client = defaultClient;
+	if (client == null) {
+	    synchronized (SntpClient.class) {
+		client = defaultClient;
+		if (client == null) {
+		    client = new SntpClient();
+		    defaultClient = client;
+		}
+	    }
+	}
+	return client;
+    }
+
+    /**
+     * Sets the shared SntpClient, e.g. to use other servers. It has to be
+     * set before the shared ClockOffsetService is used for the first time.
+     * 
+     * @param client
+     *            The shared client.
+     */
+    public static void setDefault(SntpClient client) {
+	if (client == null) {
+	    throw new NullPointerException("The client must not be null.");
+	}
+	synchronized (SntpClient.class) {
+	    defaultClient = client;
+	}
+    }
+
     /**
      * Returns the local time corrected by the received server time.
      * 
@@ -64,94 +244,582 @@ public class SntpClient {
      * @throws IOException
      */
     public static long getTime() throws IOException {
+	return getDefault().requestTime();
+    }
+
+    /**
+     * Returns the local time corrected by the received server time. The
+     * method blocks until the first server has answered or the timeout has
+     * elapsed.
+     * 
+     * @return The corrected local time.
+     * @throws IOException
+     *             If no server answered in time.
+     */
+    public long requestTime() throws IOException {
+	try {
+	    return getTimeAsync().get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted while waiting for the server response.");
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    }
+	    throw new IOException("Server request failed!", e.getCause());
+	}
+    }
 
-	final DatagramSocket socket = new DatagramSocket();
-	final byte[] buffer = new NtpMessage().toByteArray();
+    /**
+     * Returns the local time corrected by the received server time.
+     * 
+     * @return The future of the corrected local time.
+     */
+    public CompletableFuture<Long> getTimeAsync() {
+	return requestSample().thenApply(new Function<TimeSample, Long>() {
+	    @Override
+	    public Long apply(TimeSample sample) {
+		long now = System.currentTimeMillis();
+		long cor = now + sample.getOffsetMillis();
 
-	logger.info("Timeout is set to " + TIMEOUT + " milliseconds.");
-	socket.setSoTimeout(TIMEOUT);
+		DateFormat formatter = new SimpleDateFormat("dd.MM.yyyy - HH:mm:ss:SS z");
 
-	DatagramPacket packet = null;
-	InetAddress address = null;
+		logger.info("Local time: " + formatter.format(new Date(now)));
+		logger.info("Corrected time:" + formatter.format(new Date(cor)));
 
-	address = InetAddress.getByName(SERVERNAMES[0]);
-	logger.info("Trying to connect to NTP server: " + String.format("%s", address));
-	packet = sendRequest(buffer, address, socket);
+		return cor;
+	    }
+	});
+    }
 
-	boolean receivingData = true;
-	int tries = 1;
+    /**
+     * Sends a hedged burst of the default size to the servers and returns the
+     * sample with the lowest round-trip delay.
+     * 
+     * @return The future of the time sample.
+     * @see #requestSample(int)
+     */
+    public CompletableFuture<TimeSample> requestSample() {
+	return requestSample(DEFAULT_BURST);
+    }
+
+    /**
+     * Sends a hedged burst to the servers and returns the sample with the
+     * lowest round-trip delay. The burst is sent to the healthiest server
+     * first and to the next one, whenever the servers asked so far are late
+     * or have failed. Each server name is asked at its next cached address.
+     * 
+     * @param burst
+     *            The number of requests, which are sent to a server at once.
+     * @return The future of the time sample.
+     */
+    public CompletableFuture<TimeSample> requestSample(int burst) {
+	if (burst <= 0) {
+	    throw new IllegalArgumentException("The burst must be positive.");
+	}
+
+	final Request request = new Request(burst, serverNames.length);
 
-	while (receivingData) {
+	submit(new Runnable() {
+	    @Override
+	    public void run() {
+		if (open(request)) {
+		    request.order = rank();
+		    hedge(request);
+		}
+	    }
+	});
+
+	return request.future;
+    }
+
+    /**
+     * Returns the timeout of a request.
+     * 
+     * @return The timeout in milliseconds.
+     */
+    public int getTimeout() {
+	return timeout;
+    }
+
+    /**
+     * Returns the number of cached addresses of the given server.
+     * 
+     * @param serverName
+     *            The name of the server.
+     * @return The number of addresses or 0 if the name hasn't been resolved
+     *         yet.
+     */
+    public int getAddresses(String serverName) {
+	return addresses.size(serverName);
+    }
+
+    /**
+     * Returns the names of the servers.
+     * 
+     * @return The server names.
+     */
+    public String[] getServerNames() {
+	return serverNames.clone();
+    }
+
+    /**
+     * Returns the smoothed round-trip time of the given server.
+     * 
+     * @param serverName
+     *            The name of the server.
+     * @return The round-trip time in nanoseconds.
+     */
+    public long getRoundTripTime(String serverName) {
+	return health[indexOf(serverName)].getRoundTripTime();
+    }
+
+    /**
+     * Returns the smoothed failure rate of the given server.
+     * 
+     * @param serverName
+     *            The name of the server.
+     * @return The failure rate between 0 and 1.
+     */
+    public double getFailureRate(String serverName) {
+	return health[indexOf(serverName)].getFailureRate();
+    }
+
+    private int indexOf(String serverName) {
+	for (int i = 0; i < serverNames.length; i++) {
+	    if (serverNames[i].equals(serverName)) {
+		return i;
+	    }
+	}
+	throw new IllegalArgumentException("Unknown server: " + serverName);
+    }
+
+    /*
+     * Returns the indices of the servers ordered by their health.
+     */
+    private int[] rank() {
+	Integer[] order = new Integer[serverNames.length];
+	final double[] scores = new double[serverNames.length];
+	for (int i = 0; i < order.length; i++) {
+	    order[i] = i;
+	    scores[i] = health[i].getScore();
+	}
+
+	Arrays.sort(order, new Comparator<Integer>() {
+	    @Override
+	    public int compare(Integer a, Integer b) {
+		return Double.compare(scores[a], scores[b]);
+	    }
+	});
+
+	int[] ranked = new int[order.length];
+	for (int i = 0; i < order.length; i++) {
+	    ranked[i] = order[i];
+	}
+	return ranked;
+    }
+
+    /*
+     * Asks the next server of the request. Returns false if all servers have
+     * been asked.
+     */
+    private boolean hedge(final Request request) {
+	if (request.future.isDone() || request.next >= request.order.length) {
+	    request.hedgeAt = Long.MAX_VALUE;
+	    return false;
+	}
+
+	final int server = request.order[request.next++];
+	final String serverName = serverNames[server];
+	request.pending++;
+	request.hedgeAt = System.nanoTime() + health[server].getHedgeDelay();
+
+	addresses.next(serverName).whenComplete(new BiConsumer<InetSocketAddress, Throwable>() {
+	    @Override
+	    public void accept(final InetSocketAddress address, final Throwable failure) {
+		submit(new Runnable() {
+		    @Override
+		    public void run() {
+			if (failure != null) {
+			    logger.warn("The NTP server " + serverName + " couldn't be resolved! (" + failure + ")");
+			    Metrics.getDefault().recordServerFailure(serverName);
+			    failed(request, server);
+			} else {
+			    send(request, server, address);
+			}
+		    }
+		});
+	    }
+	});
+	return true;
+    }
+
+    private synchronized void submit(Runnable task) {
+	if (selector == null) {
 	    try {
-		packet = receiveResponse(buffer, socket);
-		receivingData = false;
-	    } catch (SocketTimeoutException e) {
-		logger.warn("Timeout reached! Try: " + tries);
-
-		address = InetAddress.getByName(SERVERNAMES[tries]);
-		logger.info("Trying to connect to NTP server: " + String.format("%s", address));
-		packet = sendRequest(buffer, address, socket);
-
-		tries++;
-		if (tries > 5) {
-		    logger.error("Timeout reached! Server is unreachable.", e);
-		    throw new IOException("Server unreachable!", e);
+		selector = Selector.open();
+	    } catch (IOException e) {
+		throw new IllegalStateException("The selector couldn't be opened.", e);
+	    }
+	    Thread thread = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    loop();
 		}
+	    }, "sntp-client");
+	    thread.setDaemon(true);
+	    thread.start();
+	}
+	tasks.add(task);
+	selector.wakeup();
+    }
+
+    private void loop() {
+	for (;;) {
+	    try {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+		    task.run();
+		}
+
+		long wait = expire();
+		if (wait > 0) {
+		    selector.select(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+		} else {
+		    selector.select();
+		}
+
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+		    SelectionKey key = keys.next();
+		    keys.remove();
+		    if (key.isValid() && key.isReadable()) {
+			receive((Request) key.attachment());
+		    }
+		}
+	    } catch (Throwable t) {
+		logger.error("An Exception occured in the SNTP client loop! (" + t + ")", t);
 	    }
 	}
+    }
 
-	logger.info("Recording the incoming timestamp...");
-	final double destinationTimestamp = NtpMessage.now();
+    private boolean open(Request request) {
+	try {
+	    request.channel = DatagramChannel.open();
+	    request.channel.configureBlocking(false);
+	    request.key = request.channel.register(selector, SelectionKey.OP_READ, request);
+	    request.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+	    requests.add(request);
+	    return true;
+	} catch (IOException e) {
+	    finish(request, null, e);
+	    return false;
+	}
+    }
 
-	logger.info("Retrieve the the NTP message.");
-	final NtpMessage msg = new NtpMessage(packet.getData());
+    private void send(Request request, int server, InetSocketAddress address) {
+	if (request.future.isDone() || request.channel == null) {
+	    return;
+	}
 
-	socket.close();
+	logger.info("Trying to connect to NTP server: " + address);
 
 	/*
-	 * Formula for delay according to the RFC2030 errata.
+	 * The transmit timestamps of a burst have to be unique, otherwise the
+	 * responses couldn't be told apart.
 	 */
-	final double roundTripDelay = (destinationTimestamp - msg.originateTimestamp)
-		- (msg.transmitTimestamp - msg.receiveTimestamp);
+	long transmitTimestamp = NtpPacket.now();
+	for (int i = 0; i < request.burst; i++) {
+	    sendBuffer.clear();
+	    packet.wrap(sendBuffer).request(transmitTimestamp + i);
+	    try {
+		request.channel.send(sendBuffer, address);
+		request.sent.add(new Sent(server, address, transmitTimestamp + i));
+	    } catch (IOException e) {
+		logger.warn("The request to " + address + " couldn't be sent! (" + e + ")");
+		Metrics.getDefault().recordServerFailure(address.getHostString());
+		if (!isAsked(request, server)) {
+		    failed(request, server);
+		}
+		return;
+	    }
+	}
+    }
+
+    private void receive(Request request) {
+	for (;;) {
+	    SocketAddress source;
+	    receiveBuffer.clear();
+	    try {
+		source = request.channel.receive(receiveBuffer);
+	    } catch (IOException e) {
+		logger.warn("The server response couldn't be received! (" + e + ")");
+		return;
+	    }
+	    if (source == null) {
+		return;
+	    }
+
+	    final long destinationTimestamp = NtpPacket.now();
+	    receiveBuffer.flip();
+
+	    if (receiveBuffer.remaining() < NtpPacket.SIZE) {
+		continue;
+	    }
+
+	    packet.wrap(receiveBuffer);
+
+	    Sent sent = request.match(source, packet.getOriginateTimestamp());
+	    if (sent == null) {
+		logger.debug("Ignoring an unexpected packet from " + source + ".");
+		continue;
+	    }
+
+	    request.sent.remove(sent);
+
+	    if (!isValid(packet)) {
+		logger.warn("Ignoring an invalid response from " + source + ".");
+		Metrics.getDefault().recordServerFailure(sent.address.getHostString());
+		if (request.answered[sent.server] == 0 && !isAsked(request, sent.server)) {
+		    failed(request, sent.server);
+		} else {
+		    health[sent.server].failure();
+		}
+		continue;
+	    }
+
+	    final long originateTimestamp = packet.getOriginateTimestamp();
+	    final long receiveTimestamp = packet.getReceiveTimestamp();
+	    final long transmitTimestamp = packet.getTransmitTimestamp();
+
+	    /*
+	     * Formula for delay according to the RFC2030 errata. The
+	     * differences of the fixed point timestamps are exact.
+	     */
+	    final long roundTripDelay = NtpPacket.toNanos((destinationTimestamp - originateTimestamp)
+		    - (transmitTimestamp - receiveTimestamp));
+
+	    /*
+	     * The amount the server is ahead of the client.
+	     */
+	    final long localClockOffset = NtpPacket.toNanos(((receiveTimestamp - originateTimestamp)
+		    + (transmitTimestamp - destinationTimestamp)) / 2);
+
+	    TimeSample sample = new TimeSample(sent.address, roundTripDelay, localClockOffset);
+
+	    /*
+	     * Display response.
+	     */
+	    logger.debug(sample.toString());
+
+	    Metrics.getDefault().recordRoundTripDelay(roundTripDelay);
+
+	    long now = System.nanoTime();
+	    health[sent.server].success(now - sent.sentNanos);
+
+	    /*
+	     * The clock filter keeps the sample with the lowest delay.
+	     */
+	    if (request.answered[sent.server]++ == 0) {
+		long settleAt = now + health[sent.server].getHedgeDelay();
+		if (request.best == null || settleAt - request.settleAt < 0) {
+		    request.settleAt = settleAt;
+		}
+	    }
+	    if (request.best == null || roundTripDelay < request.best.getRoundTripDelay()) {
+		request.best = sample;
+	    }
+
+	    if (request.answered[sent.server] == request.burst) {
+		settle(request);
+		finish(request, request.best, null);
+		return;
+	    }
+	}
+    }
+
+    /*
+     * Records the servers, which haven't answered at all, as overtaken once
+     * and the offset of the chosen sample.
+     */
+    private void settle(Request request) {
+	long now = System.nanoTime();
+	boolean[] overtaken = new boolean[health.length];
+	for (Sent sent : request.sent) {
+	    if (request.answered[sent.server] == 0 && !overtaken[sent.server]) {
+		health[sent.server].overtaken(now - sent.sentNanos);
+		overtaken[sent.server] = true;
+	    }
+	}
+
+	logger.debug("Chosen sample: " + request.best);
+	Metrics.getDefault().recordClockOffset(request.best.getOffset());
+    }
+
+    /*
+     * Returns true if requests to the given server are still outstanding.
+     */
+    private static boolean isAsked(Request request, int server) {
+	for (Sent sent : request.sent) {
+	    if (sent.server == server) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private static boolean isValid(NtpPacket packet) {
+	return packet.getMode() == 4 && packet.getLeapIndicator() != 3 && packet.getStratum() > 0
+		&& packet.getStratum() < 16 && packet.getTransmitTimestamp() != 0;
+    }
+
+    /*
+     * Records the failure of a server and asks the next one right away.
+     */
+    private void failed(Request request, int server) {
+	health[server].failure();
+	request.pending--;
+	if (!hedge(request) && request.pending <= 0 && !request.future.isDone()) {
+	    logger.error("No NTP server is reachable!");
+	    finish(request, null, new IOException("Server unreachable!"));
+	}
+    }
+
+    /*
+     * Fails all requests, which have run out of time, hedges the requests,
+     * whose servers are late, and returns the time in nanoseconds until the
+     * next of these events.
+     */
+    private long expire() {
+	long now = System.nanoTime();
+	long wait = 0;
+
+	Iterator<Request> iterator = requests.iterator();
+	while (iterator.hasNext()) {
+	    Request request = iterator.next();
+	    if (request.future.isDone()) {
+		close(request);
+		iterator.remove();
+	    } else if (request.best != null && (request.settleAt - now <= 0 || request.deadline - now <= 0)) {
+		settle(request);
+		request.future.complete(request.best);
+		close(request);
+		iterator.remove();
+	    } else if (request.deadline - now <= 0) {
+		logger.error("Timeout reached! Server is unreachable.");
+		boolean[] timedOut = new boolean[health.length];
+		for (Sent sent : request.sent) {
+		    if (!timedOut[sent.server]) {
+			Metrics.getDefault().recordServerTimeout(sent.address.getHostString());
+			health[sent.server].failure();
+			timedOut[sent.server] = true;
+		    }
+		}
+		request.future.completeExceptionally(new SocketTimeoutException("Server unreachable!"));
+		close(request);
+		iterator.remove();
+	    } else {
+		if (request.hedgeAt - now <= 0) {
+		    hedge(request);
+		}
+		long next = Math.min(request.deadline - now, request.hedgeAt - now);
+		if (request.best != null) {
+		    next = Math.min(next, request.settleAt - now);
+		}
+		next = Math.max(1, next);
+		if (wait == 0 || next < wait) {
+		    wait = next;
+		}
+	    }
+	}
+	return wait;
+    }
+
+    private void finish(Request request, TimeSample sample, Throwable failure) {
+	if (failure != null) {
+	    request.future.completeExceptionally(failure);
+	} else {
+	    request.future.complete(sample);
+	}
+	close(request);
+	requests.remove(request);
+    }
+
+    private static void close(Request request) {
+	if (request.key != null) {
+	    request.key.cancel();
+	}
+	if (request.channel != null) {
+	    try {
+		request.channel.close();
+	    } catch (IOException e) {
+		logger.warn("The channel couldn't be closed! (" + e + ")");
+	    }
+	}
+    }
+
+    /**
+     * A request, which is sent to all servers through the same channel. Its
+     * state is only touched by the selector thread.
+     */
+    private static final class Request {
+
+	private final CompletableFuture<TimeSample> future = new CompletableFuture<TimeSample>();
+	private final List<Sent> sent = new ArrayList<Sent>();
+
+	private DatagramChannel channel;
+	private SelectionKey key;
+	private long deadline;
 
 	/*
-	 * The amount the server is ahead of the client.
+	 * The servers ordered by their health, the position of the next server
+	 * to ask and the point in time at which it's asked.
 	 */
-	final double localClockOffset = ((msg.receiveTimestamp - msg.originateTimestamp)
-		+ (msg.transmitTimestamp - destinationTimestamp)) / 2;
+	private int[] order;
+	private int next;
+	private long hedgeAt = Long.MAX_VALUE;
 
 	/*
-	 * Display response.
+	 * The number of servers, which have been asked and haven't failed.
 	 */
-	logger.debug("NTP server: " + String.format("%s", address));
-	logger.debug("Round-trip delay: " + String.format("%+9.2f ms", 1000 * roundTripDelay));
-	logger.debug("Local clock offset: " + String.format("%+9.2f ms", 1000 * localClockOffset));
+	private int pending;
 
-	final long now = System.currentTimeMillis();
-	final long cor = now + Math.round(1000.0 * localClockOffset);
-
-	DateFormat formatter = new SimpleDateFormat("dd.MM.yyyy - HH:mm:ss:SS z");
+	/*
+	 * The size of a burst, the number of answers of every server, the
+	 * sample with the lowest delay so far and the point in time at which
+	 * it's taken, even if a burst is incomplete.
+	 */
+	private final int burst;
+	private final int[] answered;
+	private TimeSample best;
+	private long settleAt;
 
-	logger.info("Local time: " + formatter.format(new Date(now)));
-	logger.info("Corrected time:" + formatter.format(new Date(cor)));
+	private Request(int burst, int servers) {
+	    this.burst = burst;
+	    this.answered = new int[servers];
+	}
 
-	return cor;
+	private Sent match(SocketAddress source, long originateTimestamp) {
+	    for (Sent candidate : sent) {
+		if (candidate.address.equals(source) && candidate.transmitTimestamp == originateTimestamp) {
+		    return candidate;
+		}
+	    }
+	    return null;
+	}
     }
 
-    private static DatagramPacket sendRequest(final byte[] buffer, final InetAddress address,
-	    final DatagramSocket socket) throws IOException {
-	logger.info("Send server request...");
-	DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, PORT);
-	socket.send(packet);
-	logger.info("Server request was send.");
-	return packet;
-    }
+    private static final class Sent {
+
+	private final int server;
+	private final InetSocketAddress address;
+	private final long transmitTimestamp;
+	private final long sentNanos = System.nanoTime();
 
-    private static DatagramPacket receiveResponse(byte[] buffer, DatagramSocket socket) throws IOException {
-	logger.info("Receive server response...");
-	DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-	socket.receive(packet);
-	logger.info("Received server response.");
-	return packet;
+	private Sent(int server, InetSocketAddress address, long transmitTimestamp) {
+	    this.server = server;
+	    this.address = address;
+	    this.transmitTimestamp = transmitTimestamp;
+	}
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+package at.mukprojects.countdown.client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * This class represents the result of a single exchange with an NTP server.
+ * It holds the round-trip delay and the local clock offset calculated
+ * according to the SNTP algorithm specified in RFC 2030.
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class TimeSample {
+
+    private final InetSocketAddress server;
+    private final long roundTripDelay;
+    private final long offset;
+
+    /**
+     * Constructs a new TimeSample.
+     * 
+     * @param server
+     *            The server, which sent the response.
+     * @param roundTripDelay
+     *            The round-trip delay in nanoseconds.
+     * @param offset
+     *            The amount of nanoseconds the server is ahead of the client.
+     */
+    public TimeSample(InetSocketAddress server, long roundTripDelay, long offset) {
+	this.server = server;
+	this.roundTripDelay = roundTripDelay;
+	this.offset = offset;
+    }
+
+    /**
+     * Returns the server, which sent the response.
+     * 
+     * @return The server address.
+     */
+    public InetSocketAddress getServer() {
+	return server;
+    }
+
+    /**
+     * Returns the round-trip delay of the exchange.
+     * 
+     * @return The round-trip delay in nanoseconds.
+     */
+    public long getRoundTripDelay() {
+	return roundTripDelay;
+    }
+
+    /**
+     * Returns the local clock offset, which is the amount of time the server
+     * is ahead of the client.
+     * 
+     * @return The offset in nanoseconds.
+     */
+    public long getOffset() {
+	return offset;
+    }
+
+    /**
+     * Returns the local clock offset rounded to milliseconds.
+     * 
+     * @return The offset in milliseconds.
+     */
+    public long getOffsetMillis() {
+	return Math.round(offset / 1000000.0);
+    }
+
+    /**
+     * Returns the local time corrected by the offset of this sample.
+     * 
+     * @return The corrected time in milliseconds since the epoch.
+     */
+    public long getCorrectedTime() {
+	return System.currentTimeMillis() + getOffsetMillis();
+    }
+
+    @Override
+    public String toString() {
+	return "NTP server: " + server + ", Round-trip delay: " + String.format("%+9.2f ms", roundTripDelay / 1e6)
+		+ ", Local clock offset: " + String.format("%+9.2f ms", offset / 1e6);
+    }
+}
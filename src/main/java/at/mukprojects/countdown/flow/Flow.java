@@ -0,0 +1,116 @@
+package at.mukprojects.countdown.flow;
+
+/**
+ * This class holds the interfaces of a reactive stream with backpressure.
+ * They have the same shape as the ones of java.util.concurrent.Flow, which
+ * isn't available on Java 8, so a Publisher can be adapted to it or to
+ * Reactive Streams with a single method reference per signal.
+ * 
+ * A Subscriber receives no elements until it requests them. Once it has
+ * received all it has asked for, the Publisher has to wait for the next
+ * request.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * A producer of elements, which are received by Subscribers.
+     *
+     * @param <T>
+     *            The type of the elements.
+     */
+    public interface Publisher<T> {
+
+	/**
+	 * Adds the given Subscriber. The Subscriber receives a Subscription
+	 * through onSubscribe() before it's signalled anything else.
+	 * 
+	 * @param subscriber
+	 *            The Subscriber.
+	 */
+	void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of elements. The methods of a Subscriber are never called
+     * concurrently for the same Subscription.
+     *
+     * @param <T>
+     *            The type of the elements.
+     */
+    public interface Subscriber<T> {
+
+	/**
+	 * Called once before any other method with the Subscription, which is
+	 * used to request elements.
+	 * 
+	 * @param subscription
+	 *            The Subscription.
+	 */
+	void onSubscribe(Subscription subscription);
+
+	/**
+	 * Called with the next element, which has been requested.
+	 * 
+	 * @param item
+	 *            The element.
+	 */
+	void onNext(T item);
+
+	/**
+	 * Called once if the Publisher has failed. No other method is called
+	 * afterwards.
+	 * 
+	 * @param throwable
+	 *            The error.
+	 */
+	void onError(Throwable throwable);
+
+	/**
+	 * Called once if the Publisher has finished. No other method is called
+	 * afterwards.
+	 */
+	void onComplete();
+    }
+
+    /**
+     * The link between a Publisher and one of its Subscribers.
+     */
+    public interface Subscription {
+
+	/**
+	 * Requests the given number of additional elements. Long.MAX_VALUE
+	 * stands for an unbounded demand.
+	 * 
+	 * @param n
+	 *            The number of elements, which must be positive.
+	 */
+	void request(long n);
+
+	/**
+	 * Stops the delivery of elements. Elements may still arrive for a
+	 * short time.
+	 */
+	void cancel();
+    }
+}
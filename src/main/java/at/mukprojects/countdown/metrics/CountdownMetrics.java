@@ -0,0 +1,86 @@
+package at.mukprojects.countdown.metrics;
+
+/**
+ * This interface represents the metrics SPI of the library. The countdowns and
+ * the SntpClient report their measurements to the instance, which has been set
+ * with Metrics.setDefault(CountdownMetrics).
+ * 
+ * All methods are no-ops by default, so an implementation only overrides what
+ * it's interested in. The methods are called on the scheduler and client
+ * threads, so they must be thread safe, fast and shouldn't allocate.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public interface CountdownMetrics {
+
+    /**
+     * Records how late a tick of a ticking countdown has run.
+     * 
+     * @param nanos
+     *            The lateness in nanoseconds.
+     */
+    default void recordTickLateness(long nanos) {
+    }
+
+    /**
+     * Records how late a countdown has expired.
+     * 
+     * @param nanos
+     *            The lateness in nanoseconds.
+     */
+    default void recordExpiryLateness(long nanos) {
+    }
+
+    /**
+     * Records the round-trip delay of an answered NTP request.
+     * 
+     * @param nanos
+     *            The round-trip delay in nanoseconds.
+     */
+    default void recordRoundTripDelay(long nanos) {
+    }
+
+    /**
+     * Records the local clock offset of an answered NTP request.
+     * 
+     * @param nanos
+     *            The amount of nanoseconds the server is ahead of the client.
+     */
+    default void recordClockOffset(long nanos) {
+    }
+
+    /**
+     * Records a failure of an NTP server, which couldn't be resolved or sent
+     * an invalid response.
+     * 
+     * @param server
+     *            The name of the server.
+     */
+    default void recordServerFailure(String server) {
+    }
+
+    /**
+     * Records a request to an NTP server, which hasn't been answered in time.
+     * 
+     * @param server
+     *            The name of the server.
+     */
+    default void recordServerTimeout(String server) {
+    }
+}
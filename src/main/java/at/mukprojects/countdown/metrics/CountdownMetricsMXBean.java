@@ -0,0 +1,82 @@
+package at.mukprojects.countdown.metrics;
+
+import java.util.Map;
+
+/**
+ * This interface represents the management interface of the HistogramMetrics.
+ * All latencies are in microseconds.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public interface CountdownMetricsMXBean {
+
+    /**
+     * Returns how late the ticks of ticking countdowns have run.
+     * 
+     * @return The tick lateness.
+     */
+    HistogramSnapshot getTickLateness();
+
+    /**
+     * Returns how late the countdowns have expired.
+     * 
+     * @return The expiry lateness.
+     */
+    HistogramSnapshot getExpiryLateness();
+
+    /**
+     * Returns the round-trip delays of the answered NTP requests.
+     * 
+     * @return The round-trip delays.
+     */
+    HistogramSnapshot getRoundTripDelay();
+
+    /**
+     * Returns the absolute local clock offsets of the answered NTP requests.
+     * 
+     * @return The absolute clock offsets.
+     */
+    HistogramSnapshot getClockOffset();
+
+    /**
+     * Returns the local clock offset of the last answered NTP request.
+     * 
+     * @return The clock offset in microseconds.
+     */
+    long getLastClockOffset();
+
+    /**
+     * Returns the number of failures per NTP server.
+     * 
+     * @return The failures per server.
+     */
+    Map<String, Long> getServerFailures();
+
+    /**
+     * Returns the number of timeouts per NTP server.
+     * 
+     * @return The timeouts per server.
+     */
+    Map<String, Long> getServerTimeouts();
+
+    /**
+     * Removes all recorded values.
+     */
+    void reset();
+}
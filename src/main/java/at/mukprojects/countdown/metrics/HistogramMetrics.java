@@ -0,0 +1,211 @@
+package at.mukprojects.countdown.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class represents CountdownMetrics, which keep the latencies in
+ * LatencyHistograms and count the failures and timeouts per server. The
+ * metrics can be registered as MXBean with the platform MBeanServer.
+ * 
+ * Usage example
+ * 
+ * Metrics.setDefault(new HistogramMetrics().register());
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class HistogramMetrics implements CountdownMetrics, CountdownMetricsMXBean {
+
+    /**
+     * The name under which the metrics are registered.
+     */
+    public static final String OBJECT_NAME = "at.mukprojects.countdown:type=Metrics";
+
+    private static final Logger logger = LoggerFactory.getLogger(HistogramMetrics.class);
+
+    private final LatencyHistogram tickLateness = new LatencyHistogram();
+    private final LatencyHistogram expiryLateness = new LatencyHistogram();
+    private final LatencyHistogram roundTripDelay = new LatencyHistogram();
+    private final LatencyHistogram clockOffset = new LatencyHistogram();
+    private final AtomicLong lastClockOffset = new AtomicLong();
+
+    private final ConcurrentMap<String, AtomicLong> serverFailures = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> serverTimeouts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Registers the metrics with the platform MBeanServer. Metrics, which
+     * have been registered before, are replaced.
+     * 
+     * @return This metrics.
+     */
+    public HistogramMetrics register() {
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName(OBJECT_NAME);
+	    if (server.isRegistered(name)) {
+		server.unregisterMBean(name);
+	    }
+	    server.registerMBean(this, name);
+	} catch (JMException e) {
+	    logger.error("The metrics couldn't be registered! (" + e + ")", e);
+	}
+	return this;
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBeanServer.
+     */
+    public void unregister() {
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName(OBJECT_NAME);
+	    if (server.isRegistered(name)) {
+		server.unregisterMBean(name);
+	    }
+	} catch (JMException e) {
+	    logger.error("The metrics couldn't be unregistered! (" + e + ")", e);
+	}
+    }
+
+    @Override
+    public void recordTickLateness(long nanos) {
+	tickLateness.record(nanos);
+    }
+
+    @Override
+    public void recordExpiryLateness(long nanos) {
+	expiryLateness.record(nanos);
+    }
+
+    @Override
+    public void recordRoundTripDelay(long nanos) {
+	roundTripDelay.record(nanos);
+    }
+
+    @Override
+    public void recordClockOffset(long nanos) {
+	clockOffset.record(Math.abs(nanos));
+	lastClockOffset.set(nanos);
+    }
+
+    @Override
+    public void recordServerFailure(String server) {
+	counter(serverFailures, server).incrementAndGet();
+    }
+
+    @Override
+    public void recordServerTimeout(String server) {
+	counter(serverTimeouts, server).incrementAndGet();
+    }
+
+    /**
+     * Returns the histogram of the tick lateness in nanoseconds.
+     * 
+     * @return The histogram.
+     */
+    public LatencyHistogram getTickLatenessHistogram() {
+	return tickLateness;
+    }
+
+    /**
+     * Returns the histogram of the expiry lateness in nanoseconds.
+     * 
+     * @return The histogram.
+     */
+    public LatencyHistogram getExpiryLatenessHistogram() {
+	return expiryLateness;
+    }
+
+    @Override
+    public HistogramSnapshot getTickLateness() {
+	return tickLateness.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getExpiryLateness() {
+	return expiryLateness.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getRoundTripDelay() {
+	return roundTripDelay.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getClockOffset() {
+	return clockOffset.snapshot();
+    }
+
+    @Override
+    public long getLastClockOffset() {
+	return lastClockOffset.get() / 1000;
+    }
+
+    @Override
+    public Map<String, Long> getServerFailures() {
+	return snapshot(serverFailures);
+    }
+
+    @Override
+    public Map<String, Long> getServerTimeouts() {
+	return snapshot(serverTimeouts);
+    }
+
+    @Override
+    public void reset() {
+	tickLateness.reset();
+	expiryLateness.reset();
+	roundTripDelay.reset();
+	clockOffset.reset();
+	lastClockOffset.set(0);
+	serverFailures.clear();
+	serverTimeouts.clear();
+    }
+
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String server) {
+	AtomicLong counter = counters.get(server);
+	if (counter == null) {
+	    AtomicLong created = new AtomicLong();
+	    counter = counters.putIfAbsent(server, created);
+	    if (counter == null) {
+		counter = created;
+	    }
+	}
+	return counter;
+    }
+
+    private static Map<String, Long> snapshot(ConcurrentMap<String, AtomicLong> counters) {
+	Map<String, Long> snapshot = new TreeMap<String, Long>();
+	for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+	    snapshot.put(entry.getKey(), entry.getValue().get());
+	}
+	return snapshot;
+    }
+}
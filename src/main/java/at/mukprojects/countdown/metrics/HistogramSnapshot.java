@@ -0,0 +1,134 @@
+package at.mukprojects.countdown.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * This class represents a snapshot of a LatencyHistogram. All values are in
+ * microseconds. It's exposed as composite data by the CountdownMetricsMXBean.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class HistogramSnapshot {
+
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    /**
+     * Constructs a new HistogramSnapshot.
+     * 
+     * @param count
+     *            The number of recorded values.
+     * @param mean
+     *            The mean.
+     * @param p50
+     *            The median.
+     * @param p90
+     *            The 90th percentile.
+     * @param p99
+     *            The 99th percentile.
+     * @param p999
+     *            The 99.9th percentile.
+     * @param max
+     *            The largest value.
+     */
+    @ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999", "max" })
+    public HistogramSnapshot(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+	this.count = count;
+	this.mean = mean;
+	this.p50 = p50;
+	this.p90 = p90;
+	this.p99 = p99;
+	this.p999 = p999;
+	this.max = max;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * 
+     * @return The number of values.
+     */
+    public long getCount() {
+	return count;
+    }
+
+    /**
+     * Returns the mean.
+     * 
+     * @return The mean in microseconds.
+     */
+    public double getMean() {
+	return mean;
+    }
+
+    /**
+     * Returns the median.
+     * 
+     * @return The median in microseconds.
+     */
+    public long getP50() {
+	return p50;
+    }
+
+    /**
+     * Returns the 90th percentile.
+     * 
+     * @return The percentile in microseconds.
+     */
+    public long getP90() {
+	return p90;
+    }
+
+    /**
+     * Returns the 99th percentile.
+     * 
+     * @return The percentile in microseconds.
+     */
+    public long getP99() {
+	return p99;
+    }
+
+    /**
+     * Returns the 99.9th percentile.
+     * 
+     * @return The percentile in microseconds.
+     */
+    public long getP999() {
+	return p999;
+    }
+
+    /**
+     * Returns the largest value.
+     * 
+     * @return The largest value in microseconds.
+     */
+    public long getMax() {
+	return max;
+    }
+
+    @Override
+    public String toString() {
+	return "Count: " + count + ", Mean: " + String.format("%.1f", mean) + " us, P50: " + p50 + " us, P90: " + p90
+		+ " us, P99: " + p99 + " us, P99.9: " + p999 + " us, Max: " + max + " us";
+    }
+}
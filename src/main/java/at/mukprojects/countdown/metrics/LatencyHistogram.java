@@ -0,0 +1,157 @@
+package at.mukprojects.countdown.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class represents a lock-free histogram of non-negative values, which
+ * are usually latencies in nanoseconds.
+ * 
+ * Like an HDR histogram it uses log-linear buckets: every power of two is
+ * divided into 32 linear sub-buckets, so the values are kept with a relative
+ * error of about 3% over the whole range of a long. Recording a value is a
+ * few atomic increments and never allocates.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     * 
+     * @param value
+     *            The value.
+     */
+    public void record(long value) {
+	if (value < 0) {
+	    value = 0;
+	}
+
+	buckets.incrementAndGet(index(value));
+	count.incrementAndGet();
+	sum.addAndGet(value);
+
+	long current;
+	while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+	}
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * 
+     * @return The number of values.
+     */
+    public long getCount() {
+	return count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     * 
+     * @return The mean or zero if nothing has been recorded.
+     */
+    public double getMean() {
+	long n = count.get();
+	return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     * 
+     * @return The largest value.
+     */
+    public long getMax() {
+	return max.get();
+    }
+
+    /**
+     * Returns the value, which is greater than or equal to the given share of
+     * the recorded values.
+     * 
+     * @param percentile
+     *            The percentile between 0 and 100.
+     * @return The value at the percentile or zero if nothing has been
+     *         recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+	long n = count.get();
+	if (n == 0) {
+	    return 0;
+	}
+
+	long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+	long seen = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    seen += buckets.get(i);
+	    if (seen >= rank) {
+		return Math.min(highestValue(i), max.get());
+	    }
+	}
+	return max.get();
+    }
+
+    /**
+     * Returns a snapshot of the histogram in microseconds.
+     * 
+     * @return The snapshot.
+     */
+    public HistogramSnapshot snapshot() {
+	return new HistogramSnapshot(getCount(), getMean() / 1000, getValueAtPercentile(50) / 1000,
+		getValueAtPercentile(90) / 1000, getValueAtPercentile(99) / 1000, getValueAtPercentile(99.9) / 1000,
+		getMax() / 1000);
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset() {
+	for (int i = 0; i < BUCKETS; i++) {
+	    buckets.set(i, 0);
+	}
+	count.set(0);
+	sum.set(0);
+	max.set(0);
+    }
+
+    private static int index(long value) {
+	if (value < SUB_BUCKETS) {
+	    return (int) value;
+	}
+	int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+	return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long highestValue(int index) {
+	if (index < SUB_BUCKETS) {
+	    return index;
+	}
+	int shift = index / SUB_BUCKETS - 1;
+	long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+	return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,56 @@
+package at.mukprojects.countdown.metrics;
+
+/**
+ * This class holds the CountdownMetrics, which all countdowns and clients of
+ * the process report to. By default nothing is recorded.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public final class Metrics {
+
+    /**
+     * Metrics, which don't record anything.
+     */
+    public static final CountdownMetrics NOOP = new CountdownMetrics() {
+    };
+
+    private static volatile CountdownMetrics metrics = NOOP;
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the current metrics.
+     * 
+     * @return The metrics.
+     */
+    public static CountdownMetrics getDefault() {
+	return metrics;
+    }
+
+    /**
+     * Sets the metrics, which all countdowns and clients report to.
+     * 
+     * @param metrics
+     *            The metrics or null to stop recording.
+     */
+    public static void setDefault(CountdownMetrics metrics) {
+	Metrics.metrics = metrics == null ? NOOP : metrics;
+    }
+}
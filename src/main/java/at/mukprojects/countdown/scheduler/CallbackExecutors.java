@@ -0,0 +1,144 @@
+package at.mukprojects.countdown.scheduler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class provides the executors, which run the expiry callbacks of the
+ * countdowns. Running the callbacks apart from the scheduler threads makes sure,
+ * that a slow listener can't delay the ticks of other countdowns.
+ * 
+ * On Java 21 and newer the callbacks run on virtual threads. The virtual thread
+ * executor is looked up at runtime, so the library still runs on older Java
+ * versions, which use a cached pool of daemon threads instead.
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public final class CallbackExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallbackExecutors.class);
+
+    private static final Executor DIRECT = new Executor() {
+	@Override
+	public void execute(Runnable command) {
+	    command.run();
+	}
+    };
+
+    private static volatile Executor virtualThreads;
+    private static volatile Executor pooled;
+
+    private CallbackExecutors() {
+    }
+
+    /**
+     * Returns the default executor for expiry callbacks. It runs every
+     * callback on a virtual thread if they are available, otherwise on a
+     * cached pool of daemon threads.
+     * 
+     * @return The default callback executor.
+     */
+    public static Executor getDefault() {
+	return virtualThreads();
+    }
+
+    /**
+     * Returns an executor, which runs the callbacks directly on the scheduler
+     * thread. It should only be used for callbacks, which return immediately.
+     * 
+     * @return The direct executor.
+     */
+    public static Executor direct() {
+	return DIRECT;
+    }
+
+    /**
+     * Returns an executor, which starts a new virtual thread for every
+     * callback. If the runtime doesn't support virtual threads, the cached
+     * thread pool is returned.
+     * 
+     * @return The virtual thread executor.
+     */
+    public static Executor virtualThreads() {
+	Executor executor = virtualThreads;
+	if (executor == null) {
+	    synchronized (CallbackExecutors.class) {
+		executor = virtualThreads;
+		if (executor == null) {
+		    executor = createVirtualThreadExecutor();
+		    virtualThreads = executor;
+		}
+	    }
+	}
+	return executor;
+    }
+
+    /**
+     * Returns an executor, which runs the callbacks on a cached pool of daemon
+     * threads.
+     * 
+     * @return The pooled executor.
+     */
+    public static Executor pooled() {
+	Executor executor = pooled;
+	if (executor == null) {
+	    synchronized (CallbackExecutors.class) {
+		executor = pooled;
+		if (executor == null) {
+		    executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+		    pooled = executor;
+		}
+	    }
+	}
+	return executor;
+    }
+
+    private static Executor createVirtualThreadExecutor() {
+	try {
+	    Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+	    ExecutorService executor = (ExecutorService) factory.invoke(null);
+	    logger.info("Expiry callbacks are running on virtual threads.");
+	    return executor;
+	} catch (NoSuchMethodException e) {
+	    logger.info("Virtual threads aren't available, expiry callbacks are running on a thread pool.");
+	} catch (Exception e) {
+	    logger.warn("Virtual threads couldn't be created! (" + e
+		    + ") Expiry callbacks are running on a thread pool instead.", e);
+	}
+	return pooled();
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+	    Thread thread = new Thread(runnable, "countdown-callback-" + count.getAndIncrement());
+	    thread.setDaemon(true);
+	    return thread;
+	}
+    }
+}
@@ -0,0 +1,61 @@
+package at.mukprojects.countdown.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This interface represents the scheduler, which drives the countdowns of a
+ * CountdownTimer. The default implementation is the TimingWheel, any
+ * ScheduledExecutorService can be used with an ExecutorScheduler.
+ * 
+ * Implementations must be thread safe and must not stop running a periodic
+ * task, if one of its executions throws an exception. The executions of a
+ * periodic task must not overlap.
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public interface CountdownScheduler {
+
+    /**
+     * Schedules a task for a single execution after the given delay.
+     * 
+     * @param task
+     *            The task to run.
+     * @param delay
+     *            The delay before the task is executed.
+     * @param unit
+     *            The unit of the delay.
+     * @return The timeout, which can be used to cancel the task.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Schedules a task for repeated execution, beginning after the given
+     * delay. A period of zero schedules a single execution.
+     * 
+     * @param task
+     *            The task to run.
+     * @param delay
+     *            The delay before the task is executed for the first time.
+     * @param period
+     *            The time between two executions.
+     * @param unit
+     *            The unit of the delay and the period.
+     * @return The timeout, which can be used to cancel the task.
+     */
+    Timeout schedule(Runnable task, long delay, long period, TimeUnit unit);
+}
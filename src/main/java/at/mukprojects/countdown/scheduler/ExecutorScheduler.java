@@ -0,0 +1,155 @@
+package at.mukprojects.countdown.scheduler;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class represents a CountdownScheduler, which runs the countdowns on a
+ * ScheduledExecutorService. Exceptions of a task are logged, so they don't
+ * silently cancel a periodic task. Like a timeout of the TimingWheel, a
+ * one-shot task can only be cancelled before it has started.
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class ExecutorScheduler implements CountdownScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutorScheduler.class);
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Constructs a new ExecutorScheduler.
+     * 
+     * @param executor
+     *            The ScheduledExecutorService, which runs the tasks.
+     */
+    public ExecutorScheduler(ScheduledExecutorService executor) {
+	if (executor == null) {
+	    throw new NullPointerException("The executor must not be null.");
+	}
+	this.executor = executor;
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+	return schedule(task, delay, 0, unit);
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delay, long period, TimeUnit unit) {
+	if (task == null) {
+	    throw new NullPointerException("The task must not be null.");
+	}
+
+	GuardedTask guarded = new GuardedTask(task, period > 0);
+	ScheduledFuture<?> future = period > 0 ? executor.scheduleAtFixedRate(guarded, delay, period, unit)
+		: executor.schedule(guarded, delay, unit);
+
+	return new FutureTimeout(future, guarded);
+    }
+
+    /**
+     * Returns the ScheduledExecutorService, which runs the tasks.
+     * 
+     * @return The executor.
+     */
+    public ScheduledExecutorService getExecutor() {
+	return executor;
+    }
+
+    /*
+     * The state decides between a cancel() and the start of a one-shot task.
+     * The future can't do that: it can still be cancelled while the task is
+     * running.
+     */
+    private static final class GuardedTask implements Runnable {
+
+	private static final int STATE_PENDING = 0;
+	private static final int STATE_CANCELLED = 1;
+	private static final int STATE_EXPIRED = 2;
+
+	private static final AtomicIntegerFieldUpdater<GuardedTask> STATE = AtomicIntegerFieldUpdater
+		.newUpdater(GuardedTask.class, "state");
+
+	private final Runnable task;
+	private final boolean periodic;
+	private volatile int state = STATE_PENDING;
+
+	private GuardedTask(Runnable task, boolean periodic) {
+	    this.task = task;
+	    this.periodic = periodic;
+	}
+
+	@Override
+	public void run() {
+	    if (periodic ? state != STATE_PENDING : !STATE.compareAndSet(this, STATE_PENDING, STATE_EXPIRED)) {
+		return;
+	    }
+
+	    try {
+		task.run();
+	    } catch (Throwable t) {
+		logger.error("An Exception occured during the execution of a task! (" + t + ")", t);
+	    }
+	}
+
+	private boolean cancel() {
+	    return STATE.compareAndSet(this, STATE_PENDING, STATE_CANCELLED);
+	}
+
+	private boolean isCancelled() {
+	    return state == STATE_CANCELLED;
+	}
+    }
+
+    private static final class FutureTimeout implements Timeout {
+
+	private final ScheduledFuture<?> future;
+	private final GuardedTask task;
+
+	private FutureTimeout(ScheduledFuture<?> future, GuardedTask task) {
+	    this.future = future;
+	    this.task = task;
+	}
+
+	/**
+	 * Cancels the task. A one-shot task, which has already started, isn't
+	 * cancelled anymore.
+	 * 
+	 * @return True if the task was cancelled by this call.
+	 */
+	@Override
+	public boolean cancel() {
+	    if (task.cancel()) {
+		future.cancel(false);
+		return true;
+	    }
+	    return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+	    return task.isCancelled();
+	}
+    }
+}
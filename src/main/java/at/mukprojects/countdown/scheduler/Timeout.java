@@ -0,0 +1,40 @@
+package at.mukprojects.countdown.scheduler;
+
+/**
+ * This interface represents a task, which has been scheduled on a
+ * CountdownScheduler. It can be used to cancel the task.
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public interface Timeout {
+
+    /**
+     * Cancels the task. A running task will finish its current execution, but
+     * it won't be executed again.
+     * 
+     * @return True if the task was cancelled by this call.
+     */
+    boolean cancel();
+
+    /**
+     * Returns true if the task has been cancelled.
+     * 
+     * @return True if the task has been cancelled.
+     */
+    boolean isCancelled();
+}
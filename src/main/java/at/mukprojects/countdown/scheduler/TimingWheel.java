@@ -0,0 +1,551 @@
+package at.mukprojects.countdown.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class represents a hierarchical timing wheel. It's used to run a large
+ * number of countdowns with a small, fixed number of threads. Scheduling and
+ * cancelling a task are both O(1) operations.
+ * 
+ * Every worker thread owns its own wheel, which consists of ten levels with 64
+ * slots each. A slot on level n covers 64^n ticks, so the wheel can hold
+ * deadlines of up to 2^60 ticks without an overflow list. Tasks are handed over
+ * to the worker through lock free queues and the worker only wakes up, when the
+ * next occupied slot is due or an earlier task has been scheduled.
+ * 
+ * Periodic tasks are coalesced within the timer slack of the wheel: their
+ * first execution is delayed to the next boundary of a grid, whose spacing is
+ * the slack or the period if it's shorter, and all tasks with the same period
+ * run on the same worker. Tasks with compatible periods therefore share their
+ * slots, so the number of wakeups depends on the number of distinct periods
+ * and not on the number of tasks. Single executions aren't delayed.
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class TimingWheel implements CountdownScheduler {
+
+    /**
+     * Default duration of a single tick in milliseconds.
+     */
+    public static final long DEFAULT_TICK_DURATION = 1;
+
+    /**
+     * Default timer slack in milliseconds.
+     */
+    public static final long DEFAULT_SLACK = 10;
+
+    /**
+     * Default number of worker threads.
+     */
+    public static final int DEFAULT_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 10;
+    private static final long MAX_TICK = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    private static volatile TimingWheel defaultWheel;
+
+    private final long tickNanos;
+    private final long slackNanos;
+    private final long startNanos;
+    private final Worker[] workers;
+
+    private volatile boolean stopped;
+
+    /**
+     * Constructs a new TimingWheel with the default tick duration, the default
+     * number of worker threads and the default timer slack.
+     */
+    public TimingWheel() {
+	this(DEFAULT_TICK_DURATION, TimeUnit.MILLISECONDS, DEFAULT_WORKERS);
+    }
+
+    /**
+     * Constructs a new TimingWheel with the default timer slack.
+     * 
+     * @param tickDuration
+     *            The duration of a single tick.
+     * @param unit
+     *            The unit of the tick duration.
+     * @param workers
+     *            The number of worker threads.
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int workers) {
+	this(tickDuration, unit, workers, unit.convert(DEFAULT_SLACK, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Constructs a new TimingWheel.
+     * 
+     * @param tickDuration
+     *            The duration of a single tick.
+     * @param unit
+     *            The unit of the tick duration and the slack.
+     * @param workers
+     *            The number of worker threads.
+     * @param slack
+     *            The time by which the first execution of a periodic task may
+     *            be delayed to share its wakeups with other tasks. A slack of
+     *            zero turns coalescing off.
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int workers, long slack) {
+	if (tickDuration <= 0) {
+	    throw new IllegalArgumentException("The tick duration must be greater than 0.");
+	}
+	if (workers <= 0) {
+	    throw new IllegalArgumentException("The number of workers must be greater than 0.");
+	}
+	if (slack < 0) {
+	    throw new IllegalArgumentException("The slack must not be negative.");
+	}
+
+	this.tickNanos = unit.toNanos(tickDuration);
+	this.slackNanos = unit.toNanos(slack);
+	this.startNanos = System.nanoTime();
+	this.workers = new Worker[workers];
+
+	for (int i = 0; i < workers; i++) {
+	    this.workers[i] = new Worker();
+	    Thread thread = new Thread(this.workers[i], "countdown-wheel-" + i);
+	    thread.setDaemon(true);
+	    this.workers[i].thread = thread;
+	    thread.start();
+	}
+
+	logger.info("Timing wheel started with " + workers + " worker(s), a tick duration of " + tickNanos
+		+ " nanoseconds and a slack of " + slackNanos + " nanoseconds.");
+    }
+
+    /**
+     * Returns the shared TimingWheel, which is used by every CountdownTimer
+     * that wasn't created with its own wheel.
+     * 
+     * @return The shared TimingWheel.
+     */
+    public static TimingWheel getDefault() {
+	TimingWheel wheel = defaultWheel;
+	if (wheel == null) {
+	    synchronized (TimingWheel.class) {
+		wheel = defaultWheel;
+		if (wheel == null) {
+		    wheel = new TimingWheel();
+		    defaultWheel = wheel;
+		}
+	    }
+	}
+	return wheel;
+    }
+
+    /**
+     * Schedules a task for a single execution after the given delay.
+     * 
+     * @param task
+     *            The task to run.
+     * @param delay
+     *            The delay before the task is executed.
+     * @param unit
+     *            The unit of the delay.
+     * @return The timeout, which can be used to cancel the task.
+     */
+    @Override
+    public WheelTimeout schedule(Runnable task, long delay, TimeUnit unit) {
+	return schedule(task, delay, 0, unit);
+    }
+
+    /**
+     * Schedules a task for repeated execution, beginning after the given
+     * delay. The executions follow the period of the first execution, so the
+     * tick duration of the wheel doesn't add up. An execution which is late by
+     * more than a period is followed by the next one as soon as possible, but
+     * missed executions aren't repeated. A period of zero schedules a single
+     * execution. The first execution of a periodic task may be delayed by up
+     * to the slack of the wheel, so it's aligned with other tasks.
+     * 
+     * @param task
+     *            The task to run.
+     * @param delay
+     *            The delay before the task is executed for the first time.
+     * @param period
+     *            The time between two executions.
+     * @param unit
+     *            The unit of the delay and the period.
+     * @return The timeout, which can be used to cancel the task.
+     */
+    @Override
+    public WheelTimeout schedule(Runnable task, long delay, long period, TimeUnit unit) {
+	if (task == null) {
+	    throw new NullPointerException("The task must not be null.");
+	}
+	if (period < 0) {
+	    throw new IllegalArgumentException("The period must not be negative.");
+	}
+	if (stopped) {
+	    throw new IllegalStateException("The timing wheel has been stopped.");
+	}
+
+	long periodNanos = unit.toNanos(period);
+	long deadlineNanos = deadline(System.nanoTime(), unit.toNanos(Math.max(0, delay)));
+
+	Worker worker;
+	if (workers.length == 1) {
+	    worker = workers[0];
+	} else if (isCoalesced(periodNanos)) {
+	    worker = workers[workerOf(periodNanos)];
+	} else {
+	    worker = workers[ThreadLocalRandom.current().nextInt(workers.length)];
+	}
+
+	WheelTimeout timeout = new WheelTimeout(task, worker.cancelled, periodNanos);
+	timeout.deadlineNanos = isCoalesced(periodNanos) ? align(deadlineNanos, periodNanos) : deadlineNanos;
+
+	worker.submit(timeout);
+
+	return timeout;
+    }
+
+    /**
+     * Stops the worker threads. Pending tasks are discarded.
+     */
+    public void stop() {
+	logger.info("Stoping the timing wheel...");
+	stopped = true;
+	for (Worker worker : workers) {
+	    LockSupport.unpark(worker.thread);
+	}
+	logger.info("The timing wheel has been stoped.");
+    }
+
+    /**
+     * Returns the number of worker threads.
+     * 
+     * @return The number of worker threads.
+     */
+    public int getWorkers() {
+	return workers.length;
+    }
+
+    /**
+     * Returns the timer slack of the wheel.
+     * 
+     * @param unit
+     *            The unit of the slack.
+     * @return The slack.
+     */
+    public long getSlack(TimeUnit unit) {
+	return unit.convert(slackNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean isCoalesced(long periodNanos) {
+	return periodNanos > 0 && slackNanos > 0;
+    }
+
+    /*
+     * Tasks with the same period always share a worker, otherwise every
+     * worker would wake up at the same boundaries.
+     */
+    private int workerOf(long periodNanos) {
+	long hash = periodNanos * 0x9E3779B97F4A7C15L;
+	return (int) ((hash >>> 32) % workers.length);
+    }
+
+    /*
+     * Delays a deadline to the next boundary of the grid of the given period.
+     * The grid starts with the wheel, so the boundaries of all tasks with the
+     * same period coincide.
+     */
+    private long align(long deadlineNanos, long periodNanos) {
+	long grid = Math.min(slackNanos, periodNanos);
+	long elapsed = deadlineNanos - startNanos;
+	if (elapsed <= 0) {
+	    return deadlineNanos;
+	}
+	long rest = elapsed % grid;
+	return rest == 0 ? deadlineNanos : deadline(deadlineNanos, grid - rest);
+    }
+
+    private static long deadline(long now, long delayNanos) {
+	long deadline = now + delayNanos;
+	return deadline < now ? Long.MAX_VALUE : deadline;
+    }
+
+    private long tickOf(long nanos) {
+	long elapsed = nanos - startNanos;
+	return elapsed <= 0 ? 0 : Math.min(elapsed / tickNanos, MAX_TICK);
+    }
+
+    private long deadlineTickOf(long nanos) {
+	long elapsed = nanos - startNanos;
+	if (elapsed <= 0) {
+	    return 0;
+	}
+	long tick = elapsed / tickNanos + (elapsed % tickNanos == 0 ? 0 : 1);
+	return Math.min(tick, MAX_TICK);
+    }
+
+    /**
+     * A worker owns one wheel and the thread which drives it. Only the worker
+     * thread touches the slots, all other threads communicate with it through
+     * the pending and cancelled queues.
+     */
+    private final class Worker implements Runnable {
+
+	private final Queue<WheelTimeout> pending = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final ArrayDeque<WheelTimeout> due = new ArrayDeque<WheelTimeout>();
+
+	private final WheelTimeout[][] slots = new WheelTimeout[LEVELS][WHEEL_SIZE];
+	private final long[] occupied = new long[LEVELS];
+
+	private long currentTick;
+
+	/*
+	 * The tick the worker is going to wake up at. While the worker is
+	 * awake it's set to Long.MIN_VALUE, so producers don't unpark it.
+	 */
+	private volatile long wakeupTick = Long.MIN_VALUE;
+
+	private Thread thread;
+
+	private void submit(WheelTimeout timeout) {
+	    pending.add(timeout);
+	    if (deadlineTickOf(timeout.deadlineNanos) < wakeupTick) {
+		LockSupport.unpark(thread);
+	    }
+	}
+
+	@Override
+	public void run() {
+	    while (!stopped) {
+		long nowTick = tickOf(System.nanoTime());
+
+		removeCancelled();
+		transferPending();
+		advance(nowTick);
+
+		long nextTick = nextEventTick();
+		wakeupTick = nextTick;
+
+		if (!pending.isEmpty() || stopped) {
+		    wakeupTick = Long.MIN_VALUE;
+		    continue;
+		}
+
+		if (nextTick == Long.MAX_VALUE) {
+		    LockSupport.park(this);
+		} else {
+		    long waitTicks = nextTick - tickOf(System.nanoTime());
+		    long waitNanos = waitTicks > Long.MAX_VALUE / tickNanos ? Long.MAX_VALUE : waitTicks * tickNanos;
+		    if (waitNanos > 0) {
+			LockSupport.parkNanos(this, waitNanos);
+		    }
+		}
+
+		wakeupTick = Long.MIN_VALUE;
+	    }
+	}
+
+	private void removeCancelled() {
+	    WheelTimeout timeout;
+	    while ((timeout = cancelled.poll()) != null) {
+		if (timeout.level >= 0) {
+		    unlink(timeout);
+		}
+	    }
+	}
+
+	private void transferPending() {
+	    WheelTimeout timeout;
+	    while ((timeout = pending.poll()) != null) {
+		if (!timeout.isCancelled()) {
+		    timeout.deadlineTick = deadlineTickOf(timeout.deadlineNanos);
+		    insert(timeout);
+		}
+	    }
+	}
+
+	private void advance(long nowTick) {
+	    runDue();
+
+	    long nextTick;
+	    while ((nextTick = nextEventTick()) <= nowTick) {
+		currentTick = nextTick;
+
+		/*
+		 * Cascade the higher levels first, their timeouts may end up in
+		 * the current level 0 slot.
+		 */
+		for (int level = LEVELS - 1; level > 0; level--) {
+		    int shift = WHEEL_BITS * level;
+		    if ((nextTick & ((1L << shift) - 1)) == 0) {
+			cascade(level, (int) (nextTick >>> shift) & WHEEL_MASK);
+		    }
+		}
+
+		expire((int) nextTick & WHEEL_MASK);
+		runDue();
+	    }
+
+	    if (nowTick > currentTick) {
+		currentTick = nowTick;
+	    }
+	}
+
+	private long nextEventTick() {
+	    /*
+	     * Timeouts on a lower level are always due before the timeouts on a
+	     * higher level, so the first occupied level decides.
+	     */
+	    for (int level = 0; level < LEVELS; level++) {
+		long bits = occupied[level];
+		if (bits == 0) {
+		    continue;
+		}
+
+		int shift = WHEEL_BITS * level;
+		int digit = (int) (currentTick >>> shift) & WHEEL_MASK;
+		long ahead = digit == WHEEL_MASK ? 0 : bits & (-1L << (digit + 1));
+		if (ahead == 0) {
+		    continue;
+		}
+
+		long base = (currentTick >>> (shift + WHEEL_BITS)) << (shift + WHEEL_BITS);
+		return base | ((long) Long.numberOfTrailingZeros(ahead) << shift);
+	    }
+	    return Long.MAX_VALUE;
+	}
+
+	private void insert(WheelTimeout timeout) {
+	    long tick = timeout.deadlineTick;
+	    if (tick <= currentTick) {
+		due.add(timeout);
+		return;
+	    }
+
+	    int level = (63 - Long.numberOfLeadingZeros(tick ^ currentTick)) / WHEEL_BITS;
+	    int slot = (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+
+	    WheelTimeout head = slots[level][slot];
+	    timeout.level = level;
+	    timeout.slot = slot;
+	    timeout.prev = null;
+	    timeout.next = head;
+	    if (head != null) {
+		head.prev = timeout;
+	    }
+	    slots[level][slot] = timeout;
+	    occupied[level] |= 1L << slot;
+	}
+
+	private void unlink(WheelTimeout timeout) {
+	    int level = timeout.level;
+	    int slot = timeout.slot;
+
+	    if (timeout.prev != null) {
+		timeout.prev.next = timeout.next;
+	    } else {
+		slots[level][slot] = timeout.next;
+	    }
+	    if (timeout.next != null) {
+		timeout.next.prev = timeout.prev;
+	    }
+	    if (slots[level][slot] == null) {
+		occupied[level] &= ~(1L << slot);
+	    }
+
+	    timeout.level = -1;
+	    timeout.prev = null;
+	    timeout.next = null;
+	}
+
+	private WheelTimeout detach(int level, int slot) {
+	    WheelTimeout head = slots[level][slot];
+	    slots[level][slot] = null;
+	    occupied[level] &= ~(1L << slot);
+	    return head;
+	}
+
+	private void cascade(int level, int slot) {
+	    WheelTimeout timeout = detach(level, slot);
+	    while (timeout != null) {
+		WheelTimeout next = timeout.next;
+		timeout.level = -1;
+		timeout.prev = null;
+		timeout.next = null;
+		if (!timeout.isCancelled()) {
+		    insert(timeout);
+		}
+		timeout = next;
+	    }
+	}
+
+	private void expire(int slot) {
+	    WheelTimeout timeout = detach(0, slot);
+	    while (timeout != null) {
+		WheelTimeout next = timeout.next;
+		timeout.level = -1;
+		timeout.prev = null;
+		timeout.next = null;
+		due.add(timeout);
+		timeout = next;
+	    }
+	}
+
+	private void runDue() {
+	    WheelTimeout timeout;
+	    while ((timeout = due.poll()) != null) {
+		if (!timeout.trigger()) {
+		    continue;
+		}
+
+		try {
+		    timeout.task.run();
+		} catch (Throwable t) {
+		    logger.error("An Exception occured during the execution of a task! (" + t + ")", t);
+		}
+
+		if (timeout.period > 0 && !timeout.isCancelled()) {
+		    long next = deadline(timeout.deadlineNanos, timeout.period);
+		    long now = System.nanoTime();
+
+		    /*
+		     * A late task is aligned again, so it doesn't lose its
+		     * slot for good.
+		     */
+		    if (next < now) {
+			next = isCoalesced(timeout.period) ? align(now, timeout.period) : now;
+		    }
+		    timeout.deadlineNanos = next;
+		    timeout.deadlineTick = Math.max(deadlineTickOf(timeout.deadlineNanos), currentTick + 1);
+		    insert(timeout);
+		}
+	    }
+	}
+    }
+}
@@ -0,0 +1,111 @@
+package at.mukprojects.countdown.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * This class represents a task, which has been scheduled on a TimingWheel. It
+ * can be used to cancel the task.
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class WheelTimeout implements Timeout {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE = AtomicIntegerFieldUpdater
+	    .newUpdater(WheelTimeout.class, "state");
+
+    final Runnable task;
+    final long period;
+
+    /*
+     * The following fields are owned by the worker thread of the wheel.
+     */
+    long deadlineNanos;
+    long deadlineTick;
+    int level = -1;
+    int slot;
+    WheelTimeout prev;
+    WheelTimeout next;
+
+    private final Queue<WheelTimeout> cancelled;
+    private volatile int state = STATE_PENDING;
+
+    WheelTimeout(Runnable task, Queue<WheelTimeout> cancelled, long period) {
+	this.task = task;
+	this.cancelled = cancelled;
+	this.period = period;
+    }
+
+    /**
+     * Cancels the task. A running task will finish its current execution, but
+     * it won't be executed again.
+     * 
+     * @return True if the task was cancelled by this call.
+     */
+    @Override
+    public boolean cancel() {
+	if (STATE.compareAndSet(this, STATE_PENDING, STATE_CANCELLED)) {
+	    cancelled.add(this);
+	    return true;
+	}
+	return false;
+    }
+
+    /**
+     * Returns true if the task has been cancelled.
+     * 
+     * @return True if the task has been cancelled.
+     */
+    @Override
+    public boolean isCancelled() {
+	return state == STATE_CANCELLED;
+    }
+
+    /**
+     * Returns true if a single execution task has been executed.
+     * 
+     * @return True if the task has been executed.
+     */
+    public boolean isExpired() {
+	return state == STATE_EXPIRED;
+    }
+
+    /**
+     * Returns the scheduled task.
+     * 
+     * @return The task.
+     */
+    public Runnable getTask() {
+	return task;
+    }
+
+    /*
+     * Marks the timeout as expired. Periodic timeouts stay pending until they
+     * are cancelled.
+     */
+    boolean trigger() {
+	if (period > 0) {
+	    return state == STATE_PENDING;
+	}
+	return STATE.compareAndSet(this, STATE_PENDING, STATE_EXPIRED);
+    }
+}
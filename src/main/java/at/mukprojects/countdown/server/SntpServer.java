@@ -0,0 +1,348 @@
+package at.mukprojects.countdown.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.client.NtpPacket;
+
+/**
+ * This class represents an SNTP server, which answers client requests (mode 3)
+ * with server replies (mode 4) according to RFC 2030. It can be used to serve
+ * the time to local clients or to test the SntpClient without network access.
+ * 
+ * The server runs on a single daemon thread. Every wakeup drains up to a batch
+ * of requests from the non-blocking DatagramChannel into preallocated slots of
+ * a direct buffer, turns each of them into its reply in place and sends the
+ * replies in one pass. If the socket buffer is full, the remaining replies are
+ * sent as soon as the channel is writable again, before any new request is
+ * read.
+ * 
+ * 
+ * This code is copyright (c) Mathias Markl 2015
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Mathias Markl
+ */
+public class SntpServer {
+
+    /**
+     * Maximum number of requests, which are handled per wakeup.
+     */
+    private static final int BATCH = 64;
+
+    /**
+     * Size of a slot. Longer packets are truncated, the server ignores the
+     * optional authentication anyway.
+     */
+    private static final int SLOT_SIZE = 128;
+
+    /**
+     * Requested size of the socket receive buffer, so bursts of requests
+     * aren't dropped by the kernel. The system may grant less.
+     */
+    private static final int RECEIVE_BUFFER = 1 << 20;
+
+    /**
+     * Precision of the local clock, which has a resolution of about a
+     * microsecond.
+     */
+    private static final int PRECISION = -20;
+
+    /**
+     * Reference identifier "LOCL" of an uncalibrated local clock.
+     */
+    private static final int LOCAL_CLOCK = 0x4C4F434C;
+
+    private static final Logger logger = LoggerFactory.getLogger(SntpServer.class);
+
+    private final InetSocketAddress address;
+    private final int stratum;
+    private final long offset;
+
+    private final ByteBuffer[] slots = new ByteBuffer[BATCH];
+    private final SocketAddress[] clients = new SocketAddress[BATCH];
+    private final long[] received = new long[BATCH];
+    private final NtpPacket packet = new NtpPacket();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private long referenceTimestamp;
+    private int count;
+    private int sent;
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+    private Thread thread;
+
+    /**
+     * Constructs a new SntpServer, which serves the local time as stratum 1
+     * server.
+     * 
+     * @param address
+     *            The address on which the server listens.
+     */
+    public SntpServer(InetSocketAddress address) {
+	this(address, 1, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs a new SntpServer, which serves the local time shifted by the
+     * given offset.
+     * 
+     * @param address
+     *            The address on which the server listens.
+     * @param stratum
+     *            The stratum of the server between 1 and 15.
+     * @param offset
+     *            The amount of time the server is ahead of the local clock.
+     * @param unit
+     *            The unit of the offset.
+     */
+    public SntpServer(InetSocketAddress address, int stratum, long offset, TimeUnit unit) {
+	if (address == null) {
+	    throw new NullPointerException("The address must not be null.");
+	}
+	if (stratum < 1 || stratum > 15) {
+	    throw new IllegalArgumentException("The stratum must be between 1 and 15.");
+	}
+	this.address = address;
+	this.stratum = stratum;
+	this.offset = NtpPacket.fromDuration(offset, unit);
+
+	ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH * SLOT_SIZE);
+	for (int i = 0; i < BATCH; i++) {
+	    buffer.limit((i + 1) * SLOT_SIZE).position(i * SLOT_SIZE);
+	    slots[i] = buffer.slice();
+	}
+    }
+
+    /**
+     * Binds the server and starts to answer requests.
+     * 
+     * @return This server.
+     * @throws IOException
+     *             If the channel couldn't be bound.
+     */
+    public synchronized SntpServer start() throws IOException {
+	if (thread != null) {
+	    throw new IllegalStateException("The server has already been started.");
+	}
+
+	channel = DatagramChannel.open();
+	try {
+	    channel.configureBlocking(false);
+	    channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER);
+	    channel.bind(address);
+	    selector = Selector.open();
+	    key = channel.register(selector, SelectionKey.OP_READ);
+	} catch (IOException e) {
+	    channel.close();
+	    throw e;
+	}
+
+	referenceTimestamp = now();
+
+	thread = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		loop();
+	    }
+	}, "sntp-server");
+	thread.setDaemon(true);
+	thread.start();
+
+	logger.info("The SNTP server is listening on " + getLocalAddress() + ".");
+
+	return this;
+    }
+
+    /**
+     * Stops the server and closes its channel.
+     */
+    public synchronized void stop() {
+	if (thread == null) {
+	    return;
+	}
+	try {
+	    selector.close();
+	    channel.close();
+	} catch (IOException e) {
+	    logger.warn("The channel couldn't be closed! (" + e + ")");
+	}
+	try {
+	    thread.join(1000);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	logger.info("The SNTP server has been stopped.");
+    }
+
+    /**
+     * Returns the address on which the server listens.
+     * 
+     * @return The local address or null if the server isn't running.
+     */
+    public InetSocketAddress getLocalAddress() {
+	try {
+	    return channel == null ? null : (InetSocketAddress) channel.getLocalAddress();
+	} catch (IOException e) {
+	    return null;
+	}
+    }
+
+    /**
+     * Returns the port on which the server listens.
+     * 
+     * @return The local port.
+     */
+    public int getPort() {
+	InetSocketAddress local = getLocalAddress();
+	return local == null ? address.getPort() : local.getPort();
+    }
+
+    /**
+     * Returns the number of answered requests.
+     * 
+     * @return The number of requests.
+     */
+    public long getRequests() {
+	return requests.get();
+    }
+
+    /**
+     * Returns the number of dropped packets, which weren't valid client
+     * requests.
+     * 
+     * @return The number of dropped packets.
+     */
+    public long getDropped() {
+	return dropped.get();
+    }
+
+    private void loop() {
+	for (;;) {
+	    try {
+		selector.select();
+		selector.selectedKeys().clear();
+
+		if (sent < count) {
+		    flush();
+		}
+		while (sent == count && receive() > 0) {
+		    flush();
+		}
+	    } catch (ClosedSelectorException e) {
+		return;
+	    } catch (IOException e) {
+		if (!channel.isOpen()) {
+		    return;
+		}
+		logger.error("An Exception occured in the SNTP server loop! (" + e + ")", e);
+	    }
+	}
+    }
+
+    /*
+     * Drains up to a batch of requests and turns them into replies.
+     */
+    private int receive() throws IOException {
+	count = 0;
+	sent = 0;
+
+	while (count < BATCH) {
+	    ByteBuffer slot = slots[count];
+	    slot.clear();
+
+	    SocketAddress client = channel.receive(slot);
+	    if (client == null) {
+		break;
+	    }
+	    long receiveTimestamp = now();
+
+	    if (slot.position() < NtpPacket.SIZE) {
+		dropped.incrementAndGet();
+		continue;
+	    }
+
+	    packet.wrap(slot, 0);
+	    int version = packet.getVersion();
+	    if (packet.getMode() != 3 || version < 1 || version > 4) {
+		dropped.incrementAndGet();
+		continue;
+	    }
+
+	    clients[count] = client;
+	    received[count] = receiveTimestamp;
+	    count++;
+	}
+
+	for (int i = 0; i < count; i++) {
+	    reply(slots[i], received[i]);
+	}
+	return count;
+    }
+
+    /*
+     * Sends the pending replies. The transmit timestamp is set right before
+     * a reply is sent.
+     */
+    private void flush() throws IOException {
+	while (sent < count) {
+	    ByteBuffer slot = slots[sent];
+	    packet.wrap(slot, 0).setTransmitTimestamp(now());
+	    slot.limit(NtpPacket.SIZE).position(0);
+
+	    if (channel.send(slot, clients[sent]) == 0) {
+		key.interestOps(SelectionKey.OP_WRITE);
+		return;
+	    }
+	    clients[sent] = null;
+	    sent++;
+	    requests.incrementAndGet();
+	}
+	key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void reply(ByteBuffer slot, long receiveTimestamp) {
+	packet.wrap(slot, 0);
+
+	int version = packet.getVersion();
+	int poll = packet.getPollInterval();
+	long originateTimestamp = packet.getTransmitTimestamp();
+
+	packet.clear();
+	packet.setVersion(version).setMode(4).setStratum(stratum).setPollInterval(poll).setPrecision(PRECISION);
+	packet.setReferenceIdentifier(LOCAL_CLOCK).setReferenceTimestamp(referenceTimestamp);
+	packet.setOriginateTimestamp(originateTimestamp).setReceiveTimestamp(receiveTimestamp);
+    }
+
+    private long now() {
+	return NtpPacket.now() + offset;
+    }
+}
@@ -0,0 +1,258 @@
+package at.mukprojects.countdown;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.client.ClockOffsetService;
+import at.mukprojects.countdown.client.SntpClient;
+import at.mukprojects.countdown.client.TimeSample;
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+import at.mukprojects.countdown.scheduler.Timeout;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+import at.mukprojects.countdown.server.SntpServer;
+
+public class ClockSyncTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClockSyncTest.class);
+
+    private static final long OFFSET = 200;
+
+    private SntpServer server;
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() throws IOException {
+	server = new SntpServer(new InetSocketAddress("127.0.0.1", 0), 1, OFFSET, TimeUnit.MILLISECONDS).start();
+	wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 1);
+    }
+
+    @Test
+    public void testSlew() throws Exception {
+	logger.info("Test (testSlew) is starting...");
+
+	SntpClient client = new SntpClient(new String[] { "127.0.0.1" }, server.getPort(), 5000);
+
+	/*
+	 * A slew rate of 100 milliseconds per second corrects the offset of
+	 * the server in two passes.
+	 */
+	ClockOffsetService service = new ClockOffsetService(client, wheel, 1, TimeUnit.MINUTES);
+	ClockSync sync = new ClockSync(service, wheel, 0, 2, 100000);
+
+	long before = System.nanoTime();
+	CountdownTime tickFree = new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true);
+	CountdownTime ticking = new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME);
+	CountdownTime stopped = new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true);
+	sync.track(tickFree, 0);
+	sync.track(ticking, 0);
+	sync.track(stopped, 0);
+	stopped.stop();
+	assertEquals(2, sync.getTracked());
+
+	/*
+	 * The expiry of a scheduled countdown moves with the correction.
+	 */
+	final AtomicLong expiredAt = new AtomicLong();
+	CountdownTime expiring = new CountdownTime(5000, CountdownTime.MODE_ATOMIC_TIME, true);
+	expiring.onExpire(new Runnable() {
+	    @Override
+	    public void run() {
+		expiredAt.set(System.nanoTime());
+	    }
+	});
+	new CountdownTask(expiring, 0, true).schedule(wheel, CallbackExecutors.direct());
+	sync.track(expiring, 0);
+
+	long last = 0;
+	long largestStep = 0;
+	while (System.nanoTime() - before < TimeUnit.SECONDS.toNanos(6)) {
+	    Thread.sleep(50);
+	    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	    long correction = 60000 - elapsed - tickFree.get();
+	    largestStep = Math.max(largestStep, correction - last);
+	    last = correction;
+	}
+
+	long expiry = TimeUnit.NANOSECONDS.toMillis(expiredAt.get() - before);
+
+	logger.debug("Correction: " + last + ", Largest step: " + largestStep + ", Ticking: " + (60000 - ticking.get())
+		+ ", Expiry: " + expiry + ", Poll: " + sync.getPoll());
+
+	assertTrue(Math.abs(last - OFFSET) <= 20);
+	assertTrue(largestStep <= 120);
+	assertEquals(OFFSET, 60000 - ticking.get(), 20);
+	assertEquals(5000 - OFFSET, expiry, 60);
+	assertTrue(Math.abs(TimeUnit.NANOSECONDS.toMillis(sync.getOffset()) - OFFSET) <= 20);
+	assertTrue(sync.getPoll() > 0);
+	assertEquals(2, sync.getTracked());
+
+	logger.info("Test (testSlew) has finished.");
+    }
+
+    @Test
+    public void testSharedOffset() throws Exception {
+	logger.info("Test (testSharedOffset) is starting...");
+
+	SntpClient client = new SntpClient(new String[] { "127.0.0.1" }, server.getPort(), 5000);
+	ClockOffsetService service = new ClockOffsetService(client, wheel, 1, TimeUnit.MINUTES);
+	ClockSync sync = new ClockSync(service, wheel, 6, 10, 500);
+	sync.track(new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true), 0);
+
+	/*
+	 * A sample, which has been requested by someone else, is taken over
+	 * without a poll of its own.
+	 */
+	TimeSample sample = service.getSample();
+
+	assertEquals(sample.getOffset(), sync.getOffset());
+
+	/*
+	 * A restored countdown is based on the current offset.
+	 */
+	CountdownTime restored = new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true);
+	sync.track(restored);
+	assertEquals(2, sync.getTracked());
+	Thread.sleep(1500);
+	assertEquals(58500, restored.get(), 100);
+	assertEquals(SntpClient.DEFAULT_BURST, server.getRequests());
+
+	logger.info("Test (testSharedOffset) has finished.");
+    }
+
+    @Test
+    public void testUntrack() throws Exception {
+	logger.info("Test (testUntrack) is starting...");
+
+	SntpClient client = new SntpClient(new String[] { "127.0.0.1" }, server.getPort(), 5000);
+	ClockOffsetService service = new ClockOffsetService(client, wheel, 1, TimeUnit.MINUTES);
+	ClockSync sync = new ClockSync(service, new ManualScheduler(), 0, 2, 500);
+
+	CountdownTime expired = new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true);
+	CountdownTime stopped = new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true);
+	sync.track(expired, 0);
+	sync.track(stopped, 0);
+	assertEquals(2, sync.getTracked());
+
+	/*
+	 * The countdowns are dropped right away, not by the next pass.
+	 */
+	assertTrue(expired.expire(CallbackExecutors.direct()));
+	assertEquals(1, sync.getTracked());
+	stopped.stop();
+	assertEquals(0, sync.getTracked());
+
+	sync.track(stopped, 0);
+	assertEquals(0, sync.getTracked());
+
+	logger.info("Test (testUntrack) has finished.");
+    }
+
+    @Test
+    public void testTrackDuringSlew() throws Exception {
+	logger.info("Test (testTrackDuringSlew) is starting...");
+
+	SntpClient client = new SntpClient(new String[] { "127.0.0.1" }, server.getPort(), 5000);
+	ManualScheduler scheduler = new ManualScheduler();
+
+	/*
+	 * A slew rate of 200 milliseconds per second corrects the offset in a
+	 * single pass.
+	 */
+	ClockOffsetService service = new ClockOffsetService(client, wheel, 1, TimeUnit.MINUTES);
+	final ClockSync sync = new ClockSync(service, scheduler, 0, 2, 200000);
+	final long offset = TimeUnit.MILLISECONDS.toNanos(OFFSET);
+
+	/*
+	 * The countdown is tracked again with another offset, while the pass
+	 * is visiting it, so the pass still sees its old offset.
+	 */
+	final AtomicBoolean armed = new AtomicBoolean();
+	CountdownTime late = new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true) {
+	    @Override
+	    boolean isDone() {
+		if (armed.compareAndSet(true, false)) {
+		    sync.track(this, offset);
+		}
+		return super.isDone();
+	    }
+	};
+	sync.track(new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true), 0);
+	sync.track(late, 0);
+	sync.track(new CountdownTime(60000, CountdownTime.MODE_ATOMIC_TIME, true), offset);
+	armed.set(true);
+
+	long before = late.get();
+	int passes = 0;
+	while (scheduler.runSlew()) {
+	    assertTrue(++passes < 10);
+	}
+
+	logger.debug("Passes: " + passes + ", Correction: " + (before - late.get()));
+
+	assertEquals(2, passes);
+	assertEquals(-OFFSET, before - late.get(), 5);
+
+	logger.info("Test (testTrackDuringSlew) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	server.stop();
+	wheel.stop();
+    }
+
+    /*
+     * Runs the slew passes on demand and never runs a poll.
+     */
+    private static final class ManualScheduler implements CountdownScheduler {
+
+	private Runnable slew;
+	private boolean cancelled;
+
+	@Override
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+	    return new ManualTimeout();
+	}
+
+	@Override
+	public Timeout schedule(Runnable task, long delay, long period, TimeUnit unit) {
+	    slew = task;
+	    cancelled = false;
+	    return new ManualTimeout();
+	}
+
+	private boolean runSlew() {
+	    if (slew == null || cancelled) {
+		return false;
+	    }
+	    slew.run();
+	    return true;
+	}
+
+	private final class ManualTimeout implements Timeout {
+
+	    @Override
+	    public boolean cancel() {
+		cancelled = true;
+		return true;
+	    }
+
+	    @Override
+	    public boolean isCancelled() {
+		return cancelled;
+	    }
+	}
+    }
+}
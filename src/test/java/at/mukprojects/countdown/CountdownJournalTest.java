@@ -0,0 +1,391 @@
+package at.mukprojects.countdown;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+import at.mukprojects.countdown.scheduler.Timeout;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
+public class CountdownJournalTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CountdownJournalTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() {
+	path = new File(folder.getRoot(), "countdowns.journal").toPath();
+	wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 1);
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+	logger.info("Test (testRestore) is starting...");
+
+	CountdownJournal journal = new CountdownJournal(path);
+	CountdownTimer[] timers = new CountdownTimer[5];
+	for (int i = 0; i < timers.length; i++) {
+	    timers[i] = new CountdownTimer(wheel);
+	    timers[i].checkpoint(journal, i + 1);
+	}
+
+	timers[0].start(5000);
+	timers[1].start(5000, 10);
+	timers[2].start(5000).pause();
+	timers[3].start(300);
+	timers[4].start(5000);
+	timers[4].stop();
+
+	assertTrue(timers[0].getCountdown().extend(1000));
+	long paused = timers[2].getCountdown().get();
+
+	/*
+	 * The process goes down.
+	 */
+	journal.close();
+	for (CountdownTimer timer : timers) {
+	    timer.stop();
+	}
+	Thread.sleep(400);
+
+	journal = new CountdownJournal(path);
+	Listener listener = new Listener();
+	assertEquals(3, journal.restore(wheel, CallbackExecutors.getDefault(), listener));
+
+	logger.debug("Restored: " + listener.timers.keySet() + ", Expired: " + Arrays.toString(listener.expired));
+
+	assertArrayEquals(new long[] { 4 }, listener.expired);
+
+	CountdownTime restored = listener.timers.get(1L).getCountdown();
+	assertTrue(restored.isTickFree());
+	assertTrue(5400 < restored.get() && restored.get() <= 5600);
+
+	CountdownTime ticking = listener.timers.get(2L).getCountdown();
+	assertFalse(ticking.isTickFree());
+	assertEquals(10, ticking.getDelay());
+	assertTrue(4400 < ticking.get() && ticking.get() <= 4600);
+
+	CountdownTime resumed = listener.timers.get(3L).getCountdown();
+	assertTrue(resumed.isPaused());
+	assertEquals(paused, resumed.get());
+	assertTrue(resumed.resume());
+	assertTrue(resumed.get() <= paused);
+
+	try {
+	    journal.restore(wheel, CallbackExecutors.getDefault(), listener);
+	    fail("The journal should only be restored once.");
+	} catch (IllegalStateException e) {
+	    logger.debug("The journal can't be restored twice.");
+	}
+
+	/*
+	 * The restored countdowns are still checkpointed.
+	 */
+	listener.timers.get(1L).stop();
+	journal.close();
+
+	journal = new CountdownJournal(path);
+	listener = new Listener();
+	assertEquals(2, journal.restore(wheel, CallbackExecutors.getDefault(), listener));
+	assertNull(listener.expired);
+	assertFalse(listener.timers.get(3L).getCountdown().isPaused());
+	journal.close();
+
+	logger.info("Test (testRestore) has finished.");
+    }
+
+    @Test
+    public void testRestoreAdaptive() throws Exception {
+	logger.info("Test (testRestoreAdaptive) is starting...");
+
+	final long time = TimeUnit.DAYS.toMillis(30);
+
+	CountdownJournal journal = new CountdownJournal(path);
+	CountdownTimer timer = new CountdownTimer(wheel);
+	timer.checkpoint(journal, 1);
+	timer.start(time, 10, 0.01);
+
+	journal.close();
+	timer.stop();
+
+	journal = new CountdownJournal(path);
+	Listener listener = new Listener();
+	RecordingScheduler scheduler = new RecordingScheduler(wheel);
+	assertEquals(1, journal.restore(scheduler, CallbackExecutors.getDefault(), listener));
+
+	CountdownTime restored = listener.timers.get(1L).getCountdown();
+	assertEquals(10, restored.getDelay());
+	assertEquals(0.01, restored.getAccuracy(), 1e-6);
+
+	/*
+	 * The next tick is a hundredth of the remaining time away, not the
+	 * shortest delay.
+	 */
+	logger.debug("Tick interval: " + scheduler.delay + " milliseconds");
+	assertTrue(scheduler.delay > TimeUnit.HOURS.toMillis(7));
+	listener.timers.get(1L).stop();
+	journal.close();
+
+	logger.info("Test (testRestoreAdaptive) has finished.");
+    }
+
+    @Test
+    public void testConcurrentCheckpoints() throws Exception {
+	logger.info("Test (testConcurrentCheckpoints) is starting...");
+
+	CountdownJournal journal = new CountdownJournal(path);
+	CountdownTimer timer = new CountdownTimer(wheel);
+	timer.checkpoint(journal, 1);
+	final CountdownTime countdown = timer.start(60000);
+
+	/*
+	 * The countdown isn't locked while it's checkpointed, the last record
+	 * must still hold its latest state.
+	 */
+	Thread[] threads = new Thread[4];
+	for (int i = 0; i < threads.length; i++) {
+	    final boolean pausing = i % 2 == 0;
+	    threads[i] = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    for (int j = 0; j < 5000; j++) {
+			if (pausing) {
+			    countdown.pause();
+			} else {
+			    countdown.resume();
+			}
+			countdown.extend(1);
+		    }
+		}
+	    });
+	}
+	for (Thread thread : threads) {
+	    thread.start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+
+	boolean paused = countdown.isPaused();
+	long remaining = countdown.get();
+	journal.close();
+	timer.stop();
+
+	journal = new CountdownJournal(path);
+	Listener listener = new Listener();
+	assertEquals(1, journal.restore(wheel, CallbackExecutors.getDefault(), listener));
+
+	CountdownTime restored = listener.timers.get(1L).getCountdown();
+	logger.debug("Paused: " + paused + ", Remaining: " + remaining + ", Restored: " + restored.isPaused() + ", "
+		+ restored.get());
+
+	assertEquals(paused, restored.isPaused());
+	assertTrue(Math.abs(remaining - restored.get()) < 100);
+	journal.close();
+
+	logger.info("Test (testConcurrentCheckpoints) has finished.");
+    }
+
+    @Test
+    public void testRestoreMany() throws Exception {
+	logger.info("Test (testRestoreMany) is starting...");
+
+	final int count = 1000000;
+
+	CountdownJournal journal = new CountdownJournal(path);
+	for (int i = 0; i < count; i++) {
+	    CountdownTime countdown = new CountdownTime(i % 2 == 0 ? 60000 : 1, CountdownTime.MODE_TIMER, true);
+	    countdown.track(journal, i);
+	    countdown.checkpoint();
+	    if (i % 2 == 0) {
+		countdown.extend(1000);
+	    }
+	}
+	journal.close();
+	Thread.sleep(10);
+
+	long before = System.nanoTime();
+	journal = new CountdownJournal(path);
+	Listener listener = new Listener();
+	int restored = journal.restore(wheel, CallbackExecutors.getDefault(), listener);
+	long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+
+	logger.debug("Restored: " + restored + ", Expired: " + listener.expired.length + ", Difference: " + diff);
+
+	assertEquals(count / 2, restored);
+	assertEquals(count / 2, listener.expired.length);
+	assertTrue(diff < 5000);
+	journal.close();
+
+	logger.info("Test (testRestoreMany) has finished.");
+    }
+
+    @Test
+    public void testRestoreRegistry() throws Exception {
+	logger.info("Test (testRestoreRegistry) is starting...");
+
+	RegistryListener listener = new RegistryListener();
+	CountdownRegistry registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), listener, 16);
+	registry.start(1, 5000);
+	registry.start(2, 5000);
+
+	CountdownJournal journal = new CountdownJournal(path);
+	registry.checkpoint(journal);
+
+	registry.pause(2);
+	registry.start(3, 300, CountdownTime.MODE_SYSTEM_TIME);
+	registry.start(4, 5000);
+	registry.stop(4);
+	assertTrue(registry.extend(1, 1000));
+	long paused = registry.get(2);
+
+	/*
+	 * The process goes down.
+	 */
+	journal.close();
+	registry.stop();
+	Thread.sleep(400);
+
+	journal = new CountdownJournal(path);
+	listener = new RegistryListener();
+	registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), listener, 16);
+	assertEquals(2, journal.restore(registry));
+
+	assertArrayEquals(new long[] { 3 }, listener.expired);
+	assertEquals(2, registry.size());
+	assertTrue(5400 < registry.get(1) && registry.get(1) <= 5600);
+	assertTrue(registry.isPaused(2));
+	assertEquals(paused, registry.get(2));
+	assertFalse(registry.contains(4));
+
+	/*
+	 * The restored countdowns are still checkpointed.
+	 */
+	registry.stop(1);
+	registry.resume(2);
+	journal.close();
+	registry.stop();
+
+	journal = new CountdownJournal(path);
+	listener = new RegistryListener();
+	registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), listener, 16);
+	assertEquals(1, journal.restore(registry));
+	assertNull(listener.expired);
+	assertFalse(registry.isPaused(2));
+	assertTrue(registry.get(2) <= paused);
+	journal.close();
+	registry.stop();
+
+	logger.info("Test (testRestoreRegistry) has finished.");
+    }
+
+    @Test
+    public void testRestoreRegistryMany() throws Exception {
+	logger.info("Test (testRestoreRegistryMany) is starting...");
+
+	final int count = 2000000;
+
+	RegistryListener listener = new RegistryListener();
+	CountdownRegistry registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), listener, count);
+	for (int i = 0; i < count; i++) {
+	    registry.start(i, 60000 + i % 1000);
+	}
+	CountdownJournal journal = new CountdownJournal(path);
+	registry.checkpoint(journal);
+	journal.close();
+	registry.stop();
+
+	long before = System.nanoTime();
+	journal = new CountdownJournal(path);
+	registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), listener, count);
+	int restored = journal.restore(registry);
+	long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+
+	logger.debug("Restored: " + restored + ", Difference: " + diff);
+
+	assertEquals(count, restored);
+	assertEquals(count, registry.size());
+	assertTrue(diff < 2000);
+	journal.close();
+	registry.stop();
+
+	logger.info("Test (testRestoreRegistryMany) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	wheel.stop();
+    }
+
+    private static final class RegistryListener implements ExpiryListener {
+
+	private long[] expired;
+
+	@Override
+	public void expired(long[] ids) {
+	    assertNull(expired);
+	    expired = ids;
+	}
+    }
+
+    /*
+     * Remembers the delay of the last one-shot task.
+     */
+    private static final class RecordingScheduler implements CountdownScheduler {
+
+	private final CountdownScheduler scheduler;
+	private volatile long delay;
+
+	private RecordingScheduler(CountdownScheduler scheduler) {
+	    this.scheduler = scheduler;
+	}
+
+	@Override
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+	    this.delay = unit.toMillis(delay);
+	    return scheduler.schedule(task, delay, unit);
+	}
+
+	@Override
+	public Timeout schedule(Runnable task, long delay, long period, TimeUnit unit) {
+	    return scheduler.schedule(task, delay, period, unit);
+	}
+    }
+
+    private static final class Listener implements RestoreListener {
+
+	private final Map<Long, CountdownTimer> timers = new HashMap<Long, CountdownTimer>();
+	private long[] expired;
+
+	@Override
+	public void restored(long id, CountdownTimer timer) {
+	    timers.put(id, timer);
+	}
+
+	@Override
+	public void expired(long[] ids) {
+	    assertNull(expired);
+	    expired = ids;
+	}
+    }
+}
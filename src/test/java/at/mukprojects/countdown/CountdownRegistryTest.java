@@ -0,0 +1,205 @@
+package at.mukprojects.countdown;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
+public class CountdownRegistryTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CountdownRegistryTest.class);
+
+    private TimingWheel wheel;
+    private CountdownRegistry registry;
+
+    private final Map<Long, Long> expired = new ConcurrentHashMap<Long, Long>();
+    private final AtomicInteger batches = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+	wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 1);
+	registry = new CountdownRegistry(wheel, CallbackExecutors.direct(), new ExpiryListener() {
+	    @Override
+	    public void expired(long[] ids) {
+		batches.incrementAndGet();
+		long now = System.nanoTime();
+		for (long id : ids) {
+		    assertNull(expired.put(id, now));
+		}
+	    }
+	}, 16);
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+	logger.info("Test (testExpiry) is starting...");
+
+	final int count = 10000;
+	long before = System.nanoTime();
+	for (int i = 0; i < count; i++) {
+	    registry.start(i, 100 + i % 200);
+	}
+	assertEquals(count, registry.size());
+
+	Thread.sleep(600);
+
+	logger.debug("Expired: " + expired.size() + ", Batches: " + batches.get());
+
+	assertEquals(count, expired.size());
+	assertEquals(0, registry.size());
+	assertTrue(batches.get() <= 200);
+	for (Map.Entry<Long, Long> entry : expired.entrySet()) {
+	    long deadline = before + TimeUnit.MILLISECONDS.toNanos(100 + entry.getKey() % 200);
+	    assertTrue(entry.getValue() - deadline >= 0);
+	}
+	assertEquals(0, registry.get(1));
+
+	logger.info("Test (testExpiry) has finished.");
+    }
+
+    @Test
+    public void testView() throws InterruptedException {
+	logger.info("Test (testView) is starting...");
+
+	registry.start(1, 300, CountdownTime.MODE_ATOMIC_TIME);
+	registry.start(2, 300);
+	CountdownView view = registry.view(1);
+
+	assertEquals(CountdownTime.MODE_ATOMIC_TIME, view.getMode());
+	assertTrue(view.pause());
+	assertFalse(view.pause());
+	long paused = view.get();
+
+	assertTrue(view.wrap(2).extend(300));
+	assertTrue(view.get() > 500);
+	assertTrue(registry.stop(2));
+	assertTrue(view.isDone());
+
+	Thread.sleep(400);
+
+	view.wrap(1);
+	assertTrue(view.isPaused());
+	assertEquals(paused, view.get());
+	assertTrue(view.resume());
+	assertFalse(view.isDone());
+
+	Thread.sleep(paused + 100);
+
+	assertTrue(view.isDone());
+	assertTrue(expired.containsKey(1L));
+	assertFalse(expired.containsKey(2L));
+	assertFalse(view.extend(100));
+
+	logger.info("Test (testView) has finished.");
+    }
+
+    @Test
+    public void testDeadlineQueries() {
+	logger.info("Test (testDeadlineQueries) is starting...");
+
+	final int count = 1000;
+	for (int i = count - 1; i >= 0; i--) {
+	    registry.start(i, 100000 + i * 1000L);
+	}
+
+	assertEquals(101, registry.count(100000 + 99500, 100000 + 200500));
+	assertEquals(count, registry.count(0, Long.MAX_VALUE / 2000000));
+	assertEquals(0, registry.count(0, 50000));
+
+	long[] ids = registry.expiring(100000 + 99500, 100000 + 200500);
+	assertEquals(101, ids.length);
+	for (int i = 0; i < ids.length; i++) {
+	    assertEquals(100 + i, ids[i]);
+	}
+
+	assertArrayEquals(new long[] { 0, 1, 2 }, registry.soonest(3));
+	assertEquals(0, registry.soonest(0).length);
+
+	try {
+	    registry.soonest(-1);
+	    fail("A negative count should be rejected.");
+	} catch (IllegalArgumentException e) {
+	    assertEquals(count, registry.size());
+	}
+
+	assertTrue(registry.extend(0, 10000000));
+	assertTrue(registry.pause(1));
+	assertTrue(registry.stop(2));
+	assertArrayEquals(new long[] { 3, 4 }, registry.soonest(2));
+	assertEquals(count - 3, registry.count(0, 100000 + count * 1000L));
+	assertEquals(0, registry.expiring(0, 100000 + 2500).length);
+
+	/*
+	 * Random extensions keep the order consistent with the remaining
+	 * times.
+	 */
+	Random random = new Random(42);
+	for (int i = 0; i < 10000; i++) {
+	    registry.extend(random.nextInt(count), random.nextInt(100000));
+	}
+	long[] all = registry.soonest(count);
+	assertEquals(count - 2, all.length);
+	for (int i = 1; i < all.length; i++) {
+	    assertTrue(registry.get(all[i - 1]) <= registry.get(all[i]));
+	}
+	assertEquals(all[all.length - 1], registry.expiring(0, registry.get(all[all.length - 1]) + 1)[all.length - 1]);
+
+	logger.info("Test (testDeadlineQueries) has finished.");
+    }
+
+    @Test
+    public void testRandomOperations() {
+	logger.info("Test (testRandomOperations) is starting...");
+
+	Map<Long, Boolean> expected = new HashMap<Long, Boolean>();
+	Random random = new Random(42);
+
+	for (int i = 0; i < 200000; i++) {
+	    long id = random.nextInt(5000);
+	    switch (random.nextInt(4)) {
+	    case 0:
+	    case 1:
+		registry.start(id, 60000 + random.nextInt(1000));
+		expected.put(id, false);
+		break;
+	    case 2:
+		assertEquals(expected.remove(id) != null, registry.stop(id));
+		break;
+	    default:
+		Boolean paused = expected.get(id);
+		if (paused != null) {
+		    assertEquals(!paused, registry.pause(id));
+		    expected.put(id, true);
+		}
+	    }
+	}
+
+	assertEquals(expected.size(), registry.size());
+	for (long id = 0; id < 5000; id++) {
+	    Boolean paused = expected.get(id);
+	    assertEquals(paused != null, registry.contains(id));
+	    assertEquals(paused != null && paused, registry.isPaused(id));
+	}
+
+	logger.info("Test (testRandomOperations) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	registry.stop();
+	wheel.stop();
+    }
+}
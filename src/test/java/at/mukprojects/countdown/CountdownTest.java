@@ -3,6 +3,16 @@ package at.mukprojects.countdown;
 import static org.junit.Assert.*;
 
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import org.junit.After;
 import org.junit.Before;
@@ -10,6 +20,13 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.mukprojects.countdown.flow.Flow;
+import at.mukprojects.countdown.scheduler.CallbackExecutors;
+import at.mukprojects.countdown.scheduler.CountdownScheduler;
+import at.mukprojects.countdown.scheduler.ExecutorScheduler;
+import at.mukprojects.countdown.scheduler.Timeout;
+import at.mukprojects.countdown.scheduler.TimingWheel;
+
 public class CountdownTest {
 
     private static final Logger logger = LoggerFactory.getLogger(CountdownTest.class);
@@ -22,64 +39,44 @@ public class CountdownTest {
     }
 
     @Test
-    public void testCountdownWithLong() {
+    public void testCountdownWithLong() throws Exception {
 	logger.info("Test (TestCountdownWithLong) is starting...");
 
+	long takeTimeBefore = System.currentTimeMillis();
+
 	CountdownTime countdown = timerTask.start(5000, 10);
+	logger.debug("First count: " + countdown.get());
 
-	long takeTimeBefore = 0;
-	long takeTimeAfter = 0;
-
-	boolean working = true;
-	boolean firstGet = true;
-
-	while (working) {
-	    if (countdown.get() <= 0) {
-		takeTimeAfter = System.currentTimeMillis();
-		logger.debug("Last count: " + countdown.get());
-		working = false;
-	    } else if (firstGet && countdown.get() > 0) {
-		takeTimeBefore = System.currentTimeMillis();
-		logger.debug("First count: " + countdown.get());
-		firstGet = false;
-	    }
-	}
+	countdown.expiry().get(10, TimeUnit.SECONDS);
+
+	long takeTimeAfter = System.currentTimeMillis();
+	logger.debug("Last count: " + countdown.get());
 
 	long diff = takeTimeAfter - takeTimeBefore;
 
 	logger.debug("TakeTimeBefore: " + takeTimeBefore + ", TakeTimeAfter:" + takeTimeAfter + ", Difference:" + diff);
 	assertTrue(4500 < diff && diff < 5500);
+	assertTrue(countdown.get() <= 0);
 
 	logger.info("Test (TestCountdownWithLong) has finished.");
     }
 
     @Test
-    public void testCountdownWithDate() {
+    public void testCountdownWithDate() throws Exception {
 	logger.info("Test (testCountdownWithDate) is starting...");
 
 	Date date = new Date(System.currentTimeMillis() + 50005);
 
 	CountdownTime countdown = timerTask.start(date, 10);
 
-	long takeTimeBefore = 0;
-	long takeTimeAfter = 0;
-	long timer = 0;
-
-	boolean working = true;
-	boolean firstGet = true;
-
-	while (working) {
-	    if (countdown.get() <= 0) {
-		takeTimeAfter = System.currentTimeMillis();
-		logger.debug("Last count: " + countdown.get());
-		working = false;
-	    } else if (firstGet && countdown.get() > 0) {
-		takeTimeBefore = System.currentTimeMillis();
-		logger.debug("First count: " + countdown.get());
-		timer = countdown.get();
-		firstGet = false;
-	    }
-	}
+	long takeTimeBefore = System.currentTimeMillis();
+	long timer = countdown.get();
+	logger.debug("First count: " + timer);
+
+	countdown.expiry().get(120, TimeUnit.SECONDS);
+
+	long takeTimeAfter = System.currentTimeMillis();
+	logger.debug("Last count: " + countdown.get());
 
 	long diff = takeTimeAfter - takeTimeBefore;
 
@@ -90,6 +87,303 @@ public class CountdownTest {
 	logger.info("Test (testCountdownWithDate) has finished.");
     }
 
+    @Test
+    public void testCountdownExpiryListeners() throws Exception {
+	logger.info("Test (testCountdownExpiryListeners) is starting...");
+
+	final AtomicInteger calls = new AtomicInteger();
+	final AtomicReference<CountdownTime> expired = new AtomicReference<CountdownTime>();
+
+	CountdownTime countdown = timerTask.start(300);
+
+	countdown.onExpire(new Runnable() {
+	    @Override
+	    public void run() {
+		calls.incrementAndGet();
+	    }
+	});
+	countdown.onExpire(new Consumer<CountdownTime>() {
+	    @Override
+	    public void accept(CountdownTime countdown) {
+		expired.set(countdown);
+	    }
+	});
+
+	assertSame(countdown, countdown.expiry().get(2, TimeUnit.SECONDS));
+	assertTrue(countdown.isExpired());
+	assertEquals(1, calls.get());
+	assertSame(countdown, expired.get());
+
+	countdown.onExpire(new Runnable() {
+	    @Override
+	    public void run() {
+		calls.incrementAndGet();
+	    }
+	});
+	assertEquals(2, calls.get());
+
+	CountdownTime stopped = timerTask.start(300);
+	timerTask.stop();
+	assertTrue(stopped.expiry().isCancelled());
+
+	logger.info("Test (testCountdownExpiryListeners) has finished.");
+    }
+
+    @Test
+    public void testCountdownTickFree() throws InterruptedException {
+	logger.info("Test (testCountdownTickFree) is starting...");
+
+	CountdownTime countdown = timerTask.start(2000);
+
+	assertTrue(countdown.isTickFree());
+	assertTrue(countdown.get() > 1900);
+
+	Thread.sleep(1000);
+
+	long remaining = countdown.get();
+	logger.debug("Remaining: " + remaining);
+	assertTrue(800 < remaining && remaining <= 1000);
+
+	countdown.addAndGet(500);
+	assertTrue(countdown.get() > 1300);
+
+	timerTask.stop();
+	long stopped = countdown.get();
+
+	Thread.sleep(100);
+
+	assertEquals(stopped, countdown.get());
+
+	logger.info("Test (testCountdownTickFree) has finished.");
+    }
+
+    @Test
+    public void testCountdownTickFreeShortened() throws Exception {
+	logger.info("Test (testCountdownTickFreeShortened) is starting...");
+
+	/*
+	 * The expiry of a shortened countdown mustn't wait for its old
+	 * deadline.
+	 */
+	CountdownTime countdown = timerTask.start(3000);
+	long before = System.nanoTime();
+	countdown.set(200);
+	assertTrue(countdown.awaitExpiry(1, TimeUnit.SECONDS));
+	long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	logger.debug("Set: " + diff);
+	assertTrue(150 <= diff && diff < 400);
+
+	countdown = timerTask.start(3000);
+	before = System.nanoTime();
+	countdown.addAndGet(-2800);
+	assertTrue(countdown.awaitExpiry(1, TimeUnit.SECONDS));
+	diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	logger.debug("Add: " + diff);
+	assertTrue(150 <= diff && diff < 400);
+
+	countdown = timerTask.start(3000);
+	before = System.nanoTime();
+	countdown.getAndAdd(-2800);
+	assertTrue(countdown.awaitExpiry(1, TimeUnit.SECONDS));
+	diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	logger.debug("Get and add: " + diff);
+	assertTrue(150 <= diff && diff < 400);
+
+	/*
+	 * A paused countdown is rescheduled with its new time once it's
+	 * resumed.
+	 */
+	countdown = timerTask.start(3000);
+	countdown.pause();
+	countdown.set(200);
+	before = System.nanoTime();
+	countdown.resume();
+	assertTrue(countdown.awaitExpiry(1, TimeUnit.SECONDS));
+	diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	logger.debug("Resumed: " + diff);
+	assertTrue(150 <= diff && diff < 400);
+
+	logger.info("Test (testCountdownTickFreeShortened) has finished.");
+    }
+
+    @Test
+    public void testCountdownRejectsZeroDelay() {
+	logger.info("Test (testCountdownRejectsZeroDelay) is starting...");
+
+	try {
+	    timerTask.start(300, 0);
+	    fail("A delay of 0 should be rejected.");
+	} catch (IllegalArgumentException e) {
+	    assertNull(timerTask.getCountdown());
+	}
+
+	try {
+	    timerTask.start(new Date(System.currentTimeMillis() + 300), 0);
+	    fail("A delay of 0 should be rejected.");
+	} catch (IllegalArgumentException e) {
+	    assertNull(timerTask.getCountdown());
+	}
+
+	logger.info("Test (testCountdownRejectsZeroDelay) has finished.");
+    }
+
+    @Test
+    public void testCountdownRejectsAdaptiveArguments() throws Exception {
+	logger.info("Test (testCountdownRejectsAdaptiveArguments) is starting...");
+
+	CountdownTime countdown = timerTask.start(60000, 10);
+	Date date = new Date(System.currentTimeMillis() + 60000);
+
+	int[] delays = { 0, 10, 10, 10 };
+	double[] accuracies = { 0.01, 0, -0.5, 1.5 };
+	for (int i = 0; i < delays.length; i++) {
+	    try {
+		timerTask.start(60000, delays[i], accuracies[i]);
+		fail("A delay of " + delays[i] + " and an accuracy of " + accuracies[i] + " should be rejected.");
+	    } catch (IllegalArgumentException e) {
+		assertSame(countdown, timerTask.getCountdown());
+	    }
+
+	    try {
+		timerTask.start(date, delays[i], accuracies[i]);
+		fail("A delay of " + delays[i] + " and an accuracy of " + accuracies[i] + " should be rejected.");
+	    } catch (IllegalArgumentException e) {
+		assertSame(countdown, timerTask.getCountdown());
+	    }
+	}
+
+	/*
+	 * The previous countdown is still running.
+	 */
+	long before = countdown.get();
+	Thread.sleep(200);
+	assertFalse(countdown.isDone());
+	assertTrue(countdown.get() < before);
+
+	logger.info("Test (testCountdownRejectsAdaptiveArguments) has finished.");
+    }
+
+    @Test
+    public void testCountdownAwaitExpiry() throws Exception {
+	logger.info("Test (testCountdownAwaitExpiry) is starting...");
+
+	final CountdownTime countdown = timerTask.start(500);
+	final AtomicInteger released = new AtomicInteger();
+
+	Thread[] waiters = new Thread[16];
+	for (int i = 0; i < waiters.length; i++) {
+	    waiters[i] = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			countdown.awaitExpiry();
+			released.incrementAndGet();
+		    } catch (InterruptedException e) {
+			logger.error("The waiter was interrupted.", e);
+		    }
+		}
+	    });
+	    waiters[i].start();
+	}
+
+	assertFalse(countdown.awaitExpiry(100, TimeUnit.MILLISECONDS));
+	assertTrue(countdown.awaitExpiry(2, TimeUnit.SECONDS));
+
+	for (Thread waiter : waiters) {
+	    waiter.join(2000);
+	}
+
+	assertEquals(waiters.length, released.get());
+	assertTrue(countdown.get() <= 0);
+
+	logger.info("Test (testCountdownAwaitExpiry) has finished.");
+    }
+
+    @Test
+    public void testCountdownWithExecutor() throws Exception {
+	logger.info("Test (testCountdownWithExecutor) is starting...");
+
+	ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+	CountdownTimer executorTimer = new CountdownTimer(new ExecutorScheduler(executor),
+		CallbackExecutors.virtualThreads());
+
+	try {
+	    CountdownTime slow = executorTimer.start(100, 10);
+	    slow.onExpire(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			Thread.sleep(2000);
+		    } catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		    }
+		}
+	    });
+	    slow.onExpire(new Runnable() {
+		@Override
+		public void run() {
+		    throw new IllegalStateException("Listener failure");
+		}
+	    });
+
+	    assertTrue(slow.awaitExpiry(2, TimeUnit.SECONDS));
+
+	    long takeTimeBefore = System.currentTimeMillis();
+	    CountdownTime countdown = executorTimer.start(300, 10);
+	    countdown.expiry().get(2, TimeUnit.SECONDS);
+	    long diff = System.currentTimeMillis() - takeTimeBefore;
+
+	    logger.debug("Difference: " + diff);
+	    assertTrue(diff < 1000);
+	} finally {
+	    executorTimer.stop();
+	    executor.shutdownNow();
+	}
+
+	logger.info("Test (testCountdownWithExecutor) has finished.");
+    }
+
+    @Test
+    public void testCountdownCompensatesLateTicks() throws Exception {
+	logger.info("Test (testCountdownCompensatesLateTicks) is starting...");
+
+	/*
+	 * A single worker, which is blocked for a while, skips the ticks of
+	 * the countdown.
+	 */
+	TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 1);
+	CountdownTimer wheelTimer = new CountdownTimer(wheel);
+
+	try {
+	    long before = System.nanoTime();
+	    CountdownTime countdown = wheelTimer.start(5000, 10);
+
+	    wheel.schedule(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			Thread.sleep(300);
+		    } catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		    }
+		}
+	    }, 100, TimeUnit.MILLISECONDS);
+
+	    Thread.sleep(1000);
+
+	    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	    long drift = countdown.get() - (5000 - elapsed);
+	    logger.debug("Count: " + countdown.get() + ", Elapsed: " + elapsed + ", Drift: " + drift);
+
+	    assertTrue(Math.abs(drift) <= 30);
+	} finally {
+	    wheelTimer.stop();
+	    wheel.stop();
+	}
+
+	logger.info("Test (testCountdownCompensatesLateTicks) has finished.");
+    }
+
     @Test
     public void testCountdownTimeParser() {
 	logger.info("Test (testCountdownTimeParser) is starting...");
@@ -115,6 +409,280 @@ public class CountdownTest {
 	logger.info("Test (testCountdownDateParser) has finished.");
     }
     
+    @Test
+    public void testCountdownPauseResume() throws Exception {
+	logger.info("Test (testCountdownPauseResume) is starting...");
+
+	for (int delay : new int[] { 0, 10 }) {
+	    CountdownTime countdown = delay == 0 ? timerTask.start(500) : timerTask.start(500, delay);
+	    Thread.sleep(100);
+
+	    assertTrue(countdown.pause());
+	    assertFalse(countdown.pause());
+	    assertTrue(countdown.isPaused());
+	    long paused = countdown.get();
+
+	    Thread.sleep(600);
+
+	    logger.debug("Paused: " + paused + ", Remaining: " + countdown.get());
+	    assertEquals(paused, countdown.get());
+	    assertFalse(countdown.isExpired());
+
+	    long before = System.nanoTime();
+	    assertTrue(countdown.resume());
+	    assertFalse(countdown.resume());
+	    assertFalse(countdown.isPaused());
+
+	    assertTrue(countdown.awaitExpiry(2, TimeUnit.SECONDS));
+	    long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	    logger.debug("Difference: " + diff);
+
+	    assertTrue(paused - 50 <= diff && diff < paused + 100);
+	    assertFalse(countdown.pause());
+	}
+
+	logger.info("Test (testCountdownPauseResume) has finished.");
+    }
+
+    @Test
+    public void testCountdownConcurrentPauseResume() throws Exception {
+	logger.info("Test (testCountdownConcurrentPauseResume) is starting...");
+
+	final CountdownTime countdown = timerTask.start(60000, 10);
+
+	/*
+	 * Nobody waits for a transition in progress, so the countdown must
+	 * end up with a single task, which ticks at the normal rate.
+	 */
+	Thread[] threads = new Thread[4];
+	for (int i = 0; i < threads.length; i++) {
+	    threads[i] = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    for (int j = 0; j < 2000; j++) {
+			countdown.pause();
+			countdown.resume();
+		    }
+		}
+	    });
+	}
+	for (Thread thread : threads) {
+	    thread.start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+
+	assertTrue(countdown.pause());
+	countdown.set(500);
+	Thread.sleep(50);
+	long paused = countdown.get();
+	assertEquals(500, paused);
+
+	long before = System.nanoTime();
+	assertTrue(countdown.resume());
+	assertFalse(countdown.isPaused());
+
+	assertTrue(countdown.awaitExpiry(2, TimeUnit.SECONDS));
+	long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	logger.debug("Paused: " + paused + ", Difference: " + diff);
+	assertTrue(paused - 50 <= diff && diff < paused + 100);
+
+	logger.info("Test (testCountdownConcurrentPauseResume) has finished.");
+    }
+
+    @Test
+    public void testCountdownExtend() throws Exception {
+	logger.info("Test (testCountdownExtend) is starting...");
+
+	final CountdownTime countdown = timerTask.start(1000);
+	final int bidders = 8;
+	final int bids = 1000;
+
+	Thread[] threads = new Thread[bidders];
+	for (int i = 0; i < threads.length; i++) {
+	    threads[i] = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    for (int j = 0; j < bids; j++) {
+			countdown.extend(1);
+		    }
+		}
+	    });
+	}
+
+	long before = countdown.get();
+	for (Thread thread : threads) {
+	    thread.start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	long after = countdown.get();
+
+	logger.debug("Before: " + before + ", After: " + after);
+	assertTrue(after > before + bidders * bids - 200);
+	assertTrue(after <= before + bidders * bids);
+
+	assertTrue(countdown.pause());
+	long paused = countdown.get();
+	assertTrue(countdown.extend(100));
+	assertEquals(paused + 100, countdown.get());
+
+	timerTask.stop();
+	assertFalse(countdown.extend(100));
+
+	CountdownTime expired = timerTask.start(50);
+	assertTrue(expired.awaitExpiry(2, TimeUnit.SECONDS));
+	assertFalse(expired.extend(100));
+
+	logger.info("Test (testCountdownExtend) has finished.");
+    }
+
+    @Test
+    public void testCountdownPublisher() throws Exception {
+	logger.info("Test (testCountdownPublisher) is starting...");
+
+	final List<Long> received = new CopyOnWriteArrayList<Long>();
+	final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+	final CountDownLatch completed = new CountDownLatch(1);
+
+	CountdownTime countdown = timerTask.start(1000, 1);
+	countdown.publisher().subscribe(new Flow.Subscriber<Long>() {
+	    private Flow.Subscription subscription;
+
+	    @Override
+	    public void onSubscribe(Flow.Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(1);
+	    }
+
+	    @Override
+	    public void onNext(Long item) {
+		received.add(item);
+		try {
+		    Thread.sleep(50);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+		subscription.request(1);
+	    }
+
+	    @Override
+	    public void onError(Throwable throwable) {
+		error.set(throwable);
+		completed.countDown();
+	    }
+
+	    @Override
+	    public void onComplete() {
+		completed.countDown();
+	    }
+	});
+
+	assertTrue(completed.await(5, TimeUnit.SECONDS));
+	assertNull(error.get());
+
+	/*
+	 * The subscriber is much slower than the ticks, so most of them have
+	 * to be conflated.
+	 */
+	logger.debug("Received: " + received);
+	assertTrue(received.size() > 5 && received.size() <= 25);
+	for (int i = 1; i < received.size(); i++) {
+	    assertTrue(received.get(i) <= received.get(i - 1));
+	}
+
+	final CountDownLatch stopped = new CountDownLatch(1);
+	countdown = timerTask.start(5000);
+	countdown.publisher(CallbackExecutors.direct()).subscribe(new Flow.Subscriber<Long>() {
+	    @Override
+	    public void onSubscribe(Flow.Subscription subscription) {
+		subscription.request(Long.MAX_VALUE);
+	    }
+
+	    @Override
+	    public void onNext(Long item) {
+		received.add(item);
+	    }
+
+	    @Override
+	    public void onError(Throwable throwable) {
+		error.set(throwable);
+		stopped.countDown();
+	    }
+
+	    @Override
+	    public void onComplete() {
+		stopped.countDown();
+	    }
+	});
+
+	timerTask.stop();
+	assertTrue(stopped.await(1, TimeUnit.SECONDS));
+	assertTrue(error.get() instanceof CancellationException);
+
+	logger.info("Test (testCountdownPublisher) has finished.");
+    }
+
+    @Test
+    public void testCountdownAdaptive() throws Exception {
+	logger.info("Test (testCountdownAdaptive) is starting...");
+
+	final AtomicInteger ticks = new AtomicInteger();
+	final TimingWheel wheel = TimingWheel.getDefault();
+	CountdownTimer adaptiveTimer = new CountdownTimer(new CountdownScheduler() {
+	    @Override
+	    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		ticks.incrementAndGet();
+		return wheel.schedule(task, delay, unit);
+	    }
+
+	    @Override
+	    public Timeout schedule(Runnable task, long delay, long period, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	    }
+	});
+
+	try {
+	    long before = System.nanoTime();
+	    CountdownTime countdown = adaptiveTimer.start(2000, 10, 0.1);
+
+	    Thread.sleep(1000);
+	    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	    long error = countdown.get() - (2000 - elapsed);
+	    logger.debug("Count: " + countdown.get() + ", Elapsed: " + elapsed + ", Error: " + error);
+	    assertTrue(0 <= error && error <= (2000 - elapsed) / 10 + 30);
+
+	    assertTrue(countdown.awaitExpiry(2, TimeUnit.SECONDS));
+	    long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+
+	    /*
+	     * A fixed delay of 10 milliseconds would have needed 200 ticks.
+	     */
+	    logger.debug("Ticks: " + ticks.get() + ", Difference: " + diff);
+	    assertTrue(1950 <= diff && diff < 2100);
+	    assertTrue(ticks.get() < 60);
+
+	    /*
+	     * A countdown, which is shortened, mustn't wait for its next tick.
+	     */
+	    countdown = adaptiveTimer.start(60000, 10, 0.5);
+	    Thread.sleep(50);
+	    before = System.nanoTime();
+	    countdown.set(200);
+
+	    assertTrue(countdown.awaitExpiry(2, TimeUnit.SECONDS));
+	    diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	    logger.debug("Difference: " + diff);
+	    assertTrue(150 <= diff && diff < 300);
+	} finally {
+	    adaptiveTimer.stop();
+	}
+
+	logger.info("Test (testCountdownAdaptive) has finished.");
+    }
+
     @After
     public void tearDown() {
 	timerTask.stop();
@@ -0,0 +1,138 @@
+package at.mukprojects.countdown;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DateParserTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DateParserTest.class);
+
+    private static final ZoneId VIENNA = ZoneId.of("Europe/Vienna");
+
+    private final DateParser parser = new DateParser(VIENNA);
+
+    @Test
+    public void testFormats() {
+	logger.info("Test (testFormats) is starting...");
+
+	long local = local(2015, 10, 20, 10, 20, 30);
+	long utc = LocalDateTime.of(2015, 10, 20, 10, 20, 30).toInstant(ZoneOffset.UTC).toEpochMilli();
+	long midnight = local(2015, 10, 20, 0, 0, 0);
+
+	assertEquals(local, parser.parse("20.10.2015 10:20:30"));
+	assertEquals(utc, parser.parse("2015-10-20T10:20:30Z"));
+	assertEquals(utc - 7200000, parser.parse("2015-10-20T10:20:30+0200"));
+	assertEquals(local, parser.parse("2015-10-20T10:20:30"));
+	assertEquals(utc + 123, parser.parse("2015-10-20T10:20:30.123Z"));
+	assertEquals(utc + 123 + 3600000, parser.parse("2015-10-20T10:20:30.123-0100"));
+	assertEquals(local, parser.parse("2015-10-20 10:20:30"));
+	assertEquals(local, parser.parse("10/20/2015 10:20:30"));
+	assertEquals(utc + 123, parser.parse("10/20/2015T10:20:30.123Z"));
+	assertEquals(utc + 123 - 7200000, parser.parse("10/20/2015T10:20:30.123+0200"));
+	assertEquals(local + 123, parser.parse("10/20/2015T10:20:30.123"));
+	assertEquals(utc - 7200000, parser.parse("10/20/2015T10:20:30+0200"));
+	assertEquals(local, parser.parse("10/20/2015T10:20:30"));
+	assertEquals(local, parser.parse("2015:10:20 10:20:30"));
+	assertEquals(midnight, parser.parse("20151020"));
+	assertEquals(midnight, parser.parse("20.10.2015"));
+	assertEquals(midnight, parser.parse("10/20/2015"));
+
+	assertEquals(utc - 7200000, parser.parse("2015-10-20T10:20:30+02:00"));
+	assertEquals(utc - 7200000, parser.parse("2015-10-20T10:20:30+02"));
+	assertEquals(utc + 123, parser.parse("2015-10-20T10:20:30.123456789Z"));
+	assertEquals(local(2015, 1, 2, 8, 5, 0), parser.parse("2.1.2015 08:05:00"));
+
+	logger.info("Test (testFormats) has finished.");
+    }
+
+    @Test
+    public void testInvalid() {
+	logger.info("Test (testInvalid) is starting...");
+
+	String[] invalid = { null, "", "text", "2015", "20.10.15", "32.10.2015", "29.02.2015", "20.13.2015",
+		"20.10.2015 24:00:00", "20.10.2015 10:20", "20.10.2015 10:20:30 CEST", "2015-10-20T10:20:30+1900",
+		"2015-10-20T10:20:30.Z", "2015/10/20", "10-20-2015", "201510201", "20.10-2015" };
+
+	for (String text : invalid) {
+	    assertEquals(text, DateParser.INVALID, parser.parse(text));
+	}
+
+	assertEquals(local(2016, 2, 29, 0, 0, 0), parser.parse("29.02.2016"));
+
+	logger.info("Test (testInvalid) has finished.");
+    }
+
+    @Test
+    public void testDaylightSavingTime() {
+	logger.info("Test (testDaylightSavingTime) is starting...");
+
+	/*
+	 * Summer and winter time in Vienna.
+	 */
+	assertEquals(LocalDateTime.of(2015, 7, 1, 10, 0).toInstant(ZoneOffset.ofHours(2)).toEpochMilli(),
+		parser.parse("01.07.2015 10:00:00"));
+	assertEquals(LocalDateTime.of(2015, 12, 1, 10, 0).toInstant(ZoneOffset.ofHours(1)).toEpochMilli(),
+		parser.parse("01.12.2015 10:00:00"));
+
+	DateParser utc = new DateParser(ZoneOffset.UTC);
+	assertEquals(LocalDateTime.of(2015, 7, 1, 10, 0).toInstant(ZoneOffset.UTC).toEpochMilli(),
+		utc.parse("01.07.2015 10:00:00"));
+
+	logger.info("Test (testDaylightSavingTime) has finished.");
+    }
+
+    @Test
+    public void testParseAll() throws IOException {
+	logger.info("Test (testParseAll) is starting...");
+
+	String[] samples = { "20.10.2015 10:20:30", "2015-10-20T10:20:30.123Z", "10/20/2015", "20151020", "text",
+		"", "2015:10:20 10:20:30", "31.02.2015" };
+
+	List<String> dates = new ArrayList<String>();
+	StringBuilder builder = new StringBuilder();
+	for (int i = 0; i < 200000; i++) {
+	    String date = samples[i % samples.length];
+	    dates.add(date);
+	    builder.append(date).append(i % 3 == 0 ? "\r\n" : "\n");
+	}
+
+	long[] expected = new long[dates.size()];
+	for (int i = 0; i < expected.length; i++) {
+	    expected[i] = parser.parse(dates.get(i));
+	}
+	assertEquals(DateParser.INVALID, expected[4]);
+
+	long before = System.nanoTime();
+	long[] parsed = parser.parseAll(dates);
+	logger.debug("Parsed " + parsed.length + " dates in "
+		+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before) + " milliseconds.");
+
+	assertArrayEquals(expected, parsed);
+	assertArrayEquals(expected, parser.parseAll(new StringReader(builder.toString())));
+
+	/*
+	 * The last line doesn't need a line break.
+	 */
+	builder.setLength(builder.length() - 1);
+	assertArrayEquals(expected, parser.parseAll(new StringReader(builder.toString())));
+	assertEquals(0, parser.parseAll(new StringReader("")).length);
+
+	logger.info("Test (testParseAll) has finished.");
+    }
+
+    private static long local(int year, int month, int day, int hour, int minute, int second) {
+	return LocalDateTime.of(year, month, day, hour, minute, second).atZone(VIENNA).toInstant().toEpochMilli();
+    }
+}
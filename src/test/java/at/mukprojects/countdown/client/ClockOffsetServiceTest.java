@@ -0,0 +1,160 @@
+package at.mukprojects.countdown.client;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.scheduler.TimingWheel;
+import at.mukprojects.countdown.server.SntpServer;
+
+public class ClockOffsetServiceTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClockOffsetServiceTest.class);
+
+    private static final long OFFSET = 5000;
+
+    private SntpServer server;
+    private SntpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+	server = new SntpServer(new InetSocketAddress("127.0.0.1", 0), 2, OFFSET, TimeUnit.MILLISECONDS).start();
+	client = new SntpClient(new String[] { "127.0.0.1" }, server.getPort(), 5000);
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+	logger.info("Test (testSingleFlight) is starting...");
+
+	final ClockOffsetService service = new ClockOffsetService(client, TimingWheel.getDefault(), 1,
+		TimeUnit.MINUTES);
+
+	final int count = 200;
+	final CountDownLatch start = new CountDownLatch(1);
+	final CountDownLatch done = new CountDownLatch(count);
+	final AtomicInteger wrong = new AtomicInteger();
+
+	for (int i = 0; i < count; i++) {
+	    new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			start.await();
+			long time = service.getTime();
+			if (Math.abs(time - System.currentTimeMillis() - OFFSET) >= 100) {
+			    wrong.incrementAndGet();
+			}
+		    } catch (Exception e) {
+			logger.error("The time couldn't be requested.", e);
+			wrong.incrementAndGet();
+		    }
+		    done.countDown();
+		}
+	    }).start();
+	}
+
+	start.countDown();
+	assertTrue(done.await(10, TimeUnit.SECONDS));
+
+	assertEquals(0, wrong.get());
+	assertEquals(SntpClient.DEFAULT_BURST, server.getRequests());
+
+	long before = System.nanoTime();
+	service.getTime();
+	long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - before);
+	logger.debug("Cached read: " + micros + " microseconds");
+
+	assertEquals(SntpClient.DEFAULT_BURST, server.getRequests());
+
+	logger.info("Test (testSingleFlight) has finished.");
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+	logger.info("Test (testBackgroundRefresh) is starting...");
+
+	ClockOffsetService service = new ClockOffsetService(client, TimingWheel.getDefault(), 500,
+		TimeUnit.MILLISECONDS);
+
+	TimeSample first = service.getSample();
+	assertEquals(SntpClient.DEFAULT_BURST, server.getRequests());
+
+	/*
+	 * The offset is read after it has been requested, so it's refreshed
+	 * before it expires.
+	 */
+	Thread.sleep(100);
+	assertSame(first, service.getSample());
+
+	Thread.sleep(360);
+	assertEquals(2 * SntpClient.DEFAULT_BURST, server.getRequests());
+
+	TimeSample second = service.getCachedSample();
+	assertNotNull(second);
+	assertNotSame(first, second);
+
+	/*
+	 * Nobody reads the offset, so it isn't refreshed again.
+	 */
+	Thread.sleep(600);
+	assertEquals(2 * SntpClient.DEFAULT_BURST, server.getRequests());
+	assertNull(service.getCachedSample());
+
+	logger.info("Test (testBackgroundRefresh) has finished.");
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+	logger.info("Test (testFailure) is starting...");
+
+	SntpClient unreachable = new SntpClient(new String[] { "127.0.0.2" }, server.getPort(), 200);
+	ClockOffsetService service = new ClockOffsetService(unreachable, TimingWheel.getDefault(), 1,
+		TimeUnit.MINUTES);
+
+	List<CompletableFuture<TimeSample>> futures = new ArrayList<CompletableFuture<TimeSample>>();
+	for (int i = 0; i < 10; i++) {
+	    futures.add(service.getSampleAsync());
+	}
+	for (CompletableFuture<TimeSample> future : futures) {
+	    assertSame(futures.get(0), future);
+	}
+
+	try {
+	    service.getTime();
+	    fail("The request should have failed.");
+	} catch (IOException e) {
+	    logger.debug("Expected failure: " + e);
+	}
+
+	/*
+	 * The failure is remembered, so the next caller doesn't wait again.
+	 */
+	long before = System.nanoTime();
+	try {
+	    service.getTime();
+	    fail("The request should have failed.");
+	} catch (IOException e) {
+	    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before) < 100);
+	}
+
+	logger.info("Test (testFailure) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	server.stop();
+    }
+}
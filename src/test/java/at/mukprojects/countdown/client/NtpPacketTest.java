@@ -0,0 +1,105 @@
+package at.mukprojects.countdown.client;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class NtpPacketTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(NtpPacketTest.class);
+
+    @Test
+    public void testFields() {
+	logger.info("Test (testFields) is starting...");
+
+	ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+	buffer.position(8);
+
+	NtpPacket packet = new NtpPacket(buffer).clear();
+	packet.setLeapIndicator(3).setVersion(4).setMode(4).setStratum(200).setPollInterval(6).setPrecision(-20);
+	packet.setRootDelay(-65536).setRootDispersion(0xFFFF0000L).setReferenceIdentifier(0x47505300);
+	packet.setReceiveTimestamp(0x8000000180000000L).setTransmitTimestamp(-1L);
+
+	assertEquals(3, packet.getLeapIndicator());
+	assertEquals(4, packet.getVersion());
+	assertEquals(4, packet.getMode());
+	assertEquals(200, packet.getStratum());
+	assertEquals(6, packet.getPollInterval());
+	assertEquals(-20, packet.getPrecision());
+	assertEquals(-65536, packet.getRootDelay());
+	assertEquals(0xFFFF0000L, packet.getRootDispersion());
+	assertEquals(0x47505300, packet.getReferenceIdentifier());
+	assertEquals(0x8000000180000000L, packet.getReceiveTimestamp());
+	assertEquals(-1L, packet.getTransmitTimestamp());
+	assertEquals(8, buffer.position());
+
+	/*
+	 * The byte layout is the one of NtpMessage.
+	 */
+	byte[] data = new byte[NtpPacket.SIZE];
+	buffer.get(data);
+	NtpMessage msg = new NtpMessage(data);
+
+	assertEquals(3, msg.leapIndicator);
+	assertEquals(4, msg.version);
+	assertEquals(4, msg.mode);
+	assertEquals(200, msg.stratum);
+	assertEquals(-1.0, msg.rootDelay, 0);
+	assertEquals(0x80000001L + 0.5, msg.receiveTimestamp, 0);
+
+	logger.info("Test (testFields) has finished.");
+    }
+
+    @Test
+    public void testConversions() {
+	logger.info("Test (testConversions) is starting...");
+
+	long millis = 1445340000123L;
+	long timestamp = NtpPacket.timestamp(millis);
+
+	assertEquals(millis, NtpPacket.toMillis(timestamp));
+	assertEquals(-1L, NtpPacket.toMillis(NtpPacket.timestamp(-1L)));
+	assertEquals(millis / 1000 + 2208988800L, timestamp >>> 32);
+
+	assertEquals(1500000000L, NtpPacket.toNanos(NtpPacket.fromDuration(1500, TimeUnit.MILLISECONDS)));
+	assertEquals(-1500000000L, NtpPacket.toNanos(NtpPacket.fromDuration(-1500, TimeUnit.MILLISECONDS)));
+	assertEquals(1, NtpPacket.toNanos(NtpPacket.fromDuration(1, TimeUnit.NANOSECONDS)));
+
+	long later = NtpPacket.timestamp(millis + 250);
+	assertEquals(250000000L, NtpPacket.toNanos(later - timestamp), 1);
+	assertEquals(-250000000L, NtpPacket.toNanos(timestamp - later), 1);
+
+	long now = NtpPacket.now();
+	assertTrue(Math.abs(NtpPacket.toMillis(now) - System.currentTimeMillis()) < 100);
+
+	logger.info("Test (testConversions) has finished.");
+    }
+
+    @Test
+    public void testMessageTimestamps() {
+	logger.info("Test (testMessageTimestamps) is starting...");
+
+	NtpMessage msg = new NtpMessage();
+	msg.rootDelay = 0.5;
+
+	NtpMessage copy = new NtpMessage(msg.toByteArray());
+
+	/*
+	 * The random low order bits only touch the timestamp itself.
+	 */
+	assertEquals(0.5, copy.rootDelay, 0);
+	assertEquals(msg.transmitTimestamp, copy.transmitTimestamp, 1e-6);
+
+	byte[] data = new byte[16];
+	NtpMessage.encodeTimestamp(data, 8, 3654321098.25);
+	assertEquals(0, data[7]);
+	assertEquals(3654321098.25, NtpMessage.decodeTimestamp(data, 8), 1e-7);
+
+	logger.info("Test (testMessageTimestamps) has finished.");
+    }
+}
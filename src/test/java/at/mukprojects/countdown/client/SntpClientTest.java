@@ -0,0 +1,221 @@
+package at.mukprojects.countdown.client;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.server.SntpServer;
+
+public class SntpClientTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SntpClientTest.class);
+
+    private static final long OFFSET = 5000;
+
+    private SntpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+	server = new SntpServer(new InetSocketAddress("127.0.0.1", 0), 2, OFFSET, TimeUnit.MILLISECONDS).start();
+    }
+
+    @Test
+    public void testFirstAnswerWins() throws Exception {
+	logger.info("Test (testFirstAnswerWins) is starting...");
+
+	/*
+	 * Nothing listens on 127.0.0.2, so only the second server answers.
+	 */
+	SntpClient client = new SntpClient(new String[] { "127.0.0.2", "127.0.0.1" }, server.getPort(), 5000);
+
+	long before = System.nanoTime();
+	TimeSample sample = client.requestSample().get(5, TimeUnit.SECONDS);
+	long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+
+	logger.debug(sample + ", Difference: " + diff);
+
+	assertEquals(server.getPort(), sample.getServer().getPort());
+	assertTrue(Math.abs(sample.getOffsetMillis() - OFFSET) < 100);
+	assertTrue(diff < 1000);
+
+	long corrected = client.getTimeAsync().get(5, TimeUnit.SECONDS);
+	assertTrue(Math.abs(corrected - System.currentTimeMillis() - OFFSET) < 500);
+
+	logger.info("Test (testFirstAnswerWins) has finished.");
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+	logger.info("Test (testTimeout) is starting...");
+
+	SntpClient client = new SntpClient(new String[] { "127.0.0.2" }, server.getPort(), 300);
+
+	try {
+	    client.requestSample().get(5, TimeUnit.SECONDS);
+	    fail("The request should have timed out.");
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof IOException);
+	}
+
+	logger.info("Test (testTimeout) has finished.");
+    }
+
+    @Test
+    public void testAddressRotation() throws Exception {
+	logger.info("Test (testAddressRotation) is starting...");
+
+	SntpServer second = new SntpServer(new InetSocketAddress("127.0.0.3", server.getPort()), 2, OFFSET,
+		TimeUnit.MILLISECONDS).start();
+
+	try {
+	    /*
+	     * The stand-in resolver maps the pool to both loopback servers.
+	     */
+	    final AtomicInteger resolutions = new AtomicInteger();
+	    NameResolver resolver = new NameResolver() {
+		@Override
+		public InetAddress[] resolve(String host) throws UnknownHostException {
+		    resolutions.incrementAndGet();
+		    if (!host.equals("pool.test")) {
+			throw new UnknownHostException(host);
+		    }
+		    return new InetAddress[] { InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.3") };
+		}
+	    };
+
+	    SntpClient client = new SntpClient(new String[] { "pool.test", "unknown.test" }, server.getPort(), 5000,
+		    resolver, 500);
+
+	    /*
+	     * Both names are resolved ahead of the first request.
+	     */
+	    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+	    while ((client.getAddresses("pool.test") == 0 || resolutions.get() < 2) && System.nanoTime() < deadline) {
+		Thread.sleep(10);
+	    }
+	    assertEquals(2, client.getAddresses("pool.test"));
+	    assertEquals(0, client.getAddresses("unknown.test"));
+	    assertEquals(2, resolutions.get());
+
+	    for (int i = 0; i < 4; i++) {
+		TimeSample sample = client.requestSample().get(5, TimeUnit.SECONDS);
+		assertTrue(Math.abs(sample.getOffsetMillis() - OFFSET) < 100);
+	    }
+
+	    logger.debug("First: " + server.getRequests() + ", Second: " + second.getRequests() + ", Resolutions: "
+		    + resolutions.get());
+	    assertEquals(2 * SntpClient.DEFAULT_BURST, server.getRequests());
+	    assertEquals(2 * SntpClient.DEFAULT_BURST, second.getRequests());
+
+	    /*
+	     * The failed name is remembered, the pool is resolved again once
+	     * its time to live is over.
+	     */
+	    assertEquals(2, resolutions.get());
+	    Thread.sleep(600);
+	    client.requestSample().get(5, TimeUnit.SECONDS);
+	    assertEquals(3, resolutions.get());
+	} finally {
+	    second.stop();
+	}
+
+	logger.info("Test (testAddressRotation) has finished.");
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+	logger.info("Test (testHedging) is starting...");
+
+	/*
+	 * Nothing listens on 127.0.0.2. It's asked first, since nothing is
+	 * known about the servers yet, so the request is hedged.
+	 */
+	SntpClient client = new SntpClient(new String[] { "127.0.0.2", "127.0.0.1" }, server.getPort(), 5000);
+
+	long before = System.nanoTime();
+	client.requestSample().get(5, TimeUnit.SECONDS);
+	long first = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+
+	/*
+	 * Afterwards the healthy server is asked first.
+	 */
+	long slowest = 0;
+	for (int i = 0; i < 5; i++) {
+	    before = System.nanoTime();
+	    client.requestSample().get(5, TimeUnit.SECONDS);
+	    slowest = Math.max(slowest, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before));
+	}
+
+	logger.debug("First: " + first + ", Slowest: " + slowest + ", RTT: "
+		+ client.getRoundTripTime("127.0.0.1") + " / " + client.getRoundTripTime("127.0.0.2"));
+
+	assertTrue(100 <= first && first < 1000);
+	assertTrue(slowest < 100);
+
+	/*
+	 * The server counts a request after it has answered it.
+	 */
+	long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+	while (server.getRequests() < 6 * SntpClient.DEFAULT_BURST && System.nanoTime() < deadline) {
+	    Thread.sleep(10);
+	}
+	assertEquals(6 * SntpClient.DEFAULT_BURST, server.getRequests());
+	assertTrue(client.getRoundTripTime("127.0.0.1") < client.getRoundTripTime("127.0.0.2"));
+
+	logger.info("Test (testHedging) has finished.");
+    }
+
+    @Test
+    public void testBurst() throws Exception {
+	logger.info("Test (testBurst) is starting...");
+
+	SntpClient client = new SntpClient(new String[] { "127.0.0.1" }, server.getPort(), 5000);
+
+	/*
+	 * The requests of a burst are in flight at once, so the whole burst
+	 * takes about as long as a single request.
+	 */
+	client.requestSample(1).get(5, TimeUnit.SECONDS);
+	long before = System.nanoTime();
+	TimeSample sample = client.requestSample(8).get(5, TimeUnit.SECONDS);
+	long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+
+	logger.debug(sample + ", Difference: " + diff);
+
+	assertTrue(Math.abs(sample.getOffsetMillis() - OFFSET) < 100);
+	assertTrue(sample.getRoundTripDelay() <= client.getRoundTripTime("127.0.0.1") * 2);
+	assertTrue(diff < 500);
+
+	long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+	while (server.getRequests() < 9 && System.nanoTime() < deadline) {
+	    Thread.sleep(10);
+	}
+	assertEquals(9, server.getRequests());
+
+	try {
+	    client.requestSample(0);
+	    fail("An empty burst should be rejected.");
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+
+	logger.info("Test (testBurst) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	server.stop();
+    }
+}
@@ -0,0 +1,148 @@
+package at.mukprojects.countdown.metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.CountdownTime;
+import at.mukprojects.countdown.CountdownTimer;
+import at.mukprojects.countdown.client.SntpClient;
+import at.mukprojects.countdown.server.SntpServer;
+
+public class HistogramMetricsTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistogramMetricsTest.class);
+
+    private HistogramMetrics metrics;
+
+    @Before
+    public void setUp() {
+	metrics = new HistogramMetrics();
+    }
+
+    @Test
+    public void testPercentiles() {
+	logger.info("Test (testPercentiles) is starting...");
+
+	LatencyHistogram histogram = new LatencyHistogram();
+	for (long value = 1; value <= 10000; value++) {
+	    histogram.record(value * 1000);
+	}
+	histogram.record(-5);
+
+	assertEquals(10001, histogram.getCount());
+	assertEquals(10000000, histogram.getMax());
+
+	/*
+	 * The buckets have a relative width of 1/32.
+	 */
+	long p50 = histogram.getValueAtPercentile(50);
+	long p99 = histogram.getValueAtPercentile(99);
+	logger.debug("P50: " + p50 + ", P99: " + p99);
+
+	assertTrue(Math.abs(p50 - 5000000) <= 5000000 / 16);
+	assertTrue(Math.abs(p99 - 9900000) <= 9900000 / 16);
+
+	histogram.reset();
+	assertEquals(0, histogram.getCount());
+	assertEquals(0, histogram.getValueAtPercentile(99));
+
+	logger.info("Test (testPercentiles) has finished.");
+    }
+
+    @Test
+    public void testMXBean() throws Exception {
+	logger.info("Test (testMXBean) is starting...");
+
+	metrics.register();
+	metrics.recordRoundTripDelay(TimeUnit.MILLISECONDS.toNanos(20));
+	metrics.recordServerFailure("127.0.0.2");
+
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	ObjectName name = new ObjectName(HistogramMetrics.OBJECT_NAME);
+
+	CompositeData delay = (CompositeData) server.getAttribute(name, "RoundTripDelay");
+	logger.debug("Round trip delay: " + delay);
+
+	assertEquals(1L, delay.get("count"));
+	assertTrue(Math.abs((Long) delay.get("max") - 20000) <= 20000 / 16);
+	assertEquals(Long.valueOf(1), metrics.getServerFailures().get("127.0.0.2"));
+
+	server.invoke(name, "reset", null, null);
+	assertEquals(0, metrics.getRoundTripDelay().getCount());
+
+	metrics.unregister();
+	assertFalse(server.isRegistered(name));
+
+	logger.info("Test (testMXBean) has finished.");
+    }
+
+    @Test
+    public void testCountdown() throws InterruptedException {
+	logger.info("Test (testCountdown) is starting...");
+
+	Metrics.setDefault(metrics);
+
+	CountdownTimer timer = new CountdownTimer();
+	CountdownTime countdown = timer.start(200, 10);
+	Thread.sleep(500);
+	timer.stop();
+
+	logger.debug("Tick lateness: " + metrics.getTickLateness());
+	logger.debug("Expiry lateness: " + metrics.getExpiryLateness());
+
+	assertTrue(countdown.isExpired());
+	assertTrue(metrics.getTickLateness().getCount() >= 10);
+	assertEquals(1, metrics.getExpiryLateness().getCount());
+	assertTrue(metrics.getExpiryLateness().getMax() < 100000);
+
+	logger.info("Test (testCountdown) has finished.");
+    }
+
+    @Test
+    public void testClient() throws Exception {
+	logger.info("Test (testClient) is starting...");
+
+	Metrics.setDefault(metrics);
+
+	SntpServer server = new SntpServer(new InetSocketAddress("127.0.0.1", 0)).start();
+	try {
+	    SntpClient client = new SntpClient(new String[] { "127.0.0.1" }, server.getPort(), 1000);
+	    client.requestSample().get(5, TimeUnit.SECONDS);
+
+	    assertEquals(SntpClient.DEFAULT_BURST, metrics.getRoundTripDelay().getCount());
+	    assertEquals(1, metrics.getClockOffset().getCount());
+
+	    client = new SntpClient(new String[] { "127.0.0.2" }, server.getPort(), 300);
+	    try {
+		client.requestSample().get(5, TimeUnit.SECONDS);
+		fail("The request should have timed out.");
+	    } catch (ExecutionException e) {
+		assertEquals(Long.valueOf(1), metrics.getServerTimeouts().get("127.0.0.2"));
+	    }
+	} finally {
+	    server.stop();
+	}
+
+	logger.info("Test (testClient) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	Metrics.setDefault(null);
+	metrics.unregister();
+    }
+}
@@ -0,0 +1,102 @@
+package at.mukprojects.countdown.scheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ExecutorSchedulerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutorSchedulerTest.class);
+
+    private ScheduledExecutorService executor;
+    private ExecutorScheduler scheduler;
+
+    @Before
+    public void setUp() {
+	executor = Executors.newScheduledThreadPool(2);
+	scheduler = new ExecutorScheduler(executor);
+    }
+
+    @Test
+    public void testCancelRunningTask() throws InterruptedException {
+	logger.info("Test (testCancelRunningTask) is starting...");
+
+	final CountDownLatch started = new CountDownLatch(1);
+	final CountDownLatch release = new CountDownLatch(1);
+
+	Timeout timeout = scheduler.schedule(new Runnable() {
+	    @Override
+	    public void run() {
+		started.countDown();
+		try {
+		    release.await();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    }
+	}, 0, TimeUnit.MILLISECONDS);
+
+	/*
+	 * A one-shot task, which has already started, can't be cancelled
+	 * anymore, so the caller doesn't schedule it a second time.
+	 */
+	assertTrue(started.await(2, TimeUnit.SECONDS));
+	assertFalse(timeout.cancel());
+	assertFalse(timeout.isCancelled());
+	release.countDown();
+
+	logger.info("Test (testCancelRunningTask) has finished.");
+    }
+
+    @Test
+    public void testCancelPendingTask() throws InterruptedException {
+	logger.info("Test (testCancelPendingTask) is starting...");
+
+	final AtomicInteger runs = new AtomicInteger();
+	Runnable task = new Runnable() {
+	    @Override
+	    public void run() {
+		runs.incrementAndGet();
+	    }
+	};
+
+	Timeout oneShot = scheduler.schedule(task, 200, TimeUnit.MILLISECONDS);
+	assertTrue(oneShot.cancel());
+	assertTrue(oneShot.isCancelled());
+	assertFalse(oneShot.cancel());
+
+	Timeout periodic = scheduler.schedule(task, 0, 10, TimeUnit.MILLISECONDS);
+	Thread.sleep(100);
+	assertTrue(periodic.cancel());
+	assertTrue(periodic.isCancelled());
+
+	/*
+	 * A run, which has been in progress, may still finish.
+	 */
+	Thread.sleep(20);
+	int count = runs.get();
+	Thread.sleep(100);
+
+	logger.debug("Runs: " + count);
+
+	assertTrue(count > 0);
+	assertEquals(count, runs.get());
+
+	logger.info("Test (testCancelPendingTask) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	executor.shutdownNow();
+    }
+}
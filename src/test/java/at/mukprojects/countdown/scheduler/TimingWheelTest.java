@@ -0,0 +1,175 @@
+package at.mukprojects.countdown.scheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TimingWheelTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheelTest.class);
+
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() {
+	wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 2);
+    }
+
+    @Test
+    public void testSingleExecution() throws InterruptedException {
+	logger.info("Test (testSingleExecution) is starting...");
+
+	final CountDownLatch latch = new CountDownLatch(1);
+	final long before = System.nanoTime();
+
+	WheelTimeout timeout = wheel.schedule(new Runnable() {
+	    @Override
+	    public void run() {
+		latch.countDown();
+	    }
+	}, 300, TimeUnit.MILLISECONDS);
+
+	assertTrue(latch.await(2, TimeUnit.SECONDS));
+
+	long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+	logger.debug("Difference: " + diff);
+
+	assertTrue(300 <= diff && diff < 500);
+	assertTrue(timeout.isExpired());
+	assertFalse(timeout.cancel());
+
+	logger.info("Test (testSingleExecution) has finished.");
+    }
+
+    @Test
+    public void testCascadingDeadlines() throws InterruptedException {
+	logger.info("Test (testCascadingDeadlines) is starting...");
+
+	final int count = 2000;
+	final CountDownLatch latch = new CountDownLatch(count);
+	final AtomicInteger early = new AtomicInteger();
+
+	for (int i = 0; i < count; i++) {
+	    final long delay = (i * 7) % 1500;
+	    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+
+	    wheel.schedule(new Runnable() {
+		@Override
+		public void run() {
+		    if (System.nanoTime() < deadline) {
+			early.incrementAndGet();
+		    }
+		    latch.countDown();
+		}
+	    }, delay, TimeUnit.MILLISECONDS);
+	}
+
+	assertTrue(latch.await(5, TimeUnit.SECONDS));
+	assertEquals(0, early.get());
+
+	logger.info("Test (testCascadingDeadlines) has finished.");
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+	logger.info("Test (testCancel) is starting...");
+
+	final AtomicInteger runs = new AtomicInteger();
+
+	WheelTimeout periodic = wheel.schedule(new Runnable() {
+	    @Override
+	    public void run() {
+		runs.incrementAndGet();
+	    }
+	}, 0, 10, TimeUnit.MILLISECONDS);
+
+	WheelTimeout single = wheel.schedule(new Runnable() {
+	    @Override
+	    public void run() {
+		runs.addAndGet(1000);
+	    }
+	}, 200, TimeUnit.MILLISECONDS);
+
+	assertTrue(single.cancel());
+
+	Thread.sleep(100);
+	assertTrue(periodic.cancel());
+	int stopped = runs.get();
+
+	Thread.sleep(300);
+
+	assertTrue(stopped > 0);
+	assertTrue(runs.get() <= stopped + 1);
+	assertTrue(single.isCancelled());
+
+	logger.info("Test (testCancel) has finished.");
+    }
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+	logger.info("Test (testCoalescing) is starting...");
+
+	final int count = 100;
+	final ConcurrentLinkedQueue<Long> runs = new ConcurrentLinkedQueue<Long>();
+	final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	List<WheelTimeout> timeouts = new ArrayList<WheelTimeout>();
+	for (int i = 0; i < count; i++) {
+	    timeouts.add(wheel.schedule(new Runnable() {
+		@Override
+		public void run() {
+		    runs.add(System.nanoTime());
+		    threads.add(Thread.currentThread().getName());
+		}
+	    }, i % 10, 10, TimeUnit.MILLISECONDS));
+	}
+
+	Thread.sleep(100);
+	runs.clear();
+	Thread.sleep(300);
+	for (WheelTimeout timeout : timeouts) {
+	    timeout.cancel();
+	}
+
+	/*
+	 * Runs, which are more than half a tick apart, belong to different wakeups.
+	 * Without coalescing the tasks would wake the wheel up every tick.
+	 */
+	List<Long> times = new ArrayList<Long>(runs);
+	Collections.sort(times);
+	int wakeups = 0;
+	long last = Long.MIN_VALUE;
+	for (long time : times) {
+	    if (last == Long.MIN_VALUE || time - last > TimeUnit.MICROSECONDS.toNanos(500)) {
+		wakeups++;
+	    }
+	    last = time;
+	}
+
+	logger.debug("Runs: " + times.size() + ", Wakeups: " + wakeups + ", Threads: " + threads);
+	assertTrue(times.size() >= count * 20);
+	assertTrue(wakeups <= 40);
+	assertEquals(1, threads.size());
+
+	logger.info("Test (testCoalescing) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	wheel.stop();
+    }
+}
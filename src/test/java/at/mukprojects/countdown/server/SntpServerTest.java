@@ -0,0 +1,112 @@
+package at.mukprojects.countdown.server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.mukprojects.countdown.client.NtpPacket;
+import at.mukprojects.countdown.client.SntpClient;
+import at.mukprojects.countdown.client.TimeSample;
+
+public class SntpServerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SntpServerTest.class);
+
+    private static final long OFFSET = -3000;
+
+    private SntpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+	server = new SntpServer(new InetSocketAddress("127.0.0.1", 0), 1, OFFSET, TimeUnit.MILLISECONDS).start();
+    }
+
+    @Test
+    public void testClient() throws Exception {
+	logger.info("Test (testClient) is starting...");
+
+	SntpClient client = new SntpClient(new String[] { "127.0.0.1" }, server.getPort(), 5000);
+	TimeSample sample = client.requestSample().get(5, TimeUnit.SECONDS);
+
+	logger.debug(sample.toString());
+
+	assertTrue(Math.abs(sample.getOffsetMillis() - OFFSET) < 10);
+	assertTrue(sample.getRoundTripDelay() < TimeUnit.MILLISECONDS.toNanos(100));
+	assertEquals(SntpClient.DEFAULT_BURST, server.getRequests());
+
+	logger.info("Test (testClient) has finished.");
+    }
+
+    @Test
+    public void testBurst() throws Exception {
+	logger.info("Test (testBurst) is starting...");
+
+	final int count = 500;
+
+	DatagramSocket socket = new DatagramSocket();
+	try {
+	    socket.connect(server.getLocalAddress());
+	    socket.setSoTimeout(2000);
+
+	    byte[] data = new byte[NtpPacket.SIZE];
+	    DatagramPacket datagram = new DatagramPacket(data, data.length);
+	    NtpPacket packet = new NtpPacket(ByteBuffer.wrap(data));
+	    Set<Long> pending = new HashSet<Long>();
+
+	    /*
+	     * A broadcast packet isn't a request, so it's dropped.
+	     */
+	    packet.request(NtpPacket.now()).setMode(5);
+	    socket.send(datagram);
+
+	    /*
+	     * The requests are sent in bursts, which fit into the default
+	     * socket buffers.
+	     */
+	    for (int burst = 0; burst < count / 100; burst++) {
+		for (int i = 0; i < 100; i++) {
+		    long transmitTimestamp = NtpPacket.now() + i;
+		    packet.request(transmitTimestamp).setVersion(4);
+		    socket.send(datagram);
+		    pending.add(transmitTimestamp);
+		}
+
+		for (int i = 0; i < 100; i++) {
+		    socket.receive(datagram);
+
+		    assertEquals(4, packet.getMode());
+		    assertEquals(4, packet.getVersion());
+		    assertEquals(1, packet.getStratum());
+		    assertTrue(pending.remove(packet.getOriginateTimestamp()));
+		    assertTrue(NtpPacket.toNanos(packet.getTransmitTimestamp() - packet.getReceiveTimestamp()) > -1000);
+		}
+	    }
+
+	    assertTrue(pending.isEmpty());
+	    assertEquals(count, server.getRequests());
+	    assertEquals(1, server.getDropped());
+	} finally {
+	    socket.close();
+	}
+
+	logger.info("Test (testBurst) has finished.");
+    }
+
+    @After
+    public void tearDown() {
+	server.stop();
+    }
+}